@@ -0,0 +1,91 @@
+package de.bytemind.webservice.database;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Simple thread-safe Bloom filter for strings. "false" from {@link #mightContain(String)} is always correct, "true" can be wrong
+ * with roughly the false positive probability given at creation (as long as not more than the expected number of entries are added).
+ *
+ * @author Florian Quirin
+ *
+ */
+public class BloomFilter {
+
+	private final AtomicLongArray bits;
+	private final long numberOfBits;
+	private final int numberOfHashes;
+
+	/**
+	 * Create Bloom filter.
+	 * @param expectedEntries - number of entries the filter is made for
+	 * @param falsePositiveProbability - e.g. 0.01 for 1%
+	 */
+	public BloomFilter(long expectedEntries, double falsePositiveProbability){
+		long n = Math.max(1, expectedEntries);
+		double p = Math.min(0.5d, Math.max(1e-9d, falsePositiveProbability));
+		long m = (long) Math.ceil(-n * Math.log(p) / (Math.log(2) * Math.log(2)));
+		m = Math.max(64, ((m + 63) / 64) * 64);
+		this.numberOfBits = m;
+		this.numberOfHashes = (int) Math.max(1, Math.round((double) m / n * Math.log(2)));
+		this.bits = new AtomicLongArray((int) (m / 64));
+	}
+
+	/**
+	 * Add an entry.
+	 */
+	public void add(String entry){
+		long hash = hash64(entry);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		for (int i = 1; i <= numberOfHashes; i++){
+			long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % numberOfBits;
+			int index = (int) (bit >>> 6);
+			long mask = 1l << (bit & 63);
+			long old;
+			do{
+				old = bits.get(index);
+				if ((old & mask) != 0){
+					break;
+				}
+			}while (!bits.compareAndSet(index, old, old | mask));
+		}
+	}
+
+	/**
+	 * Check if an entry might be in the filter. If this is false the entry was never added.
+	 */
+	public boolean mightContain(String entry){
+		long hash = hash64(entry);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		for (int i = 1; i <= numberOfHashes; i++){
+			long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % numberOfBits;
+			if ((bits.get((int) (bit >>> 6)) & (1l << (bit & 63))) == 0){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Memory used by the bits in bytes.
+	 */
+	public long getSizeInBytes(){
+		return numberOfBits / 8;
+	}
+
+	//64 bit FNV-1a with final mix
+	private static long hash64(String entry){
+		long h = 0xcbf29ce484222325l;
+		for (byte b : entry.getBytes(StandardCharsets.UTF_8)){
+			h ^= (b & 0xff);
+			h *= 0x100000001b3l;
+		}
+		h ^= (h >>> 33);
+		h *= 0xff51afd7ed558ccdl;
+		h ^= (h >>> 33);
+		return h;
+	}
+
+}
@@ -0,0 +1,374 @@
+package de.bytemind.webservice.database;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import de.bytemind.core.databases.ElasticSearchConfig;
+import de.bytemind.core.databases.Elasticsearch;
+import de.bytemind.core.databases.KnowledgeDatabase;
+import de.bytemind.core.server.Statistics;
+import de.bytemind.core.tools.Connectors;
+import de.bytemind.core.tools.Debugger;
+import de.bytemind.core.tools.JSON;
+import de.bytemind.webservice.server.Config;
+
+/**
+ * Bounded write queue for the knowledge database. A small pool of workers collects the queued documents and writes them in batches
+ * via the Elasticsearch "_bulk" API as soon as "Config.bulkMaxActions" documents are collected or "Config.bulkFlushInterval" ms passed.
+ * If the knowledge database is not Elasticsearch the workers write the documents one by one.<br>
+ * What happens when the queue is full is defined by "Config.bulkBackpressure" ({@link #BLOCK}, {@link #DROP} or {@link #CALLER_RUNS}).
+ * Remaining documents are written when the JVM shuts down.
+ *
+ * @author Florian Quirin
+ *
+ */
+public class BulkIndexer {
+
+	public static final String BLOCK = "block";					//wait for free space in queue
+	public static final String DROP = "drop";					//skip the document (and count it)
+	public static final String CALLER_RUNS = "caller-runs";		//write the document in the calling thread
+
+	/**
+	 * Document waiting to be written.
+	 */
+	private static class Item {
+		final String index;
+		final String type;
+		final String id; 		//null for auto-generated IDs
+		final JSONObject data;
+		int attempts = 0;
+
+		Item(String index, String type, String id, JSONObject data){
+			this.index = index;
+			this.type = type;
+			this.id = id;
+			this.data = data;
+		}
+		String getPath(){
+			return index + "/" + type + "/" + ((id != null)? id : "[rnd]");
+		}
+	}
+
+	private final BlockingQueue<Item> queue;
+	private final KnowledgeDatabase db;
+	private final int maxActions;
+	private final long flushInterval;
+	private final int maxRetries;
+	private final String backpressure;
+	private final List<Thread> workers = new ArrayList<>();
+	private volatile boolean running = true;
+	private final AtomicInteger activeWorkers = new AtomicInteger(0);
+
+	//metrics
+	private final LongAdder accepted = new LongAdder();
+	private final LongAdder written = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+	private final LongAdder retried = new LongAdder();
+	private final LongAdder callerRuns = new LongAdder();
+	private final LongAdder batches = new LongAdder();
+	private final LongAdder batchedItems = new LongAdder();
+	private final AtomicLong maxBatch = new AtomicLong(0);
+	private volatile int lastBatch = 0;
+
+	/**
+	 * Create indexer with settings from Config and start its workers.
+	 * @param db - knowledge database to write to
+	 */
+	public BulkIndexer(KnowledgeDatabase db){
+		this.db = db;
+		this.queue = new ArrayBlockingQueue<>(Math.max(1, Config.bulkQueueSize));
+		this.maxActions = Math.max(1, Config.bulkMaxActions);
+		this.flushInterval = Math.max(1, Config.bulkFlushInterval);
+		this.maxRetries = Math.max(0, Config.bulkRetries);
+		this.backpressure = Config.bulkBackpressure;
+		if (!backpressure.equals(BLOCK) && !backpressure.equals(DROP) && !backpressure.equals(CALLER_RUNS)){
+			throw new RuntimeException("Unknown bulk backpressure mode: '" + backpressure + "'! Please use '" + BLOCK + "', '" + DROP + "' or '" + CALLER_RUNS + "'.");
+		}
+		for (int i = 0; i < Math.max(1, Config.bulkWorkers); i++){
+			Thread t = new Thread(this::work, "bulk-indexer-" + i);
+			t.setDaemon(true);
+			workers.add(t);
+			t.start();
+		}
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> shutdown(10000), "bulk-indexer-shutdown"));
+		Debugger.println("Bulk indexer: " + workers.size() + " workers, queue " + Config.bulkQueueSize + ", batches of max. " + maxActions
+				+ " or " + flushInterval + "ms, backpressure: " + backpressure + (isElasticsearch()? "" : " (no ES, writing one by one)"), 3);
+	}
+
+	/**
+	 * Add a document to the write queue.
+	 * @param index - index or table name
+	 * @param type - subclass name
+	 * @param id - unique item ID or null to let the database generate one
+	 * @param data - document
+	 * @return true if the document was accepted (false if it was dropped or the indexer is shut down)
+	 */
+	public boolean add(String index, String type, String id, JSONObject data){
+		Item item = new Item(index, type, id, data);
+		if (!running){
+			dropped.increment();
+			Debugger.println("KNOWLEDGE DB ERROR! - bulk indexer is shut down - PATH: " + item.getPath() + " - TIME: " + System.currentTimeMillis(), 1);
+			return false;
+		}
+		if (queue.offer(item)){
+			accepted.increment();
+			return true;
+		}
+		//queue is full
+		if (backpressure.equals(BLOCK)){
+			try{
+				queue.put(item);
+				accepted.increment();
+				return true;
+			}catch (InterruptedException e){
+				Thread.currentThread().interrupt();
+				dropped.increment();
+				return false;
+			}
+		}else if (backpressure.equals(CALLER_RUNS)){
+			accepted.increment();
+			callerRuns.increment();
+			List<Item> single = new ArrayList<>(1);
+			single.add(item);
+			write(single);
+			return true;
+		}else{
+			dropped.increment();
+			return false;
+		}
+	}
+
+	/**
+	 * Stop accepting documents and write what is left in the queue.
+	 * @param timeout - max. time to wait for the workers in ms
+	 */
+	public void shutdown(long timeout){
+		if (!running){
+			return;
+		}
+		running = false;
+		long deadline = System.currentTimeMillis() + timeout;
+		for (Thread t : workers){
+			try{
+				t.join(Math.max(1, deadline - System.currentTimeMillis()));
+			}catch (InterruptedException e){
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		if (!queue.isEmpty()){
+			Debugger.println("Bulk indexer: shutdown left " + queue.size() + " unwritten documents!", 1);
+		}
+	}
+
+	//------------Workers----------------
+
+	private void work(){
+		List<Item> batch = new ArrayList<>(maxActions);
+		while (running || !queue.isEmpty()){
+			try{
+				Item first = queue.poll(flushInterval, TimeUnit.MILLISECONDS);
+				if (first == null){
+					continue;
+				}
+				activeWorkers.incrementAndGet();
+				try{
+					batch.add(first);
+					long deadline = System.currentTimeMillis() + flushInterval;
+					while (batch.size() < maxActions){
+						queue.drainTo(batch, maxActions - batch.size());
+						long wait = deadline - System.currentTimeMillis();
+						if (batch.size() >= maxActions || wait <= 0 || !running){
+							break;
+						}
+						Item next = queue.poll(wait, TimeUnit.MILLISECONDS);
+						if (next == null){
+							break;
+						}
+						batch.add(next);
+					}
+					write(batch);
+				}finally{
+					batch.clear();
+					activeWorkers.decrementAndGet();
+				}
+			}catch (InterruptedException e){
+				break;
+			}catch (Exception e){
+				Debugger.println("Bulk indexer: worker error - " + e.getMessage(), 1);
+			}
+		}
+	}
+
+	/**
+	 * Write a batch and retry failed documents.
+	 */
+	private void write(List<Item> batch){
+		batches.increment();
+		batchedItems.add(batch.size());
+		maxBatch.accumulateAndGet(batch.size(), Math::max);
+		lastBatch = batch.size();
+
+		List<Item> todo = batch;
+		while (!todo.isEmpty()){
+			long tic = Debugger.tic();
+			List<Item> retry = isElasticsearch()? writeBulk(todo) : writeSingle(todo);
+			Statistics.addInternalApiHit("saveKnowledgeBulk", tic);
+			todo = new ArrayList<>();
+			for (Item item : retry){
+				item.attempts++;
+				if (item.attempts > maxRetries){
+					failed.increment();
+					Debugger.println("KNOWLEDGE DB ERROR! - PATH: " + item.getPath() + " - TIME: " + System.currentTimeMillis(), 1);
+				}else{
+					retried.increment();
+					todo.add(item);
+				}
+			}
+			if (!todo.isEmpty()){
+				//back-off before retry
+				int attempt = todo.get(0).attempts;
+				try{
+					Thread.sleep(Math.min(5000, 100l << Math.min(attempt, 6)));
+				}catch (InterruptedException e){
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+
+	private boolean isElasticsearch(){
+		return (db instanceof Elasticsearch);
+	}
+
+	/**
+	 * Write via Elasticsearch "_bulk" API.
+	 * @return items that should be retried
+	 */
+	private List<Item> writeBulk(List<Item> items){
+		StringBuilder body = new StringBuilder();
+		for (Item item : items){
+			JSONObject meta = new JSONObject();
+			JSON.add(meta, "_index", item.index);
+			JSON.add(meta, "_type", item.type);
+			if (item.id != null){
+				JSON.add(meta, "_id", item.id);
+			}
+			body.append(JSON.make("index", meta).toJSONString()).append("\n");
+			body.append(item.data.toJSONString()).append("\n");
+		}
+		String data = body.toString();
+		HashMap<String, String> headers = new HashMap<>();
+		headers.put("Content-Type", "application/x-ndjson");
+		headers.put("Content-Length", Integer.toString(data.getBytes().length));
+
+		List<Item> retry = new ArrayList<>();
+		JSONObject result = Connectors.httpPOST(ElasticSearchConfig.getEndpoint() + "/_bulk", data, headers);
+		DB.ELASTICSEARCH_WRITES.inc();
+		JSONArray results = (result != null)? JSON.getJArray(result, "items") : null;
+		if (results == null || results.size() != items.size()){
+			//whole request failed - we don't know what has been written, only documents with ID can be written again without duplicates
+			Debugger.println("Bulk indexer: _bulk request failed - " + ((result != null)? result.toJSONString() : "no response"), 1);
+			for (Item item : items){
+				if (item.id != null){
+					retry.add(item);
+				}else{
+					failed.increment();
+					Debugger.println("KNOWLEDGE DB ERROR! - PATH: " + item.getPath() + " - STATUS: unknown (not retried) - TIME: " + System.currentTimeMillis(), 1);
+				}
+			}
+			return retry;
+		}
+		for (int i = 0; i < items.size(); i++){
+			JSONObject res = JSON.getJObject((JSONObject) results.get(i), "index");
+			int status = (res != null)? JSON.getIntegerOrDefault(res, "status", 500) : 500;
+			if (status < 300){
+				written.increment();
+			}else if (status == 429 || status >= 500){
+				retry.add(items.get(i));
+			}else{
+				//client errors will not go away with a retry
+				failed.increment();
+				Debugger.println("KNOWLEDGE DB ERROR! - PATH: " + items.get(i).getPath() + " - STATUS: " + status
+						+ " - ERROR: " + res.get("error") + " - TIME: " + System.currentTimeMillis(), 1);
+			}
+		}
+		return retry;
+	}
+
+	/**
+	 * Write one by one (other databases).
+	 * @return items that should be retried
+	 */
+	private List<Item> writeSingle(List<Item> items){
+		List<Item> retry = new ArrayList<>();
+		for (Item item : items){
+			JSONObject res = (item.id != null)? db.setItemData(item.index, item.type, item.id, item.data)
+					: db.setAnyItemData(item.index, item.type, item.data);
+			if (JSON.getIntegerOrDefault(res, "code", -1) == 0){
+				written.increment();
+			}else{
+				retry.add(item);
+			}
+		}
+		return retry;
+	}
+
+	//------------Metrics----------------
+
+	public int getQueueDepth(){
+		return queue.size();
+	}
+	public long getAccepted(){
+		return accepted.sum();
+	}
+	public long getWritten(){
+		return written.sum();
+	}
+	public long getFailed(){
+		return failed.sum();
+	}
+	public long getDropped(){
+		return dropped.sum();
+	}
+	public long getRetried(){
+		return retried.sum();
+	}
+	public long getBatches(){
+		return batches.sum();
+	}
+	/**
+	 * Average number of documents per batch.
+	 */
+	public double getAverageBatchSize(){
+		long b = batches.sum();
+		return (b > 0)? ((double) batchedItems.sum() / b) : 0.0d;
+	}
+	public long getMaxBatchSize(){
+		return maxBatch.get();
+	}
+
+	/**
+	 * Current state of the indexer as string for the statistics end-point.
+	 */
+	public String getStatsAsString(){
+		return "Bulk indexer:" +
+				"\n- queue: " + getQueueDepth() + " of " + Config.bulkQueueSize + " (active workers: " + activeWorkers.get() + ")" +
+				"\n- accepted: " + getAccepted() + ", written: " + getWritten() + ", failed: " + getFailed() + ", dropped: " + getDropped()
+					+ ", retried: " + getRetried() + ", caller-runs: " + callerRuns.sum() +
+				"\n- batches: " + getBatches() + ", avg. size: " + Math.round(getAverageBatchSize() * 10.0d) / 10.0d
+					+ ", max. size: " + getMaxBatchSize() + ", last size: " + lastBatch + "\n";
+	}
+
+}
@@ -1,5 +1,9 @@
 package de.bytemind.webservice.database;
 
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
 import org.json.simple.JSONObject;
 
 import de.bytemind.core.client.ClientDefaults;
@@ -11,6 +15,8 @@ import de.bytemind.core.tools.Debugger;
 import de.bytemind.core.tools.JSON;
 import de.bytemind.core.users.Account;
 import de.bytemind.core.users.IdHandler;
+import de.bytemind.webservice.metrics.Counter;
+import de.bytemind.webservice.metrics.Metrics;
 import de.bytemind.webservice.server.Config;
 import de.bytemind.webservice.users.AccountData;
 
@@ -25,6 +31,8 @@ public class DB {
 	//statics
 	//TODO: update indices (storage, knowledge used? new ones?)
 	public static final String USERS = "users";				//user data like account, list, contacts, etc.
+	public static final String USERS_TOKENS = "users_tokens";	//split user storage: one item per user and client login token (expired items are removed by DynamoDB TTL)
+	public static final String USERS_PROFILES = "users_profiles";	//split user storage: profile and statistics of a user (everything not needed for authentication)
 	public static final String TICKETS = "tickets";			//tickets (unique IDs) that can be used for registration tokens or actions that need to be secured 
 	public static final String STORAGE = "storage";			//unsorted data for later processing
 	public static final String KNOWLEDGE = "knowledge";		//processed and sorted data for queries
@@ -32,6 +40,12 @@ public class DB {
 	public static final String WHITELIST = "whitelist";		//white-lists of e.g. users
 	public static final String ES_GUID = "guid";			//global unique id generator for Elasticsearch (an index that generates IDs by updating an entry and using the version number) 
 	
+	//call counters (see /metrics)
+	public static final Counter DYNAMODB_READS = Metrics.counter("DynamoDB:read");
+	public static final Counter DYNAMODB_WRITES = Metrics.counter("DynamoDB:write");
+	public static final Counter ELASTICSEARCH_READS = Metrics.counter("Elasticsearch:read");
+	public static final Counter ELASTICSEARCH_WRITES = Metrics.counter("Elasticsearch:write");
+	
 	//----------Database Implementations----------
 
 	private static AccountData accountsDB;			//BASIC USER ACCOUNT STUFF
@@ -88,6 +102,15 @@ public class DB {
 			return null;
 		}
 	}
+	/**
+	 * Get the same account info of many users at once (one database request per 100 users).
+	 * @param userIds - user ids
+	 * @param keys - account info to load (restricted keys are skipped)
+	 * @return map of user id to JSON with the info found (users not found are missing) or null on error
+	 */
+	public static Map<String, JSONObject> getAccountInfosBatch(Collection<String> userIds, String... keys) {
+		return getAccountsDB().getInfosBatch(userIds, keys);
+	}
 	/**
 	 * Get object from account by using id.
 	 * @param userId - user id
@@ -110,8 +133,23 @@ public class DB {
 	public static int setAccountInfos(String userId, JSONObject data) {
 		//create superuser
 		Account user = createSuperuser(userId);
+		if (Config.accountWriteWindow > 0){
+			//wait for the merged write - blocks the calling thread for up to one window, callers that can use the future call setAccountInfosAsync
+			return getAccountsDB().setInfosAsync(user, data).join();
+		}
 		return getAccountsDB().setInfos(user, data);
 	}
+	/**
+	 * Set an account info of user id without waiting. Updates of the same user can be merged (Config.accountWriteWindow).
+	 * @param userId - user id
+	 * @param data - JSON object with data to write
+	 * @return future with the error code (see {@link #setAccountInfos(String, JSONObject)})
+	 */
+	public static CompletableFuture<Integer> setAccountInfosAsync(String userId, JSONObject data) {
+		//create superuser
+		Account user = createSuperuser(userId);
+		return getAccountsDB().setInfosAsync(user, data);
+	}
 	/**
 	 * Set an account info of user id. 
 	 * @param userId - user id
@@ -288,57 +326,67 @@ public class DB {
 	}
 	*/
 	
-	//TODO: rewrite the asynchronous write methods to collect data and write all at the same time as batchWrite when finished collecting
+	//asynchronous writes are collected by the bulk indexer and written in batches
+	private static volatile BulkIndexer bulkIndexer;
+	
+	/**
+	 * Get the bulk indexer for asynchronous writes to the knowledge database (started on first call).
+	 */
+	public static BulkIndexer getBulkIndexer(){
+		if (bulkIndexer == null){
+			synchronized (DB.class){
+				if (bulkIndexer == null){
+					bulkIndexer = new BulkIndexer(getKnowledgeDB());
+				}
+			}
+		}
+		return bulkIndexer;
+	}
+	/**
+	 * Statistics of the bulk indexer or empty string if it was never used.
+	 */
+	public static String getBulkIndexerStats(){
+		BulkIndexer bi = bulkIndexer;
+		return (bi != null)? bi.getStatsAsString() : "";
+	}
 	
 	/**
 	 * Save stuff to database without waiting for reply, making this save method UNSAVE so keep that in mind when using it.
-	 * Errors get written to log.
+	 * Data is queued and written in batches, errors get written to log.
 	 * @param index - index or table name like e.g. "account" or "knowledge"
 	 * @param type - subclass name, e.g. "user", "lists", "banking" (for account) or "geodata" and "dictionary" (for knowledge)
 	 * @param item_id - unique item/id name, e.g. user email address, dictionary word or geodata location name
 	 * @param data - JSON string with data objects that should be stored for index/type/item, e.g. {"name":"john"}
 	 */
 	public static void saveKnowledgeAsync(String index, String type, String item_id, JSONObject data){
-		Thread thread = new Thread(){
-		    public void run(){
-		    	//time
-		    	long tic = Debugger.tic();
-		    	
-		    	JSONObject res = getKnowledgeDB().setItemData(index, type, item_id, data);
-		    	int code = JSON.getIntegerOrDefault(res, "code", -1);
-				if (code != 0){
-					Debugger.println("KNOWLEDGE DB ERROR! - PATH: " + index + "/" + type + "/" + item_id + " - TIME: " + System.currentTimeMillis(), 1);
-				}else{
-					//Debugger.println("KNOWLEDGE DB UPDATED! - PATH: " + index + "/" + type + "/" + item_id + " - TIME: " + System.currentTimeMillis(), 1);
-					Statistics.addInternalApiHit("saveKnowledgeAsync", tic);
-				}
-		    }
-		};
-		thread.start();
+		getBulkIndexer().add(index, type, item_id, data);
 	}
 	/**
 	 * Save stuff to database without waiting for reply, making this save method UNSAVE so keep that in mind when using it.
-	 * Errors get written to log. This method does not require an ID, it is auto-generated.
+	 * Data is queued and written in batches, errors get written to log. This method does not require an ID, it is auto-generated.
 	 * @param index - index or table name like e.g. "account" or "knowledge"
 	 * @param type - subclass name, e.g. "user", "lists", "banking" (for account) or "geodata" and "dictionary" (for knowledge)
 	 * @param data - JSON string with data objects that should be stored for index/type/item, e.g. {"name":"john"}
 	 */
 	public static void saveKnowledgeAsyncAnyID(String index, String type, JSONObject data){
-		Thread thread = new Thread(){
-		    public void run(){
-		    	//time
-		    	long tic = Debugger.tic();
-		    	
-		    	int code = JSON.getIntegerOrDefault(getKnowledgeDB().setAnyItemData(index, type, data), "code", -1);
-				if (code != 0){
-					Debugger.println("KNOWLEDGE DB ERROR! - PATH: " + index + "/" + type + "/[rnd] - TIME: " + System.currentTimeMillis(), 1);
-				}else{
-					//Debugger.println("KNOWLEDGE DB UPDATED! - PATH: " + index + "/" + type + "/[rnd] - TIME: " + System.currentTimeMillis(), 1);
-					Statistics.addInternalApiHit("saveKnowledgeAsyncAnyID", tic);
+		getBulkIndexer().add(index, type, null, data);
+	}
+	
+	//in-memory copy of the white-list
+	private static volatile WhitelistCache whitelistCache;
+	
+	/**
+	 * Get the in-memory white-list (starts loading on first call).
+	 */
+	public static WhitelistCache getWhitelistCache(){
+		if (whitelistCache == null){
+			synchronized (DB.class){
+				if (whitelistCache == null){
+					whitelistCache = new WhitelistCache();
 				}
-		    }
-		};
-		thread.start();
+			}
+		}
+		return whitelistCache;
 	}
 	
 	/**
@@ -355,17 +403,31 @@ public class DB {
 		JSON.add(data, "info", "-");
 		
 		int code = JSON.getIntegerOrDefault(getKnowledgeDB().setAnyItemData(WHITELIST, "users", data), "code", -1);
+		ELASTICSEARCH_WRITES.inc();
 		//System.out.println("save whitelist user result - code: " + code); 		//debug
+		if (code == 0){
+			getWhitelistCache().add(email);
+		}
 		return code;
 	}
 	/**
-	 * Search a user on the white-list.
+	 * Search a user on the white-list (uses the in-memory white-list if active, see {@link WhitelistCache}).
 	 */
 	public static boolean searchWhitelistUserEmail(String email){
+		if (email == null || email.isEmpty()){
+			return false;
+		}
+		return getWhitelistCache().contains(email);
+	}
+	/**
+	 * Search a user on the white-list in the database.
+	 */
+	public static boolean searchWhitelistUserEmailInDB(String email){
 		if (email == null || email.isEmpty()){
 			return false;
 		}
 		JSONObject data = getKnowledgeDB().searchSimple(WHITELIST + "/" + "users", "uid:" + IdHandler.clean(email));
+		ELASTICSEARCH_READS.inc();
 		//System.out.println("whitelist user search: " + data.toJSONString());
 		try{
 			int hits = Converters.obj2int(((JSONObject) data.get("hits")).get("total"), -1);
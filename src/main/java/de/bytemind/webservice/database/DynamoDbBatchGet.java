@@ -0,0 +1,158 @@
+package de.bytemind.webservice.database;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import de.bytemind.core.databases.DynamoDB;
+import de.bytemind.core.tools.Connectors;
+import de.bytemind.core.tools.Debugger;
+import de.bytemind.core.tools.JSON;
+import de.bytemind.core.tools.Timer;
+
+/**
+ * Read items of one or more DynamoDB tables with one "BatchGetItem" request (max. 100 keys). Keys DynamoDB did not process
+ * (throttling) are requested again a few times.
+ *
+ * @author Florian Quirin
+ *
+ */
+public class DynamoDbBatchGet {
+
+	private static final int MAX_RETRIES = 3;
+
+	private final Map<String, Table> tables = new LinkedHashMap<>();
+
+	private static class Table {
+		final String keyName;
+		final Set<String> keys = new LinkedHashSet<>();
+		final Set<String> lookUp = new LinkedHashSet<>();
+
+		Table(String keyName){
+			this.keyName = keyName;
+		}
+	}
+
+	/**
+	 * Add an item to read.
+	 * @param tableName - table of the item
+	 * @param keyName - primary key name (one per table)
+	 * @param key - primary key value (string)
+	 * @param lookUp - attributes (paths like "name.first") to read, the same for all items of the table
+	 */
+	public DynamoDbBatchGet add(String tableName, String keyName, String key, Collection<String> lookUp){
+		Table table = tables.computeIfAbsent(tableName, t -> new Table(keyName));
+		table.keys.add(key);
+		table.lookUp.addAll(lookUp);
+		table.lookUp.add(keyName);
+		return this;
+	}
+
+	public boolean isEmpty(){
+		return tables.isEmpty();
+	}
+
+	/**
+	 * Send the request. Connectors.httpSuccess(result) can be used to check the status.
+	 * @return response of the last request with the items of all requests in "Responses" ([table]: [items]) or null if keys are
+	 * still unprocessed after the retries (throttling)
+	 */
+	@SuppressWarnings("unchecked")
+	public JSONObject execute(){
+		JSONObject requestItems = new JSONObject();
+		for (Map.Entry<String, Table> e : tables.entrySet()){
+			requestItems.put(e.getKey(), buildTableRequest(e.getValue()));
+		}
+		JSONObject items = new JSONObject();
+		JSONObject response = null;
+		for (int i=0; i<=MAX_RETRIES && !requestItems.isEmpty(); i++){
+			if (i > 0){
+				Timer.threadSleep(10l << i);
+			}
+			JSONObject request = new JSONObject();
+			JSON.add(request, "RequestItems", requestItems);
+			response = DynamoDB.request("BatchGetItem", request.toJSONString());
+			DB.DYNAMODB_READS.inc();
+			if (!Connectors.httpSuccess(response)){
+				return response;
+			}
+			JSONObject responses = (JSONObject) response.get("Responses");
+			if (responses != null){
+				for (Object table : responses.keySet()){
+					JSONArray found = (JSONArray) items.get(table);
+					if (found == null){
+						found = new JSONArray();
+						items.put(table, found);
+					}
+					found.addAll((JSONArray) responses.get(table));
+				}
+			}
+			requestItems = (JSONObject) response.get("UnprocessedKeys");
+			if (requestItems == null){
+				requestItems = new JSONObject();
+			}
+		}
+		if (!requestItems.isEmpty()){
+			Debugger.println("DynamoDbBatchGet - keys still unprocessed after " + MAX_RETRIES + " retries: " + requestItems.keySet(), 1);
+			return null;
+		}
+		response.put("Responses", items);
+		return response;
+	}
+
+	/**
+	 * Items of a table in the result of {@link #execute()} (empty if none was found).
+	 */
+	public static List<JSONObject> getItems(JSONObject result, String tableName){
+		List<JSONObject> list = new ArrayList<>();
+		JSONObject responses = (result != null)? (JSONObject) result.get("Responses") : null;
+		JSONArray found = (responses != null)? (JSONArray) responses.get(tableName) : null;
+		if (found != null){
+			for (Object o : found){
+				list.add((JSONObject) o);
+			}
+		}
+		return list;
+	}
+
+	//Keys and "ProjectionExpression" with placeholders for all names (e.g. "#p1.#p2" for "name.first")
+	private static JSONObject buildTableRequest(Table table){
+		JSONArray keys = new JSONArray();
+		for (String key : table.keys){
+			JSONObject k = new JSONObject();
+			JSON.add(k, table.keyName, DynamoDB.typeConversionDynamoDB(key));
+			JSON.add(keys, k);
+		}
+		JSONObject names = new JSONObject();
+		Map<String, String> placeholders = new LinkedHashMap<>();
+		StringBuilder projection = new StringBuilder();
+		for (String path : table.lookUp){
+			if (projection.length() > 0){
+				projection.append(", ");
+			}
+			String[] levels = path.split("\\.");
+			for (int i=0; i<levels.length; i++){
+				String p = placeholders.get(levels[i]);
+				if (p == null){
+					p = "#p" + placeholders.size();
+					placeholders.put(levels[i], p);
+					JSON.add(names, p, levels[i]);
+				}
+				projection.append((i > 0)? "." : "").append(p);
+			}
+		}
+		JSONObject request = new JSONObject();
+		JSON.add(request, "Keys", keys);
+		JSON.add(request, "ProjectionExpression", projection.toString());
+		JSON.add(request, "ExpressionAttributeNames", names);
+		return request;
+	}
+
+}
@@ -10,7 +10,8 @@ import de.bytemind.core.tools.JSON;
 import de.bytemind.core.users.IdHandler;
 
 /**
- * Class to generate global unique IDs with Elasticsearch.
+ * Class to generate global unique IDs with Elasticsearch.<br>
+ * Refuses to work when the sequence entry has been migrated to {@link GlobalIdGeneratorElasticsearchRange} (IDs would be repeated).
  * 
  * @author Florian Quirin
  *
@@ -55,7 +56,7 @@ public class GlobalIdGeneratorElasticsearch implements GlobalIdGenerator{
 	 */
 	private static long makeElasticGUID(long guidOffset){
 		//build URL
-		String url = ElasticSearchConfig.getEndpoint() + "/" + DB.ES_GUID + "/" + "sequence" + "/" + "ticket" + "/_update";
+		String url = ElasticSearchConfig.getEndpoint() + "/" + DB.ES_GUID + "/" + "sequence" + "/" + "ticket" + "/_update?_source=true";
 		
 		//build data
 		JSONObject data = new JSONObject();
@@ -71,12 +72,18 @@ public class GlobalIdGeneratorElasticsearch implements GlobalIdGenerator{
 		headers.put("Content-Length", Integer.toString(data.toJSONString().getBytes().length));
 		
 		JSONObject result = Connectors.httpPOST(url, data.toJSONString(), headers);
+		DB.ELASTICSEARCH_WRITES.inc();
 		//System.out.println(result.toJSONString()); 		//debug
 		
 		//success?
 		try{
 			long version = (long) result.get("_version");
 			long shards_success = (long) JSON.getJObject(result, "_shards").get("successful");
+			JSONObject source = JSON.getJObject(JSON.getJObject(result, "get"), "_source");
+			if (source != null && source.get("last_id") != null){
+				throw new RuntimeException(GlobalIdGeneratorElasticsearch.class.getCanonicalName() 
+						+ " - sequence has been migrated to " + GlobalIdGeneratorElasticsearchRange.class.getSimpleName() + ", use that generator!");
+			}
 			if (shards_success == 1){
 				lastElasticGUID = version;
 				return version;
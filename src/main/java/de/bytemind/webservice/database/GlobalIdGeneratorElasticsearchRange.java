@@ -0,0 +1,209 @@
+package de.bytemind.webservice.database;
+
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.simple.JSONObject;
+
+import de.bytemind.core.databases.ElasticSearchConfig;
+import de.bytemind.core.tools.Connectors;
+import de.bytemind.core.tools.Debugger;
+import de.bytemind.core.tools.JSON;
+import de.bytemind.core.users.IdHandler;
+import de.bytemind.webservice.server.BasicAuthenticationServer;
+import de.bytemind.webservice.server.Config;
+
+/**
+ * Class to generate global unique IDs with Elasticsearch reserving a whole block of IDs per request (hi/lo style).
+ * IDs of the current block are handed out locally and the next block is fetched in the background before the current one is used up.<br>
+ * Uses the same sequence entry as {@link GlobalIdGeneratorElasticsearch} but the two generators must NOT be used at the same time on one cluster.
+ * IDs are unique but only roughly ordered between servers.<br>
+ * Migration: stop all servers that use the old generator, run the main method of this class (plus the usual server arguments like "--test")
+ * or {@link SetupElasticsearch#migrateGuidSequenceToRange(long)} to seed 'last_id' above the old IDs, then start the servers with this generator.
+ * Without 'last_id' this generator refuses to work and after the migration the old one does, so mixed or rolled back deployments fail
+ * instead of issuing duplicate IDs.
+ *
+ * @author Florian Quirin
+ *
+ */
+public class GlobalIdGeneratorElasticsearchRange implements GlobalIdGenerator{
+	
+	/**
+	 * Migrate the sequence entry (see class description). Optional argument "margin=N" (default 10000).
+	 */
+	public static void main(String[] args){
+		long margin = 10000;
+		for (String arg : args){
+			if (arg.startsWith("margin=")){
+				margin = Long.parseLong(arg.replaceFirst(".*?=", "").trim());
+			}
+		}
+		new BasicAuthenticationServer().loadSettings(args);
+		long lastId = SetupElasticsearch.migrateGuidSequenceToRange(margin);
+		System.out.println("GUID sequence migrated, next block starts after: " + lastId);
+	}
+
+	//offset
+	private long guidOffset = 997; 		//IDs should have at least 4 digits (same as GlobalIdGeneratorElasticsearch)
+
+	/**
+	 * Get a global unique ID for new users.
+	 * @throws RuntimeException
+	 */
+	public String getUserGUID() throws RuntimeException{
+		long guid = nextGUID();
+		return IdHandler.user_id_prefix + (guidOffset + guid);
+	}
+
+	/**
+	 * Get a global unique ID for general purpose.
+	 * @throws RuntimeException
+	 */
+	public String getTicketGUID() throws RuntimeException{
+		long guid = nextGUID();
+		return "t" + (guidOffset + guid);
+	}
+
+	/**
+	 * Return the GUID that has been last issued by this server (-1 if none has been issued yet).
+	 */
+	public long getLastIssuedGUID(){
+		return lastIssued.get();
+	}
+
+	//------------Implementations----------------
+
+	/**
+	 * A reserved range of IDs [next, end].
+	 */
+	private static class Block {
+		final AtomicLong next;
+		final long end;
+		final long refillAt;
+
+		Block(long first, long end, long refillAt){
+			this.next = new AtomicLong(first);
+			this.end = end;
+			this.refillAt = refillAt;
+		}
+	}
+
+	private static final Block EMPTY = new Block(1, 0, 0);
+
+	private volatile Block current = EMPTY;
+	private volatile Block prefetched;
+	private final AtomicBoolean prefetching = new AtomicBoolean(false);
+	private final Object refillLock = new Object();
+	private final AtomicLong lastIssued = new AtomicLong(-1);
+
+	/**
+	 * Take the next ID of the current block, switch to the next block if it is used up.
+	 */
+	private long nextGUID(){
+		while (true){
+			Block b = current;
+			long id = b.next.getAndIncrement();
+			if (id <= b.end){
+				if (id == b.refillAt){
+					prefetchAsync();
+				}
+				lastIssued.accumulateAndGet(id, Math::max);
+				return id;
+			}
+			//block is used up
+			synchronized (refillLock){
+				if (current == b){
+					Block p = prefetched;
+					if (p != null){
+						prefetched = null;
+						current = p;
+					}else{
+						current = reserveBlock(Config.guidBlockSize);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Fetch the next block in a background thread if there isn't one already.
+	 */
+	private void prefetchAsync(){
+		if (prefetched == null && prefetching.compareAndSet(false, true)){
+			Thread t = new Thread(() -> {
+				try{
+					Block b = reserveBlock(Config.guidBlockSize);
+					synchronized (refillLock){
+						if (prefetched == null){
+							prefetched = b;
+						}
+						//else: someone was faster, the block is dropped (leaves a gap)
+					}
+				}catch (Exception e){
+					//next call will try again in foreground
+					Debugger.println("GlobalIdGeneratorElasticsearchRange - prefetch of next GUID block failed: " + e.getMessage(), 1);
+				}finally{
+					prefetching.set(false);
+				}
+			}, "guid-prefetch");
+			t.setDaemon(true);
+			t.start();
+		}
+	}
+
+	/**
+	 * Uses Elasticsearch to reserve a block of GUIDs. The sequence entry stores the last reserved ID in 'last_id' which has to be seeded by
+	 * the migration (the entry is not changed if it is missing).
+	 */
+	private static Block reserveBlock(int size){
+		if (size < 1){
+			throw new RuntimeException(GlobalIdGeneratorElasticsearchRange.class.getCanonicalName() + " - invalid block size: " + size);
+		}
+		//build URL
+		String url = ElasticSearchConfig.getEndpoint() + "/" + DB.ES_GUID + "/" + "sequence" + "/" + "ticket" + "/_update?_source=true&retry_on_conflict=5";
+
+		//build data
+		JSONObject data = new JSONObject();
+			JSONObject script = new JSONObject();
+			JSON.add(script, "lang", "painless");
+			JSON.add(script, "inline",
+					"if (ctx._source.last_id == null) { ctx.op = 'none'; }"
+					+ " else { ctx._source.last_id += params.n; ctx._source.near_id = ctx._source.last_id; }");
+			JSON.add(script, "params", JSON.make("n", size));
+		JSON.add(data, "script", script);
+
+		//make update POST
+		HashMap<String, String> headers = new HashMap<>();
+		headers.put("Content-Type", "application/json");
+		headers.put("Content-Length", Integer.toString(data.toJSONString().getBytes().length));
+
+		JSONObject result = Connectors.httpPOST(url, data.toJSONString(), headers);
+		DB.ELASTICSEARCH_WRITES.inc();
+		//System.out.println(result.toJSONString()); 		//debug
+
+		//success?
+		try{
+			Object lastId = JSON.getJObject(JSON.getJObject(result, "get"), "_source").get("last_id");
+			if (lastId == null){
+				throw new RuntimeException(GlobalIdGeneratorElasticsearchRange.class.getCanonicalName() 
+						+ " - sequence has no 'last_id', run the migration first (see class description)!");
+			}
+			long shards_success = (long) JSON.getJObject(result, "_shards").get("successful");
+			if (shards_success == 1){
+				long end = (long) lastId;
+				long first = end - size + 1;
+				long refillAt = first + Math.max(0, (size * 3) / 4 - 1);	//fetch next block when 75% are used
+				return new Block(first, end, refillAt);
+			}else{
+				throw new RuntimeException(GlobalIdGeneratorElasticsearchRange.class.getCanonicalName() + " - ES reports fail in shard check!");
+			}
+
+		//error
+		}catch (Exception ex){
+			String error = GlobalIdGeneratorElasticsearchRange.class.getCanonicalName() + " - ES failed to reserve GUID block!";
+			throw new RuntimeException(error, ex);
+		}
+	}
+
+}
@@ -0,0 +1,107 @@
+package de.bytemind.webservice.database;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.bytemind.core.users.IdHandler;
+import de.bytemind.webservice.server.Config;
+
+/**
+ * Class to generate global unique IDs without any network access (Snowflake style). An ID is build from:<br>
+ * 41 bits time in ms since {@link #EPOCH} | 10 bits node ID ("Config.guidNodeId") | 12 bits sequence per ms.<br>
+ * Every server needs its own node ID (0-1023). If more than 4096 IDs are requested in one ms or the clock moves backwards
+ * the generator continues on its own time so IDs stay unique (as long as the server is not restarted with a clock that went back).
+ *
+ * @author Florian Quirin
+ *
+ */
+public class GlobalIdGeneratorSnowflake implements GlobalIdGenerator{
+
+	public static final long EPOCH = 1514764800000l;		//2018-01-01T00:00:00Z
+	public static final int NODE_BITS = 10;
+	public static final int SEQUENCE_BITS = 12;
+	public static final long MAX_NODE_ID = (1l << NODE_BITS) - 1;
+	private static final long SEQUENCE_MASK = (1l << SEQUENCE_BITS) - 1;
+
+	private final long nodeId;
+	private final AtomicLong state = new AtomicLong(0); 	//packed: time << SEQUENCE_BITS | sequence
+	private final AtomicLong lastIssued = new AtomicLong(-1);
+
+	/**
+	 * Create generator with node ID taken from "Config.guidNodeId".
+	 */
+	public GlobalIdGeneratorSnowflake(){
+		this(Config.guidNodeId);
+	}
+	/**
+	 * Create generator for a specific node.
+	 * @param nodeId - unique ID of this server between 0 and 1023
+	 */
+	public GlobalIdGeneratorSnowflake(long nodeId){
+		if (nodeId < 0 || nodeId > MAX_NODE_ID){
+			throw new RuntimeException(GlobalIdGeneratorSnowflake.class.getCanonicalName() + " - node ID must be between 0 and " + MAX_NODE_ID + " but is: " + nodeId);
+		}
+		this.nodeId = nodeId;
+	}
+
+	/**
+	 * Get a global unique ID for new users.
+	 * @throws RuntimeException
+	 */
+	public String getUserGUID() throws RuntimeException{
+		return IdHandler.user_id_prefix + nextGUID();
+	}
+
+	/**
+	 * Get a global unique ID for general purpose.
+	 * @throws RuntimeException
+	 */
+	public String getTicketGUID() throws RuntimeException{
+		return "t" + nextGUID();
+	}
+
+	/**
+	 * Return the GUID that has been last issued by this server (-1 if none has been issued yet).
+	 */
+	public long getLastIssuedGUID(){
+		return lastIssued.get();
+	}
+
+	//------------Implementations----------------
+
+	/**
+	 * Get next ID (lock-free).
+	 */
+	public long nextGUID(){
+		long now = System.currentTimeMillis() - EPOCH;
+		long prev, next;
+		do{
+			prev = state.get();
+			long prevTime = prev >>> SEQUENCE_BITS;
+			if (now > prevTime){
+				next = now << SEQUENCE_BITS;
+			}else{
+				//same ms, clock went back or sequence overflow - simply count up (the overflow moves on to the next ms)
+				next = prev + 1;
+			}
+		}while (!state.compareAndSet(prev, next));
+
+		long time = next >>> SEQUENCE_BITS;
+		long guid = (time << (NODE_BITS + SEQUENCE_BITS)) | (nodeId << SEQUENCE_BITS) | (next & SEQUENCE_MASK);
+		lastIssued.accumulateAndGet(guid, Math::max);
+		return guid;
+	}
+
+	/**
+	 * Get the time (ms since 1970) an ID was generated at.
+	 */
+	public static long getTimestamp(long guid){
+		return (guid >>> (NODE_BITS + SEQUENCE_BITS)) + EPOCH;
+	}
+	/**
+	 * Get the ID of the node that generated an ID.
+	 */
+	public static long getNodeId(long guid){
+		return (guid >>> SEQUENCE_BITS) & MAX_NODE_ID;
+	}
+
+}
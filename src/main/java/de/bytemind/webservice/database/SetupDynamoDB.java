@@ -4,6 +4,8 @@ import org.json.simple.JSONObject;
 
 import de.bytemind.core.databases.DynamoDB;
 import de.bytemind.core.tools.Connectors;
+import de.bytemind.core.tools.JSON;
+import de.bytemind.core.tools.Timer;
 import de.bytemind.webservice.users.AccountMapper;
 
 /**
@@ -40,6 +42,37 @@ public class SetupDynamoDB {
 		if (!Connectors.httpSuccess(res)){
 			throw new RuntimeException(SetupDynamoDB.class.getCanonicalName() + " - 'setupAccountsTables()' FAILED! - msg: " + res);
 		}
+		if (AccountMapper.isSplitLayout()){
+			setupSplitAccountsTables();
+		}
+	}
+	
+	/**
+	 * Setup token and profile tables of the "split" user storage layout and activate the automatic removal of expired tokens (TTL).
+	 * Throws RuntimeException on fail.
+	 */
+	public static void setupSplitAccountsTables(){
+		JSONObject res = DynamoDB.createSimpleTable(DB.USERS_TOKENS, AccountMapper.TOKEN_ID, "");
+		if (!Connectors.httpSuccess(res)){
+			throw new RuntimeException(SetupDynamoDB.class.getCanonicalName() + " - 'setupSplitAccountsTables()' FAILED! - msg: " + res);
+		}
+		res = DynamoDB.createSimpleTable(DB.USERS_PROFILES, DynamoDB.PRIMARY_USER_KEY, "");
+		if (!Connectors.httpSuccess(res)){
+			throw new RuntimeException(SetupDynamoDB.class.getCanonicalName() + " - 'setupSplitAccountsTables()' FAILED! - msg: " + res);
+		}
+		//TTL can only be set when the table is active - retry for a while
+		JSONObject request = JSON.make(
+				"TableName", DB.USERS_TOKENS,
+				"TimeToLiveSpecification", JSON.make("Enabled", true, "AttributeName", AccountMapper.TOKEN_EXPIRES)
+		);
+		for (int i=0; i<15; i++){
+			res = DynamoDB.request("UpdateTimeToLive", request.toJSONString());
+			if (Connectors.httpSuccess(res)){
+				return;
+			}
+			Timer.threadSleep(2000);
+		}
+		throw new RuntimeException(SetupDynamoDB.class.getCanonicalName() + " - 'setupSplitAccountsTables()' TTL FAILED! - msg: " + res);
 	}
 
 }
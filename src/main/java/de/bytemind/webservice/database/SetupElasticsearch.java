@@ -1,6 +1,7 @@
 package de.bytemind.webservice.database;
 
 import java.io.File;
+import java.util.HashMap;
 import java.util.List;
 
 import org.json.simple.JSONObject;
@@ -54,6 +55,41 @@ public class SetupElasticsearch {
 		}
 	}
 	
+	/**
+	 * Prepare the sequence entry of the GUID index for {@link GlobalIdGeneratorElasticsearchRange}: adds the 'last_id' field to the mapping
+	 * of existing indices and seeds it with the current document version plus "margin". Run this while NO server uses
+	 * {@link GlobalIdGeneratorElasticsearch}, after that all servers have to use the range generator (the old one refuses to work).
+	 * Does nothing if 'last_id' is already set. Throws RuntimeException on fail.
+	 * @param margin - IDs to skip on top of the version (covers requests of old servers that were still running)
+	 * @return the seeded (or existing) 'last_id'
+	 */
+	public static long migrateGuidSequenceToRange(long margin){
+		JSONObject res = Elasticsearch.customPUT(ElasticSearchConfig.getEndpoint(), DB.ES_GUID + "/_mapping/sequence", 
+				JSON.make("properties", JSON.make("last_id", JSON.make("type", "long"))));
+		if (!Connectors.httpSuccess(res)){
+			throw new RuntimeException(SetupElasticsearch.class.getCanonicalName() + " - 'migrateGuidSequenceToRange()' FAILED! - msg: " + res);
+		}
+		//seed 'last_id' above every ID the old generator has issued
+		String url = ElasticSearchConfig.getEndpoint() + "/" + DB.ES_GUID + "/" + "sequence" + "/" + "ticket" + "/_update?_source=true";
+		JSONObject script = new JSONObject();
+		JSON.add(script, "lang", "painless");
+		JSON.add(script, "inline", "if (ctx._source.last_id == null) { ctx._source.last_id = ctx._version + params.margin; } else { ctx.op = 'none'; }");
+		JSON.add(script, "params", JSON.make("margin", margin));
+		String data = JSON.make("script", script).toJSONString();
+		HashMap<String, String> headers = new HashMap<>();
+		headers.put("Content-Type", "application/json");
+		headers.put("Content-Length", Integer.toString(data.getBytes().length));
+		res = Connectors.httpPOST(url, data, headers);
+		DB.ELASTICSEARCH_WRITES.inc();
+		try{
+			long lastId = (long) JSON.getJObject(JSON.getJObject(res, "get"), "_source").get("last_id");
+			Debugger.println("Elasticsearch: GUID sequence of '" + DB.ES_GUID + "' uses 'last_id' = " + lastId, 3);
+			return lastId;
+		}catch (Exception e){
+			throw new RuntimeException(SetupElasticsearch.class.getCanonicalName() + " - 'migrateGuidSequenceToRange()' FAILED! - msg: " + res, e);
+		}
+	}
+	
 	/**
 	 * Setup mapping for the user authentication white-list. Throws RuntimeException on fail.
 	 */
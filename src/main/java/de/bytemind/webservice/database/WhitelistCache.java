@@ -0,0 +1,242 @@
+package de.bytemind.webservice.database;
+
+import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import de.bytemind.core.databases.ElasticSearchConfig;
+import de.bytemind.core.databases.Elasticsearch;
+import de.bytemind.core.tools.Connectors;
+import de.bytemind.core.tools.Debugger;
+import de.bytemind.core.tools.JSON;
+import de.bytemind.core.users.IdHandler;
+import de.bytemind.webservice.server.Config;
+
+/**
+ * In-memory copy of the user white-list used to check new registrations. Depending on "Config.whitelistCache" it keeps:<br>
+ * "set" - all entries in a hash set, every check is a memory lookup.<br>
+ * "bloom" - only a Bloom filter, negative checks are a memory lookup, positive ones are confirmed by the database.<br>
+ * The list is loaded at start, updated by {@link #add(String)} and reloaded every "Config.whitelistRefreshInterval" ms
+ * (entries added by other servers show up after the next reload). Until the first load succeeded the database is asked directly.
+ *
+ * @author Florian Quirin
+ *
+ */
+public class WhitelistCache {
+
+	public static final String SET = "set";
+	public static final String BLOOM = "bloom";
+	public static final String OFF = "off";
+
+	private static final int SCROLL_SIZE = 1000;
+
+	private final String mode;
+	private volatile Set<String> entries;			//mode "set"
+	private volatile BloomFilter bloom;				//mode "bloom"
+	private final Set<String> addedDuringLoad = ConcurrentHashMap.newKeySet();
+	private volatile boolean loaded = false;
+	private volatile long lastLoad = 0;
+	private volatile int lastLoadSize = 0;
+	private final ScheduledExecutorService refresher;
+
+	private final LongAdder memoryHits = new LongAdder();
+	private final LongAdder memoryMisses = new LongAdder();
+	private final LongAdder databaseChecks = new LongAdder();
+
+	/**
+	 * Create cache with mode from Config and start loading in the background.
+	 */
+	public WhitelistCache(){
+		String mode = Config.whitelistCache;
+		if (!mode.equals(SET) && !mode.equals(BLOOM) && !mode.equals(OFF)){
+			throw new RuntimeException("Unknown white-list cache mode: '" + mode + "'! Please use '" + SET + "', '" + BLOOM + "' or '" + OFF + "'.");
+		}
+		if (!mode.equals(OFF) && !(DB.getKnowledgeDB() instanceof Elasticsearch)){
+			Debugger.println("White-list cache: knowledge database is not Elasticsearch, cache is off.", 1);
+			mode = OFF;
+		}
+		this.mode = mode;
+		if (mode.equals(OFF)){
+			refresher = null;
+		}else{
+			refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "whitelist-refresh");
+				t.setDaemon(true);
+				return t;
+			});
+			long interval = Math.max(1000, Config.whitelistRefreshInterval);
+			refresher.scheduleWithFixedDelay(this::reload, 0, interval, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Check if a user (email) is on the white-list.
+	 */
+	public boolean contains(String email){
+		if (!loaded){
+			databaseChecks.increment();
+			return DB.searchWhitelistUserEmailInDB(email);
+		}
+		String key = makeKey(email);
+		if (mode.equals(SET)){
+			if (entries.contains(key)){
+				memoryHits.increment();
+				return true;
+			}else{
+				memoryMisses.increment();
+				return false;
+			}
+		}else{
+			if (!bloom.mightContain(key)){
+				memoryMisses.increment();
+				return false;
+			}
+			//might be a false positive
+			databaseChecks.increment();
+			return DB.searchWhitelistUserEmailInDB(email);
+		}
+	}
+
+	/**
+	 * Add a user (email) that has been written to the database white-list.
+	 */
+	public void add(String email){
+		if (mode.equals(OFF)){
+			return;
+		}
+		String key = makeKey(email);
+		addedDuringLoad.add(key);
+		Set<String> e = entries;
+		if (e != null){
+			e.add(key);
+		}
+		BloomFilter b = bloom;
+		if (b != null){
+			b.add(key);
+		}
+	}
+
+	/**
+	 * Stop periodic reload.
+	 */
+	public void shutdown(){
+		if (refresher != null){
+			refresher.shutdownNow();
+		}
+	}
+
+	//------------Loading----------------
+
+	/**
+	 * Load the whole white-list from Elasticsearch and replace the current one.
+	 */
+	private void reload(){
+		try{
+			long tic = Debugger.tic();
+			addedDuringLoad.clear();
+			Set<String> newEntries = loadAll();
+			//swap first, then add what came in during the load
+			if (mode.equals(SET)){
+				entries = newEntries;
+				newEntries.addAll(addedDuringLoad);
+			}else{
+				BloomFilter newBloom = new BloomFilter(Math.max(10000, newEntries.size() * 2l), Config.whitelistBloomFpp);
+				for (String key : newEntries){
+					newBloom.add(key);
+				}
+				bloom = newBloom;
+				for (String key : addedDuringLoad){
+					newBloom.add(key);
+				}
+			}
+			lastLoadSize = newEntries.size();
+			lastLoad = System.currentTimeMillis();
+			if (!loaded){
+				loaded = true;
+				Debugger.println("White-list cache: loaded " + newEntries.size() + " entries in " + Debugger.toc(tic) + "ms (mode: " + mode + ")", 3);
+			}
+		}catch (Exception e){
+			Debugger.println("White-list cache: reload failed - " + e.getMessage(), 1);
+		}
+	}
+
+	/**
+	 * Scroll through all entries of the white-list index.
+	 */
+	private static Set<String> loadAll(){
+		Set<String> all = ConcurrentHashMap.newKeySet();
+		String endpoint = ElasticSearchConfig.getEndpoint();
+		HashMap<String, String> headers = new HashMap<>();
+		headers.put("Content-Type", "application/json");
+
+		JSONObject query = JSON.make(
+				"size", SCROLL_SIZE,
+				"_source", JSON.make("includes", "uid"),
+				"query", JSON.make("match_all", new JSONObject())
+		);
+		JSONObject res = Connectors.httpPOST(endpoint + "/" + DB.WHITELIST + "/users/_search?scroll=1m", query.toJSONString(), headers);
+		DB.ELASTICSEARCH_READS.inc();
+		String scrollId = null;
+		try{
+			while (true){
+				JSONArray hits = JSON.getJArray(JSON.getJObject(res, "hits"), "hits");
+				if (hits == null){
+					throw new RuntimeException("white-list search failed - " + ((res != null)? res.toJSONString() : "no response"));
+				}
+				for (Object o : hits){
+					JSONObject source = JSON.getJObject((JSONObject) o, "_source");
+					String uid = (source != null)? (String) source.get("uid") : null;
+					if (uid != null && !uid.isEmpty()){
+						all.add(makeKey(uid));
+					}
+				}
+				scrollId = (String) res.get("_scroll_id");
+				if (hits.size() < SCROLL_SIZE || scrollId == null){
+					break;
+				}
+				JSONObject next = JSON.make("scroll", "1m", "scroll_id", scrollId);
+				res = Connectors.httpPOST(endpoint + "/_search/scroll", next.toJSONString(), headers);
+				DB.ELASTICSEARCH_READS.inc();
+			}
+		}finally{
+			//free the search context right away instead of keeping it until the scroll times out
+			if (scrollId != null){
+				clearScroll(endpoint, scrollId);
+			}
+		}
+		return all;
+	}
+	private static void clearScroll(String endpoint, String scrollId){
+		try{
+			JSONObject res = Elasticsearch.customDELETE(endpoint, "_search/scroll/" + scrollId);
+			if (JSON.getIntegerOrDefault(res, "code", -1) != 0){
+				Debugger.println("White-list cache: could not clear scroll - " + res, 1);
+			}
+		}catch (Exception e){
+			Debugger.println("White-list cache: could not clear scroll - " + e.getMessage(), 1);
+		}
+	}
+
+	private static String makeKey(String email){
+		return IdHandler.clean(email).toLowerCase();
+	}
+
+	//------------Metrics----------------
+
+	/**
+	 * Current state of the cache as string for the statistics end-point.
+	 */
+	public String getStatsAsString(){
+		String state = mode.equals(OFF)? "off" : (loaded? (lastLoadSize + " entries, last load: " + ((System.currentTimeMillis() - lastLoad) / 1000) + "s ago") : "loading");
+		return "White-list cache: " + mode + " (" + state + ")" +
+				"\n- memory hits: " + memoryHits.sum() + ", memory misses: " + memoryMisses.sum() + ", database checks: " + databaseChecks.sum() + "\n";
+	}
+
+}
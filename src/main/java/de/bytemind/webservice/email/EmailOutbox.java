@@ -0,0 +1,396 @@
+package de.bytemind.webservice.email;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.json.simple.JSONObject;
+
+import de.bytemind.core.tools.ClassBuilder;
+import de.bytemind.core.tools.Debugger;
+import de.bytemind.core.tools.JSON;
+import de.bytemind.webservice.server.Config;
+
+/**
+ * Asynchronous and durable outbox for emails. Messages are appended to a local spool file ("Config.emailOutboxFile") before
+ * {@link #enqueue(String, String, String, int)} returns, worker threads send them via "Config.email_module" and mark them as done.
+ * Failed messages are retried with exponential back-off, messages that are still in the spool when the server starts are sent again.<br>
+ * Note: the spool contains the full messages including registration and reset links, protect it like the database.
+ *
+ * @author Florian Quirin
+ *
+ */
+public class EmailOutbox {
+
+	//priorities - lower is sent first
+	public static final int PRIORITY_PASSWORD_RESET = 0;
+	public static final int PRIORITY_REGISTRATION = 1;
+	public static final int PRIORITY_DEFAULT = 5;
+
+	private static final long MAX_BACKOFF = 300000;
+	private static final int COMPACT_AFTER = 1000;		//records in spool before it is rewritten with only the pending messages
+
+	private static volatile EmailOutbox instance;
+
+	/**
+	 * Get the outbox (started and replayed on first call).
+	 */
+	public static EmailOutbox getInstance(){
+		if (instance == null){
+			synchronized (EmailOutbox.class){
+				if (instance == null){
+					instance = new EmailOutbox(new File(Config.emailOutboxFile));
+				}
+			}
+		}
+		return instance;
+	}
+	/**
+	 * Get the outbox if it was started already, else null.
+	 */
+	public static EmailOutbox peekInstance(){
+		return instance;
+	}
+	/**
+	 * Statistics of the outbox or empty string if it was never used.
+	 */
+	public static String getStats(){
+		EmailOutbox ob = instance;
+		return (ob != null)? ob.getStatsAsString() : "";
+	}
+
+	/**
+	 * Message waiting to be sent.
+	 */
+	private static class OutboxItem implements Comparable<OutboxItem> {
+		final long id;
+		final int priority;
+		final String to;
+		final String subject;
+		final String message;
+		final long created;
+		int attempts = 0;
+
+		OutboxItem(long id, int priority, String to, String subject, String message, long created){
+			this.id = id;
+			this.priority = priority;
+			this.to = to;
+			this.subject = subject;
+			this.message = message;
+			this.created = created;
+		}
+		@Override
+		public int compareTo(OutboxItem o){
+			if (priority != o.priority){
+				return Integer.compare(priority, o.priority);
+			}
+			return Long.compare(id, o.id);
+		}
+		@SuppressWarnings("unchecked")
+		JSONObject toJson(){
+			JSONObject jo = new JSONObject();
+			jo.put("op", "add");
+			jo.put("id", id);
+			jo.put("prio", priority);
+			jo.put("to", to);
+			jo.put("subject", subject);
+			jo.put("message", message);
+			jo.put("created", created);
+			return jo;
+		}
+	}
+
+	private final File spool;
+	private Writer spoolWriter;
+	private FileOutputStream spoolStream;
+	private int spoolRecords = 0;
+	private final Object spoolLock = new Object();
+
+	private final PriorityBlockingQueue<OutboxItem> queue = new PriorityBlockingQueue<>();
+	private final Map<Long, OutboxItem> pending = new ConcurrentHashMap<>();		//all messages not done yet
+	private final ScheduledExecutorService retryScheduler;
+	private final List<Thread> workers = new ArrayList<>();
+	private final AtomicLong nextId = new AtomicLong(System.currentTimeMillis() * 1000);
+	private final AtomicInteger waitingForRetry = new AtomicInteger(0);
+
+	//metrics
+	private final LongAdder enqueued = new LongAdder();
+	private final LongAdder sent = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+	private final LongAdder retried = new LongAdder();
+	private final LongAdder latencySum = new LongAdder();
+	private final AtomicLong latencyMax = new AtomicLong(0);
+	private volatile long lastLatency = 0;
+
+	/**
+	 * Create outbox, replay the spool and start workers.
+	 * @param spool - spool file
+	 */
+	public EmailOutbox(File spool){
+		this.spool = spool;
+		replay();
+		this.retryScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "email-outbox-retry");
+			t.setDaemon(true);
+			return t;
+		});
+		for (int i = 0; i < Math.max(1, Config.emailOutboxWorkers); i++){
+			Thread t = new Thread(this::work, "email-outbox-" + i);
+			t.setDaemon(true);
+			workers.add(t);
+			t.start();
+		}
+		Debugger.println("Email outbox: " + workers.size() + " workers, spool: " + spool.getPath() + ", pending: " + queue.size(), 3);
+	}
+
+	/**
+	 * Add a message to the outbox. When this returns the message is in the spool file.
+	 * @param to - email address
+	 * @param message - message to send (can include HTML)
+	 * @param subject - subject of message
+	 * @param priority - e.g. {@link #PRIORITY_PASSWORD_RESET}
+	 * @return true if the message was stored, false if the spool could not be written
+	 */
+	public boolean enqueue(String to, String message, String subject, int priority){
+		OutboxItem item = new OutboxItem(nextId.incrementAndGet(), priority, to, subject, message, System.currentTimeMillis());
+		pending.put(item.id, item);
+		try{
+			appendRecord(item.toJson(), true);
+		}catch (IOException e){
+			pending.remove(item.id);
+			Debugger.println("Email outbox: failed to write spool - " + e.getMessage(), 1);
+			return false;
+		}
+		enqueued.increment();
+		queue.add(item);
+		return true;
+	}
+
+	//------------Workers----------------
+
+	private void work(){
+		SendEmail emailClient = (SendEmail) ClassBuilder.construct(Config.email_module);
+		while (true){
+			OutboxItem item;
+			try{
+				item = queue.take();
+			}catch (InterruptedException e){
+				break;
+			}
+			try{
+				item.attempts++;
+				int code = emailClient.send(item.to, item.message, item.subject, null);
+				if (code == 0 || code == -1){
+					long latency = System.currentTimeMillis() - item.created;
+					latencySum.add(latency);
+					latencyMax.accumulateAndGet(latency, Math::max);
+					lastLatency = latency;
+					sent.increment();
+					markDone(item, "sent");
+				}else if (code == 2 || item.attempts > Config.emailOutboxRetries){
+					//wrong address or out of retries
+					Exception err = emailClient.getError();
+					giveUp(item, "code: " + code + ((err != null)? (" - error: " + err.getMessage()) : ""));
+				}else{
+					retryLater(item);
+				}
+			}catch (Exception e){
+				//unexpected errors count as attempt too so a broken message can't keep the worker busy
+				Debugger.println("Email outbox: worker error - " + e.getMessage(), 1);
+				if (item.attempts > Config.emailOutboxRetries){
+					giveUp(item, "worker error: " + e.getMessage());
+				}else{
+					retryLater(item);
+				}
+			}
+		}
+	}
+	
+	private void retryLater(OutboxItem item){
+		retried.increment();
+		long backoff = Math.min(MAX_BACKOFF, 1000l << Math.min(item.attempts - 1, 20));
+		waitingForRetry.incrementAndGet();
+		retryScheduler.schedule(() -> {
+			waitingForRetry.decrementAndGet();
+			queue.add(item);
+		}, backoff, TimeUnit.MILLISECONDS);
+	}
+	
+	private void giveUp(OutboxItem item, String reason){
+		failed.increment();
+		Debugger.println("Email outbox: giving up on message to " + item.to + " after " + item.attempts + " attempt(s) - " + reason, 1);
+		markDone(item, "failed");
+	}
+
+	@SuppressWarnings("unchecked")
+	private void markDone(OutboxItem item, String result){
+		JSONObject jo = new JSONObject();
+		jo.put("op", "done");
+		jo.put("id", item.id);
+		jo.put("result", result);
+		pending.remove(item.id);
+		try{
+			appendRecord(jo, false);
+		}catch (IOException e){
+			//message might be sent again after restart
+			Debugger.println("Email outbox: failed to write spool - " + e.getMessage(), 1);
+		}
+	}
+
+	//------------Spool----------------
+
+	/**
+	 * Append one record (line of JSON) to the spool file.
+	 * @param sync - force the record to disk before returning
+	 */
+	private void appendRecord(JSONObject record, boolean sync) throws IOException{
+		synchronized (spoolLock){
+			if (spoolWriter == null){
+				openSpool();
+			}
+			spoolWriter.write(record.toJSONString());
+			spoolWriter.write("\n");
+			spoolWriter.flush();
+			if (sync){
+				spoolStream.getFD().sync();
+			}
+			spoolRecords++;
+			if (spoolRecords >= COMPACT_AFTER + pending.size()){
+				rewriteSpool(pending.values());
+			}
+		}
+	}
+	private void openSpool() throws IOException{
+		File parent = spool.getAbsoluteFile().getParentFile();
+		if (parent != null && !parent.exists()){
+			parent.mkdirs();
+		}
+		spoolStream = new FileOutputStream(spool, true);
+		spoolWriter = new OutputStreamWriter(spoolStream, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Read the spool file and queue all messages that are not done yet, then rewrite the spool with only these messages.
+	 */
+	private void replay(){
+		if (!spool.exists()){
+			return;
+		}
+		Map<Long, OutboxItem> found = new LinkedHashMap<>();
+		try (BufferedReader br = new BufferedReader(new InputStreamReader(Files.newInputStream(spool.toPath()), StandardCharsets.UTF_8))){
+			String line;
+			while ((line = br.readLine()) != null){
+				if (line.trim().isEmpty()){
+					continue;
+				}
+				JSONObject jo = JSON.parseString(line);
+				if (jo == null){
+					//e.g. last line cut off by crash
+					Debugger.println("Email outbox: skipped broken spool record", 1);
+					continue;
+				}
+				long id = JSON.getLongOrDefault(jo, "id", -1);
+				String op = (String) jo.get("op");
+				if ("add".equals(op)){
+					found.put(id, new OutboxItem(id, JSON.getIntegerOrDefault(jo, "prio", PRIORITY_DEFAULT),
+							(String) jo.get("to"), (String) jo.get("subject"), (String) jo.get("message"),
+							JSON.getLongOrDefault(jo, "created", System.currentTimeMillis())));
+					nextId.accumulateAndGet(id, Math::max);
+				}else if ("done".equals(op)){
+					found.remove(id);
+				}
+			}
+		}catch (Exception e){
+			throw new RuntimeException(EmailOutbox.class.getCanonicalName() + " - failed to read spool: " + spool.getPath(), e);
+		}
+		synchronized (spoolLock){
+			try{
+				rewriteSpool(found.values());
+			}catch (IOException e){
+				throw new RuntimeException(EmailOutbox.class.getCanonicalName() + " - failed to rewrite spool: " + spool.getPath(), e);
+			}
+		}
+		pending.putAll(found);
+		queue.addAll(found.values());
+		if (!found.isEmpty()){
+			Debugger.println("Email outbox: " + found.size() + " unsent messages found in spool.", 3);
+		}
+	}
+
+	/**
+	 * Replace the spool with a new file containing only the given messages (keeps the file small). Call with spoolLock.
+	 */
+	private void rewriteSpool(Iterable<OutboxItem> pending) throws IOException{
+		if (spoolWriter != null){
+			spoolWriter.close();
+			spoolWriter = null;
+		}
+		File tmp = new File(spool.getPath() + ".tmp");
+		int records = 0;
+		try (FileOutputStream fos = new FileOutputStream(tmp, false);
+				Writer w = new OutputStreamWriter(fos, StandardCharsets.UTF_8)){
+			for (OutboxItem item : pending){
+				w.write(item.toJson().toJSONString());
+				w.write("\n");
+				records++;
+			}
+			w.flush();
+			fos.getFD().sync();
+		}
+		Files.move(tmp.toPath(), spool.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		spoolRecords = records;
+		openSpool();
+	}
+
+	//------------Metrics----------------
+
+	/**
+	 * Messages waiting to be sent (including the ones waiting for a retry).
+	 */
+	public int getQueueDepth(){
+		return pending.size();
+	}
+	public long getSent(){
+		return sent.sum();
+	}
+	public long getFailed(){
+		return failed.sum();
+	}
+	/**
+	 * Average time in ms from enqueue to successful delivery.
+	 */
+	public long getAverageLatency(){
+		long s = sent.sum();
+		return (s > 0)? (latencySum.sum() / s) : 0;
+	}
+
+	/**
+	 * Current state of the outbox as string for the statistics end-point.
+	 */
+	public String getStatsAsString(){
+		return "Email outbox:" +
+				"\n- queue depth: " + getQueueDepth() + " (waiting for retry: " + waitingForRetry.get() + ")" +
+				"\n- enqueued: " + enqueued.sum() + ", sent: " + sent.sum() + ", failed: " + failed.sum() + ", retries: " + retried.sum() +
+				"\n- delivery latency avg.: " + getAverageLatency() + "ms, max.: " + latencyMax.get() + "ms, last: " + lastLatency + "ms\n";
+	}
+
+}
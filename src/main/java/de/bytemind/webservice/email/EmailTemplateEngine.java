@@ -0,0 +1,225 @@
+package de.bytemind.webservice.email;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import de.bytemind.core.tools.Connectors;
+import de.bytemind.core.tools.Debugger;
+import de.bytemind.webservice.server.Config;
+
+/**
+ * Email templates loaded from disk ("Config.emailTemplatesFolder") and split once into text segments and placeholders like
+ * &lt;REG:LINK&gt; so that rendering is a simple concatenation. Files are checked for changes at most every
+ * "Config.emailTemplatesCheckInterval" ms, {@link #reload()} drops everything. Templates that are not found on disk are
+ * downloaded from "Config.webFilesURL" (old behavior).
+ *
+ * @author Florian Quirin
+ *
+ */
+public class EmailTemplateEngine {
+
+	private static final Pattern PLACEHOLDER = Pattern.compile("<([A-Z]+:[A-Z_]+)>");
+	private static final String FILE_ENDING = ".html";
+
+	private static volatile EmailTemplateEngine instance;
+
+	/**
+	 * Get the engine with templates from "Config.emailTemplatesFolder".
+	 */
+	public static EmailTemplateEngine getInstance(){
+		if (instance == null){
+			synchronized (EmailTemplateEngine.class){
+				if (instance == null){
+					instance = new EmailTemplateEngine(new File(Config.emailTemplatesFolder));
+				}
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * A template split into segments. Placeholder names are kept without brackets, e.g. "REG:LINK".
+	 */
+	public static class Template {
+		private final String[] segments;
+		private final boolean[] isPlaceholder;
+		private final int textLength;
+		final long lastModified;		//0 for templates not loaded from disk
+
+		Template(String text, long lastModified){
+			List<String> seg = new ArrayList<>();
+			List<Boolean> ph = new ArrayList<>();
+			Matcher m = PLACEHOLDER.matcher(text);
+			int pos = 0;
+			int len = 0;
+			while (m.find()){
+				if (m.start() > pos){
+					seg.add(text.substring(pos, m.start()));
+					ph.add(false);
+					len += m.start() - pos;
+				}
+				seg.add(m.group(1));
+				ph.add(true);
+				pos = m.end();
+			}
+			if (pos < text.length()){
+				seg.add(text.substring(pos));
+				ph.add(false);
+				len += text.length() - pos;
+			}
+			this.segments = seg.toArray(new String[seg.size()]);
+			this.isPlaceholder = new boolean[ph.size()];
+			for (int i = 0; i < ph.size(); i++){
+				this.isPlaceholder[i] = ph.get(i);
+			}
+			this.textLength = len;
+			this.lastModified = lastModified;
+		}
+
+		/**
+		 * Fill in the placeholders. Placeholders without value are kept as they are.
+		 * @param values - map of placeholder (e.g. "REG:LINK") to value
+		 */
+		public String render(Map<String, String> values){
+			StringBuilder sb = new StringBuilder(textLength + 256);
+			for (int i = 0; i < segments.length; i++){
+				if (isPlaceholder[i]){
+					String value = values.get(segments[i]);
+					if (value != null){
+						sb.append(value);
+					}else{
+						sb.append('<').append(segments[i]).append('>');
+					}
+				}else{
+					sb.append(segments[i]);
+				}
+			}
+			return sb.toString();
+		}
+		/**
+		 * Render with a single placeholder.
+		 */
+		public String render(String placeholder, String value){
+			return render(Collections.singletonMap(placeholder, value));
+		}
+		/**
+		 * Template without content?
+		 */
+		public boolean isEmpty(){
+			return segments.length == 0;
+		}
+	}
+
+	private static final Template EMPTY = new Template("", 0);
+
+	private final File folder;
+	private final Map<String, Template> cache = new ConcurrentHashMap<>();
+	private final Map<String, Long> lastChecked = new ConcurrentHashMap<>();
+
+	/**
+	 * Create engine and load all templates of the folder.
+	 * @param folder - folder with templates like "registration_en.html"
+	 */
+	public EmailTemplateEngine(File folder){
+		this.folder = folder;
+		loadAll();
+	}
+
+	/**
+	 * Get a template, e.g. get("registration", "en") for "registration_en.html".
+	 * @return template (empty if it could not be loaded)
+	 */
+	public Template get(String templateName, String language){
+		String name = templateName + "_" + language;
+		Template t = cache.get(name);
+		if (t != null && t.lastModified > 0){
+			//check for file change now and then
+			long now = System.currentTimeMillis();
+			Long checked = lastChecked.get(name);
+			if (checked == null || (now - checked) > Config.emailTemplatesCheckInterval){
+				lastChecked.put(name, now);
+				File f = new File(folder, name + FILE_ENDING);
+				if (f.lastModified() != t.lastModified){
+					Template updated = loadFile(f);
+					if (updated != null){
+						cache.put(name, updated);
+						t = updated;
+					}
+				}
+			}
+		}else if (t == null){
+			t = load(name);
+			if (!t.isEmpty()){
+				cache.put(name, t);
+			}
+		}
+		return t;
+	}
+
+	/**
+	 * Drop all templates and load them again.
+	 */
+	public void reload(){
+		cache.clear();
+		lastChecked.clear();
+		loadAll();
+	}
+
+	/**
+	 * Number of templates in cache.
+	 */
+	public int size(){
+		return cache.size();
+	}
+
+	//------------Loading----------------
+
+	private void loadAll(){
+		File[] files = folder.listFiles((dir, fileName) -> fileName.endsWith(FILE_ENDING));
+		if (files == null){
+			Debugger.println("Email templates: folder not found: " + folder.getPath() + " - will try to download templates.", 1);
+			return;
+		}
+		for (File f : files){
+			Template t = loadFile(f);
+			if (t != null){
+				String name = f.getName().substring(0, f.getName().length() - FILE_ENDING.length());
+				cache.put(name, t);
+			}
+		}
+		Debugger.println("Email templates: loaded " + cache.size() + " templates from " + folder.getPath(), 3);
+	}
+
+	private Template load(String name){
+		File f = new File(folder, name + FILE_ENDING);
+		if (f.exists()){
+			Template t = loadFile(f);
+			if (t != null){
+				return t;
+			}
+		}
+		//fallback: download
+		String text = Connectors.simpleHtmlGet(Config.webFilesURL + "email-templates/" + name + FILE_ENDING);
+		return (text != null && !text.isEmpty())? new Template(text, 0) : EMPTY;
+	}
+
+	private static Template loadFile(File f){
+		try{
+			long lastModified = f.lastModified();
+			String text = new String(Files.readAllBytes(f.toPath()), StandardCharsets.UTF_8);
+			return new Template(text, lastModified);
+		}catch (Exception e){
+			Debugger.println("Email templates: failed to load " + f.getPath() + " - " + e.getMessage(), 1);
+			return null;
+		}
+	}
+
+}
@@ -1,15 +1,11 @@
 package de.bytemind.webservice.email;
-import java.util.Properties;
 import java.io.File;
 import java.net.URLEncoder;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.Map;
 
 import javax.mail.*;
 import javax.mail.internet.*;
 
-import de.bytemind.core.tools.Connectors;
 import de.bytemind.core.tools.Debugger;
 import de.bytemind.webservice.server.Config;
 
@@ -25,7 +21,6 @@ public class SendEmailBasicSmtp implements SendEmail {
 	//private static final String mailhost = "mrvnet.kundenserver.de";
 	private static final int port = 25;
 	
-	private static Map<String, String> templateCache;
 	private static final String REGISTRATION = "registration";
 	private static final String PWD_RESET = "reset";
 	
@@ -41,24 +36,13 @@ public class SendEmailBasicSmtp implements SendEmail {
 		this.from = Config.emailAccount;
 	}
 	
-	//get a template from server
-	private String getTemplate(String templateName, String language){
-		if (templateCache == null){
-			templateCache = new HashMap<>();
-		}
-		templateName = templateName + "_" + language;
-		String template = templateCache.get(templateName + "_" + language);
-		if (template == null){
-			template = Connectors.simpleHtmlGet(Config.webFilesURL + "email-templates/" + (templateName + ".html"));
-			if (!template.isEmpty()){
-				templateCache.put(templateName, template);
-			}
-		}
-		return template;
+	//get a template (loaded from disk or server)
+	private EmailTemplateEngine.Template getTemplate(String templateName, String language){
+		return EmailTemplateEngine.getInstance().get(templateName, language);
 	}
 	@Override
 	public void refreshTemplates() {
-		templateCache = new HashMap<>();
+		EmailTemplateEngine.getInstance().reload();
 	}
 	
 	/**
@@ -84,8 +68,7 @@ public class SendEmailBasicSmtp implements SendEmail {
 				Debugger.println("Registration URL: " + redirect, 3); 		//debug
 			}
 			
-			String message = getTemplate(REGISTRATION, language);
-			message = message.replaceFirst("<REG:LINK>", redirect);
+			String message = getTemplate(REGISTRATION, language).render("REG:LINK", redirect);
 		
 			return message;
 			
@@ -117,8 +100,7 @@ public class SendEmailBasicSmtp implements SendEmail {
 				Debugger.println("Password reset URL: " + redirect, 3); 		//debug
 			}
 			
-			String message = getTemplate(PWD_RESET, language);
-			message = message.replaceFirst("<RES:LINK>", redirect);
+			String message = getTemplate(PWD_RESET, language).render("RES:LINK", redirect);
 		
 			return message;
 			
@@ -151,23 +133,17 @@ public class SendEmailBasicSmtp implements SendEmail {
 		//GO!
 		try{
 			/*
-		     * Initialize the JavaMail Session.
+		     * Get the JavaMail Session of the connection pool (one per host and account).
 		     */
-		    Properties props = System.getProperties();
-		    // XXX - could use Session.getTransport() and Transport.connect()
-		    // XXX - assume we're using SMTP
-		    props.put("mail.transport.protocol","smtp");
-			props.put("mail.smtp.host", mailhost);
-			props.put("mail.smtp.port", port);
-		    props.setProperty("mail.smtp.user", email_account);
-		    props.setProperty("mail.smtp.password", email_account_key);
-		    props.setProperty("mail.smtp.auth", "true");
-		    props.setProperty("mail.smtp.starttls.enable", "true");
-
-		    // Get a Session object
-		    Session session = Session.getInstance(props, null);
-		    if (debug)
+		    SmtpTransportPool pool = SmtpTransportPool.get(mailhost, port, email_account, email_account_key);
+		    Session session;
+		    if (debug){
+		    	//the pooled session is shared by all senders - debug mails get their own session and connection
+		    	session = Session.getInstance(pool.getSession().getProperties(), null);
 		    	session.setDebug(true);
+		    }else{
+		    	session = pool.getSession();
+		    }
 
 		    /*
 		     * Construct the message and send it.
@@ -216,9 +192,12 @@ public class SendEmailBasicSmtp implements SendEmail {
 		    msg.setHeader("X-Mailer", mailer);
 		    msg.setSentDate(new Date());
 
-		    // send the thing off
-		    //Transport.send(msg);
-		    Transport.send(msg, email_account, email_account_key);
+		    // send the thing off with a pooled connection
+		    if (debug){
+		    	Transport.send(msg, email_account, email_account_key);
+		    }else{
+		    	pool.send(msg);
+		    }
 
 		    return 0; 	//no error - mail sent
 		
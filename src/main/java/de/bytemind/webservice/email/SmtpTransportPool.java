@@ -0,0 +1,241 @@
+package de.bytemind.webservice.email;
+
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.Transport;
+
+import de.bytemind.core.tools.Debugger;
+import de.bytemind.webservice.server.Config;
+
+/**
+ * Pool of connected and authenticated SMTP transports (STARTTLS) so that the handshake does not have to be done for every message.<br>
+ * Connections are checked before use (idle time and SMTP NOOP) and replaced when broken. The number of connections is limited to
+ * "Config.emailPoolSize", callers wait for a free one. There is one pool per host/port/account, see {@link #get(String, int, String, String)}.
+ *
+ * @author Florian Quirin
+ *
+ */
+public class SmtpTransportPool {
+
+	private static final ConcurrentHashMap<String, SmtpTransportPool> pools = new ConcurrentHashMap<>();
+	static {
+		Runtime.getRuntime().addShutdownHook(new Thread(SmtpTransportPool::closeAll, "smtp-pool-shutdown"));
+	}
+
+	/**
+	 * Idle connection.
+	 */
+	private static class PooledTransport {
+		final Transport transport;
+		final long idleSince;
+
+		PooledTransport(Transport transport){
+			this.transport = transport;
+			this.idleSince = System.currentTimeMillis();
+		}
+	}
+
+	private final String host;
+	private final int port;
+	private final String user;
+	private final String key;
+	private final Session session;
+	private final int maxSize;
+	private final long maxIdle;
+	private final long maxWait;
+	private final Semaphore permits;
+	private final ConcurrentLinkedDeque<PooledTransport> idle = new ConcurrentLinkedDeque<>();
+
+	//metrics
+	private final LongAdder sent = new LongAdder();
+	private final LongAdder connects = new LongAdder();
+	private final LongAdder reused = new LongAdder();
+	private final LongAdder broken = new LongAdder();
+
+	/**
+	 * Get the pool for the given account (created on first call with the pool settings from Config).
+	 */
+	public static SmtpTransportPool get(String host, int port, String user, String key){
+		return pools.computeIfAbsent(host + ":" + port + ":" + user + ":" + key.hashCode(), k -> new SmtpTransportPool(host, port, user, key,
+				Config.emailPoolSize,
+				Config.emailPoolMaxIdle,
+				Config.emailPoolMaxWait));
+	}
+	/**
+	 * Close all connections of all pools.
+	 */
+	public static void closeAll(){
+		for (SmtpTransportPool pool : pools.values()){
+			pool.close();
+		}
+	}
+	/**
+	 * Statistics of all pools as string for the statistics end-point (empty if no pool was created).
+	 */
+	public static String getAllStatsAsString(){
+		StringBuilder sb = new StringBuilder();
+		for (SmtpTransportPool pool : pools.values()){
+			sb.append(pool.getStatsAsString());
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Create pool.
+	 * @param host - SMTP host
+	 * @param port - SMTP port
+	 * @param user - account
+	 * @param key - password of account
+	 * @param maxSize - max. number of connections
+	 * @param maxIdle - connections idle for longer than this (ms) are closed before use
+	 * @param maxWait - max. time to wait for a free connection (ms)
+	 */
+	public SmtpTransportPool(String host, int port, String user, String key, int maxSize, long maxIdle, long maxWait){
+		this.host = host;
+		this.port = port;
+		this.user = user;
+		this.key = key;
+		this.maxSize = Math.max(1, maxSize);
+		this.maxIdle = maxIdle;
+		this.maxWait = maxWait;
+		this.permits = new Semaphore(this.maxSize, true);
+
+		Properties props = new Properties();
+		props.put("mail.transport.protocol", "smtp");
+		props.put("mail.smtp.host", host);
+		props.put("mail.smtp.port", String.valueOf(port));
+		props.setProperty("mail.smtp.user", user);
+		props.setProperty("mail.smtp.auth", "true");
+		props.setProperty("mail.smtp.starttls.enable", "true");
+		props.setProperty("mail.smtp.connectiontimeout", "15000");
+		props.setProperty("mail.smtp.timeout", "30000");
+		this.session = Session.getInstance(props, null);
+	}
+
+	/**
+	 * Session to build messages with.
+	 */
+	public Session getSession(){
+		return session;
+	}
+
+	/**
+	 * Send a message with a pooled connection. If a reused connection fails the message is sent once more with a new one.
+	 * @throws SendFailedException - if the server rejected addresses
+	 * @throws MessagingException - on any other error (including timeout while waiting for a connection)
+	 */
+	public void send(Message msg) throws MessagingException{
+		msg.saveChanges();
+		try{
+			if (!permits.tryAcquire(maxWait, TimeUnit.MILLISECONDS)){
+				throw new MessagingException("SMTP pool - no free connection after " + maxWait + "ms");
+			}
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new MessagingException("SMTP pool - interrupted while waiting for connection");
+		}
+		try{
+			boolean fresh = false;
+			Transport transport = takeIdle();
+			if (transport == null){
+				transport = connect();
+				fresh = true;
+			}
+			try{
+				transport.sendMessage(msg, msg.getAllRecipients());
+			}catch (SendFailedException e){
+				//message problem, connection is fine
+				giveBack(transport);
+				throw e;
+			}catch (MessagingException e){
+				closeQuietly(transport);
+				broken.increment();
+				if (fresh){
+					throw e;
+				}
+				//the server might have dropped the connection - retry once with a new one
+				transport = connect();
+				try{
+					transport.sendMessage(msg, msg.getAllRecipients());
+				}catch (MessagingException e2){
+					if (e2 instanceof SendFailedException){
+						giveBack(transport);
+					}else{
+						closeQuietly(transport);
+					}
+					throw e2;
+				}
+			}
+			giveBack(transport);
+			sent.increment();
+		}finally{
+			permits.release();
+		}
+	}
+
+	/**
+	 * Get a healthy idle connection or null.
+	 */
+	private Transport takeIdle(){
+		PooledTransport pt;
+		while ((pt = idle.pollFirst()) != null){
+			if ((System.currentTimeMillis() - pt.idleSince) > maxIdle || !pt.transport.isConnected()){
+				//isConnected() sends a NOOP to the server
+				closeQuietly(pt.transport);
+				continue;
+			}
+			reused.increment();
+			return pt.transport;
+		}
+		return null;
+	}
+	private Transport connect() throws MessagingException{
+		Transport transport = session.getTransport("smtp");
+		transport.connect(host, port, user, key);
+		connects.increment();
+		return transport;
+	}
+	private void giveBack(Transport transport){
+		if (idle.size() < maxSize){
+			idle.offerFirst(new PooledTransport(transport));
+		}else{
+			closeQuietly(transport);
+		}
+	}
+	private static void closeQuietly(Transport transport){
+		try{
+			transport.close();
+		}catch (Exception e){
+			Debugger.println("SMTP pool - failed to close connection: " + e.getMessage(), 3);
+		}
+	}
+
+	/**
+	 * Close all idle connections.
+	 */
+	public void close(){
+		PooledTransport pt;
+		while ((pt = idle.pollFirst()) != null){
+			closeQuietly(pt.transport);
+		}
+	}
+
+	/**
+	 * Current state of the pool as string for the statistics end-point.
+	 */
+	public String getStatsAsString(){
+		return "SMTP pool " + host + ":" + port +
+				"\n- connections in use: " + (maxSize - permits.availablePermits()) + " of " + maxSize + ", idle: " + idle.size() +
+				"\n- sent: " + sent.sum() + ", connects: " + connects.sum() + ", reused: " + reused.sum() + ", broken: " + broken.sum() + "\n";
+	}
+
+}
@@ -0,0 +1,34 @@
+package de.bytemind.webservice.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Monotonic counter, get it once via {@link Metrics#counter(String)} and keep the reference.
+ *
+ * @author Florian Quirin
+ *
+ */
+public class Counter {
+
+	private final String name;
+	private final LongAdder count = new LongAdder();
+
+	Counter(String name){
+		this.name = name;
+	}
+
+	public String getName(){
+		return name;
+	}
+
+	public void inc(){
+		count.increment();
+	}
+	public void add(long n){
+		count.add(n);
+	}
+	public long get(){
+		return count.sum();
+	}
+
+}
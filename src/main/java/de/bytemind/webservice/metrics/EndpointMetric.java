@@ -0,0 +1,46 @@
+package de.bytemind.webservice.metrics;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Latencies of one end-point split by outcome (e.g. "check", "check-noAuth"). Each outcome gets its own histogram named
+ * "Endpoint:[end-point]:[outcome]" that is registered on first use, later calls only do a map lookup.<br>
+ * Usage: keep a static instance per end-point and call {@link #record(String, long)} with System.nanoTime() taken at the start of the request.
+ *
+ * @author Florian Quirin
+ *
+ */
+public class EndpointMetric {
+
+	private final String name;
+	private final ConcurrentHashMap<String, LatencyHistogram> outcomes = new ConcurrentHashMap<>();
+
+	EndpointMetric(String name){
+		this.name = name;
+	}
+
+	public String getName(){
+		return name;
+	}
+
+	/**
+	 * Record the time of a request.
+	 * @param outcome - outcome like "validate" or "validate-noAuth" (use constants, they are kept forever)
+	 * @param startNanos - System.nanoTime() at start of request
+	 */
+	public void record(String outcome, long startNanos){
+		outcome(outcome).recordSince(startNanos);
+	}
+
+	/**
+	 * Get the histogram of an outcome.
+	 */
+	public LatencyHistogram outcome(String outcome){
+		LatencyHistogram h = outcomes.get(outcome);
+		if (h == null){
+			h = outcomes.computeIfAbsent(outcome, o -> Metrics.histogram("Endpoint:" + name + (name.isEmpty()? "" : ":") + o));
+		}
+		return h;
+	}
+
+}
@@ -0,0 +1,175 @@
+package de.bytemind.webservice.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with log-linear buckets (HDR style): every power of 2 is split into 16 buckets, so values are
+ * kept with about 6% precision from 1 microsecond up to about 70 minutes. Recording does not allocate and writes into one of
+ * several stripes (chosen by thread) to avoid contention. Get it once via {@link Metrics#histogram(String)} and keep the reference.
+ *
+ * @author Florian Quirin
+ *
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	private static final int MAX_EXP = 31;			//max. value 2^32-1 microseconds
+	private static final long MAX_VALUE = (1l << (MAX_EXP + 1)) - 1;
+	static final int BUCKETS = (MAX_EXP - SUB_BITS + 2) * SUB_BUCKETS;
+	private static final int STRIPES = 4;			//power of 2
+
+	private final String name;
+	private final AtomicLongArray[] stripes = new AtomicLongArray[STRIPES];
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	LatencyHistogram(String name){
+		this.name = name;
+		for (int i = 0; i < STRIPES; i++){
+			stripes[i] = new AtomicLongArray(BUCKETS);
+		}
+	}
+
+	public String getName(){
+		return name;
+	}
+
+	/**
+	 * Record the time since 'startNanos' (taken with System.nanoTime()).
+	 */
+	public void recordSince(long startNanos){
+		recordNanos(System.nanoTime() - startNanos);
+	}
+	/**
+	 * Record a duration in nanoseconds.
+	 */
+	public void recordNanos(long nanos){
+		recordMicros(nanos / 1000);
+	}
+	/**
+	 * Record a duration in microseconds.
+	 */
+	public void recordMicros(long micros){
+		long v = Math.min(MAX_VALUE, Math.max(0, micros));
+		stripes[(int) Thread.currentThread().getId() & (STRIPES - 1)].incrementAndGet(bucketIndex(v));
+		count.increment();
+		sum.add(v);
+		max.accumulate(v);
+	}
+
+	//--------- buckets ---------
+
+	static int bucketIndex(long v){
+		if (v < SUB_BUCKETS){
+			return (int) v;
+		}
+		int exp = 63 - Long.numberOfLeadingZeros(v);
+		int sub = (int) ((v >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1));
+		return (exp - SUB_BITS + 1) * SUB_BUCKETS + sub;
+	}
+	static long bucketUpperBound(int index){
+		if (index < SUB_BUCKETS){
+			return index;
+		}
+		int exp = index / SUB_BUCKETS + SUB_BITS - 1;
+		int sub = index % SUB_BUCKETS;
+		long lower = ((long) (SUB_BUCKETS + sub)) << (exp - SUB_BITS);
+		return lower + (1l << (exp - SUB_BITS)) - 1;
+	}
+
+	//--------- reading ---------
+
+	public long getCount(){
+		return count.sum();
+	}
+	/**
+	 * Sum of all values in microseconds.
+	 */
+	public long getSumMicros(){
+		return sum.sum();
+	}
+	public long getMaxMicros(){
+		return max.get();
+	}
+
+	/**
+	 * Take a consistent enough copy for reporting (values recorded while copying might be missing in the percentiles).
+	 */
+	public Snapshot getSnapshot(){
+		long[] counts = new long[BUCKETS];
+		long total = 0;
+		for (AtomicLongArray stripe : stripes){
+			for (int i = 0; i < BUCKETS; i++){
+				long c = stripe.get(i);
+				counts[i] += c;
+				total += c;
+			}
+		}
+		return new Snapshot(counts, total, getSumMicros(), getMaxMicros());
+	}
+
+	/**
+	 * Copy of the histogram with percentiles.
+	 */
+	public static class Snapshot {
+		private final long[] counts;
+		private final long total;
+		private final long sum;
+		private final long max;
+
+		Snapshot(long[] counts, long total, long sum, long max){
+			this.counts = counts;
+			this.total = total;
+			this.sum = sum;
+			this.max = max;
+		}
+		public long getCount(){
+			return total;
+		}
+		public long getSumMicros(){
+			return sum;
+		}
+		public long getMaxMicros(){
+			return max;
+		}
+		public double getMeanMicros(){
+			return (total > 0)? ((double) sum / total) : 0.0d;
+		}
+		/**
+		 * Value in microseconds that 'q' (0.0 - 1.0) of all values are lower or equal to (upper bound of the bucket).
+		 */
+		public long getPercentileMicros(double q){
+			if (total == 0){
+				return 0;
+			}
+			long rank = (long) Math.ceil(q * total);
+			rank = Math.max(1, Math.min(total, rank));
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++){
+				seen += counts[i];
+				if (seen >= rank){
+					return Math.min(bucketUpperBound(i), max);
+				}
+			}
+			return max;
+		}
+		/**
+		 * Number of values less or equal to 'micros' (at bucket precision), e.g. for cumulative buckets.
+		 */
+		public long getCountAtOrBelow(long micros){
+			long c = 0;
+			for (int i = 0; i < counts.length; i++){
+				if (bucketUpperBound(i) > micros){
+					break;
+				}
+				c += counts[i];
+			}
+			return c;
+		}
+	}
+
+}
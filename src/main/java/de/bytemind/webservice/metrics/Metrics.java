@@ -0,0 +1,85 @@
+package de.bytemind.webservice.metrics;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of counters and latency histograms of this server. Metrics are created once by name and then recorded through the
+ * returned object (keep the reference, e.g. as static final field).
+ *
+ * @author Florian Quirin
+ *
+ */
+public class Metrics {
+
+	private static final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
+	private static final ConcurrentHashMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+	private static final ConcurrentHashMap<String, EndpointMetric> endpoints = new ConcurrentHashMap<>();
+
+	/**
+	 * Get or register a counter.
+	 */
+	public static Counter counter(String name){
+		return counters.computeIfAbsent(name, Counter::new);
+	}
+	/**
+	 * Get or register a latency histogram.
+	 */
+	public static LatencyHistogram histogram(String name){
+		return histograms.computeIfAbsent(name, LatencyHistogram::new);
+	}
+	/**
+	 * Get or register the metric of an end-point, e.g. "authentication".
+	 */
+	public static EndpointMetric endpoint(String name){
+		return endpoints.computeIfAbsent(name, EndpointMetric::new);
+	}
+
+	/**
+	 * All counters sorted by name.
+	 */
+	public static Map<String, Counter> getCounters(){
+		return new TreeMap<>(counters);
+	}
+	/**
+	 * All histograms sorted by name.
+	 */
+	public static Map<String, LatencyHistogram> getHistograms(){
+		return new TreeMap<>(histograms);
+	}
+
+	/**
+	 * Counters and latencies (count, mean, p50, p90, p99, p999, max in ms) as string for the statistics end-point.
+	 */
+	public static String getStatsAsString(){
+		StringBuilder sb = new StringBuilder();
+		sb.append("Latencies (ms) - count, mean, p50, p90, p99, p999, max:");
+		for (LatencyHistogram h : getHistograms().values()){
+			LatencyHistogram.Snapshot s = h.getSnapshot();
+			if (s.getCount() == 0){
+				continue;
+			}
+			sb.append("\n- ").append(h.getName()).append(": ").append(s.getCount())
+				.append(", ").append(ms(Math.round(s.getMeanMicros())))
+				.append(", ").append(ms(s.getPercentileMicros(0.5)))
+				.append(", ").append(ms(s.getPercentileMicros(0.9)))
+				.append(", ").append(ms(s.getPercentileMicros(0.99)))
+				.append(", ").append(ms(s.getPercentileMicros(0.999)))
+				.append(", ").append(ms(s.getMaxMicros()));
+		}
+		Map<String, Counter> cs = getCounters();
+		if (!cs.isEmpty()){
+			sb.append("\nCounters:");
+			for (Counter c : cs.values()){
+				sb.append("\n- ").append(c.getName()).append(": ").append(c.get());
+			}
+		}
+		return sb.append("\n").toString();
+	}
+	private static String ms(long micros){
+		return String.format(Locale.ROOT, "%.2f", micros / 1000.0d);
+	}
+
+}
@@ -0,0 +1,154 @@
+package de.bytemind.webservice.metrics;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+
+/**
+ * Writes metrics in the Prometheus text format (version 0.0.4) directly into a StringBuilder. Metric names get the prefix
+ * "bytemind_", names of the registry (e.g. "Endpoint:authentication:check") are exported as label "name".<br>
+ * Usage: write a family header with {@link #family(String, String, String)} then its samples, or use the shortcuts.
+ *
+ * @author Florian Quirin
+ *
+ */
+public class PrometheusWriter {
+
+	public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+	public static final String PREFIX = "bytemind_";
+
+	//upper bounds of latency buckets in seconds
+	private static final double[] LATENCY_BUCKETS = {0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1.0, 2.5, 5.0, 10.0};
+
+	private final StringBuilder sb = new StringBuilder(16384);
+
+	/**
+	 * Write '# HELP' and '# TYPE' of a metric family.
+	 * @param name - name without prefix, e.g. "server_threads_busy"
+	 * @param type - "counter", "gauge" or "histogram"
+	 * @param help - description
+	 */
+	public PrometheusWriter family(String name, String type, String help){
+		sb.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+		sb.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+		return this;
+	}
+	/**
+	 * Write a sample.
+	 * @param name - name without prefix
+	 * @param labels - label names and values, e.g. "name", "DynamoDB:read"
+	 */
+	public PrometheusWriter sample(String name, double value, String... labels){
+		sb.append(PREFIX).append(name);
+		appendLabels(labels);
+		sb.append(' ');
+		appendValue(value);
+		sb.append('\n');
+		return this;
+	}
+	/**
+	 * Write a gauge with one sample.
+	 */
+	public PrometheusWriter gauge(String name, String help, double value){
+		return family(name, "gauge", help).sample(name, value);
+	}
+	/**
+	 * Write a counter with one sample (name should end with "_total").
+	 */
+	public PrometheusWriter counter(String name, String help, double value){
+		return family(name, "counter", help).sample(name, value);
+	}
+
+	/**
+	 * Write all counters and latency histograms of {@link Metrics}.
+	 */
+	public PrometheusWriter writeRegistry(){
+		family("events_total", "counter", "Counters of the server by name.");
+		for (Counter c : Metrics.getCounters().values()){
+			sample("events_total", c.get(), "name", c.getName());
+		}
+		family("latency_seconds", "histogram", "Latencies of end-points and operations by name.");
+		for (LatencyHistogram h : Metrics.getHistograms().values()){
+			LatencyHistogram.Snapshot s = h.getSnapshot();
+			for (double le : LATENCY_BUCKETS){
+				sample("latency_seconds_bucket", s.getCountAtOrBelow(Math.round(le * 1000000.0d)), "name", h.getName(), "le", format(le));
+			}
+			sample("latency_seconds_bucket", s.getCount(), "name", h.getName(), "le", "+Inf");
+			sample("latency_seconds_sum", s.getSumMicros() / 1000000.0d, "name", h.getName());
+			sample("latency_seconds_count", s.getCount(), "name", h.getName());
+		}
+		return this;
+	}
+
+	/**
+	 * Write heap, non-heap, GC and thread metrics of the JVM.
+	 */
+	public PrometheusWriter writeJvm(){
+		MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+		MemoryUsage nonHeap = ManagementFactory.getMemoryMXBean().getNonHeapMemoryUsage();
+		family("jvm_memory_bytes_used", "gauge", "Used memory of the JVM.");
+		sample("jvm_memory_bytes_used", heap.getUsed(), "area", "heap");
+		sample("jvm_memory_bytes_used", nonHeap.getUsed(), "area", "nonheap");
+		family("jvm_memory_bytes_committed", "gauge", "Committed memory of the JVM.");
+		sample("jvm_memory_bytes_committed", heap.getCommitted(), "area", "heap");
+		sample("jvm_memory_bytes_committed", nonHeap.getCommitted(), "area", "nonheap");
+		gauge("jvm_memory_heap_bytes_max", "Max. heap memory of the JVM (-1 if undefined).", heap.getMax());
+
+		family("jvm_gc_collections_total", "counter", "Number of garbage collections by collector.");
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()){
+			sample("jvm_gc_collections_total", Math.max(0, gc.getCollectionCount()), "gc", gc.getName());
+		}
+		family("jvm_gc_pause_seconds_total", "counter", "Accumulated time of garbage collections by collector.");
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()){
+			sample("jvm_gc_pause_seconds_total", Math.max(0, gc.getCollectionTime()) / 1000.0d, "gc", gc.getName());
+		}
+
+		gauge("jvm_threads", "Live threads of the JVM.", ManagementFactory.getThreadMXBean().getThreadCount());
+		gauge("jvm_uptime_seconds", "Uptime of the JVM.", ManagementFactory.getRuntimeMXBean().getUptime() / 1000.0d);
+		return this;
+	}
+
+	//--------- formatting ---------
+
+	private void appendLabels(String[] labels){
+		if (labels.length == 0){
+			return;
+		}
+		sb.append('{');
+		for (int i = 0; i + 1 < labels.length; i += 2){
+			if (i > 0){
+				sb.append(',');
+			}
+			sb.append(labels[i]).append("=\"");
+			String v = labels[i + 1];
+			for (int j = 0; j < v.length(); j++){
+				char c = v.charAt(j);
+				if (c == '\\' || c == '"'){
+					sb.append('\\').append(c);
+				}else if (c == '\n'){
+					sb.append("\\n");
+				}else{
+					sb.append(c);
+				}
+			}
+			sb.append('"');
+		}
+		sb.append('}');
+	}
+	private void appendValue(double value){
+		if (value == (long) value){
+			sb.append((long) value);
+		}else{
+			sb.append(value);
+		}
+	}
+	private static String format(double value){
+		return (value == (long) value)? (((long) value) + ".0") : String.valueOf(value);
+	}
+
+	@Override
+	public String toString(){
+		return sb.toString();
+	}
+
+}
@@ -2,24 +2,44 @@ package de.bytemind.webservice.server;
 
 import static spark.Spark.*;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 import org.json.simple.JSONObject;
 
-import de.bytemind.core.server.Statistics;
 import de.bytemind.core.statics.Language;
 import de.bytemind.core.tools.ClassBuilder;
+import de.bytemind.core.tools.Converters;
 import de.bytemind.core.tools.Debugger;
 import de.bytemind.core.tools.Is;
 import de.bytemind.core.tools.JSON;
 import de.bytemind.core.tools.Timer;
 import de.bytemind.core.users.Account;
 import de.bytemind.core.users.AccountBasicInfo;
+import de.bytemind.core.users.IdHandler;
 import de.bytemind.core.users.Role;
 import de.bytemind.webservice.database.DB;
 import de.bytemind.webservice.database.SetupDynamoDB;
 import de.bytemind.webservice.database.SetupElasticsearch;
+import de.bytemind.webservice.email.EmailOutbox;
+import de.bytemind.webservice.email.EmailTemplateEngine;
 import de.bytemind.webservice.email.SendEmail;
+import de.bytemind.webservice.email.SmtpTransportPool;
+import de.bytemind.webservice.metrics.EndpointMetric;
+import de.bytemind.webservice.metrics.Metrics;
+import de.bytemind.webservice.metrics.PrometheusWriter;
+import de.bytemind.webservice.users.AccountDataDynamoDB;
 import de.bytemind.webservice.users.AccountManager;
+import de.bytemind.webservice.users.AccountManagerDynamoDB;
+import de.bytemind.webservice.users.AccountWriteCoalescer;
 import de.bytemind.webservice.users.AuthenticationToken;
+import de.bytemind.webservice.users.KeyTokenCache;
+import de.bytemind.webservice.users.LoginBackoff;
+import de.bytemind.webservice.users.SignedAccessToken;
+import de.bytemind.webservice.users.StatisticsWriteBehind;
 import spark.Request;
 import spark.Response;
 
@@ -31,11 +51,54 @@ import spark.Response;
  */
 public class BasicAuthenticationServer extends BasicServer{
 	
+	//metrics of authentication end-point
+	private static final EndpointMetric AUTHENTICATION_METRIC = Metrics.endpoint("authentication");
+	
 	@Override
 	public void setupStuff(){
 		super.setupStuff();
 	}
 	
+	@Override
+	public String serverModuleStats(){
+		String stats = super.serverModuleStats();
+		stats += DB.getBulkIndexerStats();
+		stats += SmtpTransportPool.getAllStatsAsString();
+		stats += EmailOutbox.getStats();
+		if (Config.restrictRegistration){
+			stats += DB.getWhitelistCache().getStatsAsString();
+		}
+		KeyTokenCache tokenCache = AccountManagerDynamoDB.getTokenCache();
+		if (tokenCache != null){
+			stats += tokenCache.getStatsAsString();
+		}
+		LoginBackoff backoff = LoginBackoff.getInstance();
+		if (backoff != null){
+			stats += backoff.getStatsAsString();
+		}
+		StatisticsWriteBehind statisticsWriter = AccountDataDynamoDB.getStatisticsWriter();
+		if (statisticsWriter != null){
+			stats += statisticsWriter.getStatsAsString();
+		}
+		if (AccountDataDynamoDB.getWriteCoalescer() != null){
+			stats += AccountWriteCoalescer.getStatsAsString();
+		}
+		stats += SignedAccessToken.getStatsAsString();
+		stats += AccountManagerDynamoDB.getInvalidationBus().getStatsAsString();
+		return stats;
+	}
+	
+	@Override
+	public void serverModuleMetrics(PrometheusWriter metrics){
+		super.serverModuleMetrics(metrics);
+		EmailOutbox outbox = EmailOutbox.peekInstance();
+		if (outbox != null){
+			metrics.gauge("email_outbox_queue", "Emails waiting to be sent (including retries).", outbox.getQueueDepth())
+				.counter("email_outbox_sent_total", "Emails sent by the outbox.", outbox.getSent())
+				.counter("email_outbox_failed_total", "Emails given up by the outbox.", outbox.getFailed());
+		}
+	}
+	
 	@Override
 	public boolean testModules(){
 		super.testModules();
@@ -68,29 +131,65 @@ public class BasicAuthenticationServer extends BasicServer{
 	 * Sets the authentication end-points so that this server can be used to create and authenticate users.
 	 */
 	public void loadAuthenticationEndpoints(){
-		post("/authentication", (request, response) -> 	authenticationAPI(request, response));
-		post("/authWhitelist", (request, response) ->	authenticationWhitelist(request, response));
+		post("/authentication", rateLimited(bulkhead((request, response) -> 	authenticationAPI(request, response))));
+		post("/authWhitelist", rateLimited(bulkhead((request, response) ->		authenticationWhitelist(request, response))));
+		post("/accountInfos", rateLimited(bulkhead((request, response) ->		accountInfosBatch(request, response))));
 	}
 	
 	@Override
 	public void start(String[] args) {
 		super.start(args);
 		
+		//load registration white-list into memory
+		if (Config.restrictRegistration){
+			DB.getWhitelistCache();
+		}
+		
+		//load email templates
+		EmailTemplateEngine.getInstance();
+		
+		//send emails left in the outbox spool
+		if (Config.emailOutbox){
+			EmailOutbox.getInstance();
+		}
+		
+		//key token cache listens to logouts etc. of other nodes
+		AccountManagerDynamoDB.getInvalidationBus();
+		
 		//ADD SERVER END-POINTS
 		loadAuthenticationEndpoints();
 	}
 	
+	/**
+	 * Send a registration or password reset email. If "Config.emailOutbox" is active the message is only put into the {@link EmailOutbox}
+	 * and sent in the background, else it is sent right away.
+	 * @return result code like {@link SendEmail#send(String, String, String, java.io.File)} (0 - sent or queued)
+	 */
+	public int sendAuthenticationEmail(SendEmail emailClient, String email, String message, String subject, int priority){
+		if (!Config.emailOutbox || Config.redirectEmail){
+			return emailClient.send(email, message, subject, null);
+		}
+		//same checks as send before the message is queued
+		if (email.trim().isEmpty() || message.trim().isEmpty()){
+			return 1;
+		}
+		if (!email.matches(".+@.+")){
+			return 2;
+		}
+		return EmailOutbox.getInstance().enqueue(email, message, subject, priority)? 0 : 3;
+	}
+	
 	/**
 	 * ---Authentication white-list API---<br>
 	 * End-point to manage white-list for new user registration.
 	 */
 	public String authenticationWhitelist(Request request, Response response){
-		long tic = Timer.tic();
+		long start = System.nanoTime();
 		
-		//authenticate
-		Account account = authenticateAccount(request);
+		//authenticate - changes data so signed access tokens are not enough
+		Account account = usesSignedAccessToken(request)? null : authenticateAccount(request);
 		if (account == null || !account.authenticate()){
-			Statistics.addInternalApiHit("Endpoint:authWhitelist-noAuth", tic);		//Statistics
+			ENDPOINT_METRIC.record("authWhitelist-noAuth", start);		//Metrics
 			return returnNoAccess(request, response, (account == null)? 2 : account.getErrorCode());
 		
 		}else{
@@ -101,14 +200,14 @@ public class BasicAuthenticationServer extends BasicServer{
 			//validate request
 			if (action == null || info == null){
 				String msg = "{\"result\":\"fail\",\"error\":\"parameters are missing or invalid!\"}";
-				Statistics.addInternalApiHit("Endpoint:authWhitelist-error", tic);		//Statistics
+				ENDPOINT_METRIC.record("authWhitelist-error", start);		//Metrics
 				return returnResult(request, response, msg, 200);
 			}
 			
 			//check role
 			if (!account.hasRole(Role.developer)){
 				Debugger.println("access denied to service whitelist! User: " + account.getUserID() + " is missing role.", 3);
-				Statistics.addInternalApiHit("Endpoint:authWhitelist-noRole", tic);		//Statistics
+				ENDPOINT_METRIC.record("authWhitelist-noRole", start);		//Metrics
 				return returnNoAccess(request, response);
 			}
 			
@@ -119,7 +218,7 @@ public class BasicAuthenticationServer extends BasicServer{
 				//success?
 				if (code != 0){
 					String msg = "{\"result\":\"fail\",\"error\":\"user could not be added!\",\"code\":\"" + code + "\"}";
-					Statistics.addInternalApiHit("Endpoint:authWhitelist:addUser-error", tic);		//Statistics
+					ENDPOINT_METRIC.record("authWhitelist:addUser-error", start);		//Metrics
 					return returnResult(request, response, msg, 200);
 				}else{
 					Debugger.println("Whitelist user added! User: " + info + " added by: " + account.getUserID(), 3);
@@ -127,19 +226,84 @@ public class BasicAuthenticationServer extends BasicServer{
 					JSON.add(msg, "result", "success");
 					JSON.add(msg, "added", info);
 					JSON.add(msg, "by", account.getUserID());
-					Statistics.addInternalApiHit("Endpoint:authWhitelist:addUser", tic);			//Statistics
+					ENDPOINT_METRIC.record("authWhitelist:addUser", start);			//Metrics
 					return returnResult(request, response, msg.toJSONString(), 200);
 				}
 			
 			//no valid service
 			}else{
 				String msg = "{\"result\":\"fail\",\"error\":\"parameters are invalid!\"}";
-				Statistics.addInternalApiHit("Endpoint:authWhitelist-error", tic);		//Statistics
+				ENDPOINT_METRIC.record("authWhitelist-error", start);		//Metrics
 				return returnResult(request, response, msg, 200);
 			}
 		}
 	}
 	
+	/**
+	 * ---Account info batch API---<br>
+	 * End-point to get the same account info (e.g. names and roles) of many users with one request.<br>
+	 * Parameters: "ids" - comma separated list or JSON array of user IDs, "keys" - comma separated list of account info (optional).
+	 */
+	public String accountInfosBatch(Request request, Response response){
+		long start = System.nanoTime();
+		
+		//authenticate
+		Account account = authenticateAccount(request);
+		if (account == null || !account.authenticate()){
+			ENDPOINT_METRIC.record("accountInfos-noAuth", start);		//Metrics
+			return returnNoAccess(request, response, (account == null)? 2 : account.getErrorCode());
+		}
+		//check role
+		if (!account.hasRole(Role.developer)){
+			Debugger.println("access denied to service accountInfos! User: " + account.getUserID() + " is missing role.", 3);
+			ENDPOINT_METRIC.record("accountInfos-noRole", start);		//Metrics
+			return returnNoAccess(request, response);
+		}
+		
+		//validate request
+		String idsParam = request.queryParams("ids");
+		String keysParam = request.queryParams("keys");
+		Set<String> ids = new LinkedHashSet<>();		//cleaned and unique
+		if (idsParam != null){
+			for (String id : idsParam.replaceAll("[\\[\\]\"\\s]", "").split(",")){
+				if (!id.isEmpty()){
+					ids.add(IdHandler.clean(id));
+				}
+			}
+		}
+		if (ids.isEmpty() || ids.size() > Config.accountBatchMaxUsers){
+			String msg = "{\"result\":\"fail\",\"error\":\"parameter 'ids' is missing or has more than " + Config.accountBatchMaxUsers + " users!\"}";
+			ENDPOINT_METRIC.record("accountInfos-error", start);		//Metrics
+			return returnResult(request, response, msg, 200);
+		}
+		String[] keys = (keysParam == null || keysParam.trim().isEmpty())?
+				new String[]{ AccountBasicInfo.NAME, AccountBasicInfo.ROLES } : keysParam.replaceAll("\\s", "").split(",");
+		
+		//read
+		Map<String, JSONObject> users = DB.getAccountInfosBatch(ids, keys);
+		if (users == null){
+			String msg = "{\"result\":\"fail\",\"error\":\"account infos could not be loaded!\"}";
+			ENDPOINT_METRIC.record("accountInfos-dbError", start);		//Metrics
+			return returnResult(request, response, msg, 200);
+		}
+		JSONObject usersJson = new JSONObject();
+		List<String> missing = new ArrayList<>();
+		for (String id : ids){
+			JSONObject user = users.get(id);
+			if (user != null){
+				JSON.put(usersJson, id, user);
+			}else{
+				missing.add(id);
+			}
+		}
+		JSONObject msg = new JSONObject();
+		JSON.add(msg, "result", "success");
+		JSON.add(msg, "users", usersJson);
+		JSON.add(msg, "missing", Converters.list2JsonArray(missing));
+		ENDPOINT_METRIC.record("accountInfos", start);			//Metrics
+		return returnResult(request, response, msg.toJSONString(), 200);
+	}
+	
 	/**
 	 * ---AUTHENTICATION API---<br>
 	 * End-point that handles the user creation, authentication process, login, logout, password reset, etc.<br>
@@ -147,6 +311,7 @@ public class BasicAuthenticationServer extends BasicServer{
 	 */
 	public String authenticationAPI(Request request, Response response) {
 		long tic = Timer.tic();
+		long start = System.nanoTime();
 		
 		//get action - validate/logout/createUser/deleteUser
 		String action = request.queryParams("action");
@@ -154,7 +319,7 @@ public class BasicAuthenticationServer extends BasicServer{
 		
 		//no action
 		if (action == null || action.trim().isEmpty()){
-			Statistics.addInternalApiHit("Endpoint:authentication:null", tic);		//Statistics
+			AUTHENTICATION_METRIC.record("null", start);		//Metrics
 			return returnResult(request, response, "no action", 204);
 		}
 		//check user - this is mainly a service for other APIs - basically same as validate but without token generation
@@ -162,7 +327,7 @@ public class BasicAuthenticationServer extends BasicServer{
 			//authenticate
 			AuthenticationToken token = authenticateToken(request);
 			if (!token.authenticated()){
-				Statistics.addInternalApiHit("Endpoint:authentication:check-noAuth", tic);		//Statistics
+				AUTHENTICATION_METRIC.record("check-noAuth", start);		//Metrics
 				return returnNoAccess(request, response, token.getErrorCode());
 				
 			}else{
@@ -180,16 +345,21 @@ public class BasicAuthenticationServer extends BasicServer{
 					JSON.add(msg, "basic_info", basics);
 				}
 				JSON.add(msg, "duration_ms", Debugger.toc(tic));
-				Statistics.addInternalApiHit("Endpoint:authentication:check", tic);		//Statistics
+				AUTHENTICATION_METRIC.record("check", start);		//Metrics
 				return returnResult(request, response, msg.toJSONString(), 200);
 			}
 		}
 		//validate user and create new token
 		else if (action.trim().equals("validate")){
+			//signed access tokens are not enough here
+			if (usesSignedAccessToken(request)){
+				AUTHENTICATION_METRIC.record("validate-signedToken", start);		//Metrics
+				return returnNoAccess(request, response);
+			}
 			//authenticate
 			AuthenticationToken token = authenticateToken(request);
 			if (!token.authenticated()){
-				Statistics.addInternalApiHit("Endpoint:authentication:validate-noAuth", tic);		//Statistics
+				AUTHENTICATION_METRIC.record("validate-noAuth", start);		//Metrics
 				return returnNoAccess(request, response, token.getErrorCode());
 				
 			}else{
@@ -198,7 +368,7 @@ public class BasicAuthenticationServer extends BasicServer{
 				String new_token = token.getKeyToken(client_info);
 				if (token.getErrorCode() != 0 && !new_token.isEmpty()){
 					String msg = "{\"result\":\"fail\",\"error\":\"cannot create token, maybe invalid client info?\"}";
-					Statistics.addInternalApiHit("Endpoint:authentication:validate-error", tic);		//Statistics
+					AUTHENTICATION_METRIC.record("validate-error", start);		//Metrics
 					return returnResult(request, response, msg, 200);
 				}
 				JSONObject msg = new JSONObject();
@@ -206,6 +376,12 @@ public class BasicAuthenticationServer extends BasicServer{
 				JSON.add(msg, "access_level", token.getAccessLevel());
 				JSON.add(msg, "keyToken", new_token);
 				JSON.add(msg, "keyToken_TS", new Long(timeStamp));
+				//signed access token - verifiable without database by every server with the same secret
+				String accessToken = token.getSignedAccessToken(client_info);
+				if (!accessToken.isEmpty()){
+					JSON.add(msg, "accessToken", accessToken);
+					JSON.add(msg, "accessToken_TTL", Long.valueOf(SignedAccessToken.getTtl()));
+				}
 				JSON.add(msg, "duration_ms", Debugger.toc(tic));
 				//id
 				String guuid = token.getUserID();
@@ -216,16 +392,21 @@ public class BasicAuthenticationServer extends BasicServer{
 				if (basics != null){
 					JSON.add(msg, "basic_info", basics);
 				}
-				Statistics.addInternalApiHit("Endpoint:authentication:validate", tic);		//Statistics
+				AUTHENTICATION_METRIC.record("validate", start);		//Metrics
 				return returnResult(request, response, msg.toJSONString(), 200);
 			}
 		}
 		//logout
 		else if (action.trim().equals("logout")){
+			//signed access tokens are not enough here
+			if (usesSignedAccessToken(request)){
+				AUTHENTICATION_METRIC.record("logout-signedToken", start);		//Metrics
+				return returnNoAccess(request, response);
+			}
 			//authenticate
 			AuthenticationToken token = authenticateToken(request);
 			if (!token.authenticated()){
-				Statistics.addInternalApiHit("Endpoint:authentication:logout-noAuth", tic);		//Statistics
+				AUTHENTICATION_METRIC.record("logout-noAuth", start);		//Metrics
 				return returnNoAccess(request, response, token.getErrorCode());
 				
 			}else{
@@ -240,7 +421,7 @@ public class BasicAuthenticationServer extends BasicServer{
 					JSON.add(msg, "error", "user logout failed!");
 					JSON.add(msg, "code", token.getErrorCode());
 				}
-				Statistics.addInternalApiHit("Endpoint:authentication:logout", tic);		//Statistics
+				AUTHENTICATION_METRIC.record("logout", start);		//Metrics
 				return returnResult(request, response, msg.toJSONString(), 200);
 			}
 		}
@@ -258,7 +439,7 @@ public class BasicAuthenticationServer extends BasicServer{
 			//check type
 			if (type == null || !type.equals("email")){
 				String msg = "{\"result\":\"fail\",\"error\":\"'type' of registration not supported!\"}";
-				Statistics.addInternalApiHit("Endpoint:authentication:register-error", tic);		//Statistics
+				AUTHENTICATION_METRIC.record("register-error", start);		//Metrics
 				return returnResult(request, response, msg, 200);
 			}
 			
@@ -275,7 +456,7 @@ public class BasicAuthenticationServer extends BasicServer{
 				JSONObject result = auth.registrationByEmail(email);
 				//check result for user-exists or server communication error
 				if (((String) result.get("result")).equals("fail")){
-					Statistics.addInternalApiHit("Endpoint:authentication:register-error", tic);		//Statistics
+					AUTHENTICATION_METRIC.record("register-error", start);		//Metrics
 					return returnResult(request, response, result.toJSONString(), 200);
 				}
 				//Send via email:
@@ -293,17 +474,17 @@ public class BasicAuthenticationServer extends BasicServer{
 									(String) result.get("time")
 				);
 				//-send
-				int code = emailClient.send(email, message, subject, null);
+				int code = sendAuthenticationEmail(emailClient, email, message, subject, EmailOutbox.PRIORITY_REGISTRATION);
 
 				//-check result
 				if (code == 0){
 					//-overwrite token and return
 					JSON.add(result, "token", "sent via email to " + email);
-					Statistics.addInternalApiHit("Endpoint:authentication:register", tic);		//Statistics
+					AUTHENTICATION_METRIC.record("register", start);		//Metrics
 					return returnResult(request, response, result.toJSONString(), 200);
 				}else{
 					//-error
-					Statistics.addInternalApiHit("Endpoint:authentication:register-emailError", tic);		//Statistics
+					AUTHENTICATION_METRIC.record("register-emailError", start);		//Metrics
 					if (code == 1){
 						return returnResult(request, response, "{\"result\":\"fail\",\"error\":\"could not send email! Invalid address? Server problem?\",\"code\":\"418\"}", 200);
 					}else if (code == 2){
@@ -313,7 +494,7 @@ public class BasicAuthenticationServer extends BasicServer{
 					}
 				}
 			}
-			Statistics.addInternalApiHit("Endpoint:authentication:register-error", tic);		//Statistics
+			AUTHENTICATION_METRIC.record("register-error", start);		//Metrics
 			return returnResult(request, response, "{\"result\":\"fail\",\"error\":\"no valid user ID found!\",\"code\":\"422\"}", 200);
 		}
 		//create new user
@@ -338,16 +519,16 @@ public class BasicAuthenticationServer extends BasicServer{
 					String msg = "{\"result\":\"success\",\"msg\":\"new user created\"}";
 					//-log
 					Debugger.println("new user created - ID: " + userID + " - timestamp: " + System.currentTimeMillis(), 3);
-					Statistics.addInternalApiHit("Endpoint:authentication:createUser", tic);		//Statistics
+					AUTHENTICATION_METRIC.record("createUser", start);		//Metrics
 					return returnResult(request, response, msg, 200);
 				}else{
 					String msg = "{\"result\":\"fail\",\"error\":\"failed to create user!\",\"code\":\"" + auth.getErrorCode() + "\"}";
-					Statistics.addInternalApiHit("Endpoint:authentication:createUser-error", tic);		//Statistics
+					AUTHENTICATION_METRIC.record("createUser-error", start);		//Metrics
 					return returnResult(request, response, msg, 200);
 				}
 			}else{
 				String msg = "{\"result\":\"fail\",\"error\":\"401 not authorized to create user (wrong token? missing parameters?)!\",\"code\":\"" + "2" + "\"}";
-				Statistics.addInternalApiHit("Endpoint:authentication:createUser-tokenError", tic);		//Statistics
+				AUTHENTICATION_METRIC.record("createUser-tokenError", start);		//Metrics
 				return returnResult(request, response, msg, 200);
 			}
 		}
@@ -365,7 +546,7 @@ public class BasicAuthenticationServer extends BasicServer{
 			//check type
 			if (type == null || !type.equals("email")){
 				String msg = "{\"result\":\"fail\",\"error\":\"this 'type' to reset password is not supported!\"}";
-				Statistics.addInternalApiHit("Endpoint:authentication:forgotPassword-error", tic);		//Statistics
+				AUTHENTICATION_METRIC.record("forgotPassword-error", start);		//Metrics
 				return returnResult(request, response, msg, 200);
 			}
 			
@@ -382,7 +563,7 @@ public class BasicAuthenticationServer extends BasicServer{
 				JSONObject result = auth.requestPasswordChange(in);
 				//check result for user-exists or server communication error
 				if (((String) result.get("result")).equals("fail")){
-					Statistics.addInternalApiHit("Endpoint:authentication:forgotPassword-error", tic);		//Statistics
+					AUTHENTICATION_METRIC.record("forgotPassword-error", start);		//Metrics
 					return returnResult(request, response, result.toJSONString(), 200);
 				}
 				//Send via email:
@@ -400,7 +581,7 @@ public class BasicAuthenticationServer extends BasicServer{
 									(String) result.get("time")
 				);
 				//-send
-				int code = emailClient.send(email, message, subject, null);
+				int code = sendAuthenticationEmail(emailClient, email, message, subject, EmailOutbox.PRIORITY_PASSWORD_RESET);
 
 				//-check result
 				if (code == 0){
@@ -408,11 +589,11 @@ public class BasicAuthenticationServer extends BasicServer{
 					Debugger.println("password reset attempt - ID: " + email + " - timestamp: " + System.currentTimeMillis(), 3);
 					//-overwrite token and return
 					JSON.add(result, "token", "sent via email to " + email);
-					Statistics.addInternalApiHit("Endpoint:authentication:forgotPassword", tic);			//Statistics
+					AUTHENTICATION_METRIC.record("forgotPassword", start);			//Metrics
 					return returnResult(request, response, result.toJSONString(), 200);
 				}else{
 					//-error
-					Statistics.addInternalApiHit("Endpoint:authentication:forgotPassword-emailError", tic);		//Statistics
+					AUTHENTICATION_METRIC.record("forgotPassword-emailError", start);		//Metrics
 					if (code == 1){
 						return returnResult(request, response, "{\"result\":\"fail\",\"error\":\"could not send email! Invalid address? Server problem?\"}", 200);
 					}else if (code == 2){
@@ -422,7 +603,7 @@ public class BasicAuthenticationServer extends BasicServer{
 					}
 				}
 			}
-			Statistics.addInternalApiHit("Endpoint:authentication:forgotPassword-error", tic);		//Statistics
+			AUTHENTICATION_METRIC.record("forgotPassword-error", start);		//Metrics
 			return returnResult(request, response, "{\"result\":\"fail\",\"error\":\"no valid user ID found!\"}", 200);
 		}
 		//change password
@@ -433,6 +614,10 @@ public class BasicAuthenticationServer extends BasicServer{
 			String type = request.queryParams("type");
 			String timestamp = request.queryParams("time");
 			String ticketID = request.queryParams("ticketid");
+			if (usesSignedAccessToken(request) || SignedAccessToken.isSignedToken(token)){
+				AUTHENTICATION_METRIC.record("changePassword-signedToken", start);		//Metrics
+				return returnNoAccess(request, response);
+			}
 			if (userID != null && password != null && token != null && timestamp != null && type != null){
 				AccountManager auth = (AccountManager) ClassBuilder.construct(Config.accountManager_module);
 				auth.setRequestInfo(request);
@@ -445,16 +630,16 @@ public class BasicAuthenticationServer extends BasicServer{
 					String msg = "{\"result\":\"success\",\"msg\":\"new password has been set.\"}";
 					//-log
 					Debugger.println("password reset - ID: " + userID + " - timestamp: " + System.currentTimeMillis(), 3);
-					Statistics.addInternalApiHit("Endpoint:authentication:changePassword", tic);		//Statistics
+					AUTHENTICATION_METRIC.record("changePassword", start);		//Metrics
 					return returnResult(request, response, msg, 200);
 				}else{
 					String msg = "{\"result\":\"fail\",\"error\":\"failed to change password!\",\"code\":\"" + auth.getErrorCode() + "\"}";
-					Statistics.addInternalApiHit("Endpoint:authentication:changePassword-error", tic);		//Statistics
+					AUTHENTICATION_METRIC.record("changePassword-error", start);		//Metrics
 					return returnResult(request, response, msg, 200);
 				}
 			}else{
 				String msg = "{\"result\":\"fail\",\"error\":\"401 not authorized to change password (token?)!\",\"code\":\"" + "2" + "\"}";
-				Statistics.addInternalApiHit("Endpoint:authentication:changePassword-tokenError", tic);		//Statistics
+				AUTHENTICATION_METRIC.record("changePassword-tokenError", start);		//Metrics
 				return returnResult(request, response, msg, 200);
 			}
 		}
@@ -464,10 +649,15 @@ public class BasicAuthenticationServer extends BasicServer{
 			//return returnResult(request, response, "{\"result\":\"fail\",\"error\":\"not yet implemented oO\"}", 200);
 			//TODO: improve to operate more like "createUser" and delete ALL user data including the one in ElasticSearch
 			
+			//signed access tokens are not enough here
+			if (usesSignedAccessToken(request)){
+				AUTHENTICATION_METRIC.record("deleteUser-signedToken", start);		//Metrics
+				return returnNoAccess(request, response);
+			}
 			//authenticate
 			AuthenticationToken token = authenticateToken(request);
 			if (!token.authenticated()){
-				Statistics.addInternalApiHit("Endpoint:authentication:deleteUser-noAuth", tic);		//Statistics
+				AUTHENTICATION_METRIC.record("deleteUser-noAuth", start);		//Metrics
 				return returnNoAccess(request, response, token.getErrorCode());
 				
 			}else{
@@ -488,7 +678,7 @@ public class BasicAuthenticationServer extends BasicServer{
 					JSON.add(msg, "error", "account could not be deleted. Please try again or contact user support!");
 					JSON.add(msg, "code", auth.getErrorCode());
 					Debugger.println("deleteUser for account: " + userID + " could not finish successfully!?!", 1);
-					Statistics.addInternalApiHit("Endpoint:authentication:deleteUser-error", tic);		//Statistics
+					AUTHENTICATION_METRIC.record("deleteUser-error", start);		//Metrics
 					return returnResult(request, response, msg.toJSONString(), 200);
 				}else{
 					//success
@@ -497,14 +687,14 @@ public class BasicAuthenticationServer extends BasicServer{
 					JSON.add(msg, "message", "account has been deleted! Goodbye :-(");
 					JSON.add(msg, "duration_ms", Debugger.toc(tic));
 					Debugger.println("Account: " + userID + " has successfully been deleted :-(", 3);
-					Statistics.addInternalApiHit("Endpoint:authentication:deleteUser", tic);		//Statistics
+					AUTHENTICATION_METRIC.record("deleteUser", start);		//Metrics
 					return returnResult(request, response, msg.toJSONString(), 200);
 				}
 			}
 		}
 		//no action
 		else{
-			Statistics.addInternalApiHit("Endpoint:authentication:noAction", tic);		//Statistics
+			AUTHENTICATION_METRIC.record("noAction", start);		//Metrics
 			return returnResult(request, response, "", 204);
 		}
 	} 
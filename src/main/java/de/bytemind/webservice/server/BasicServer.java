@@ -6,23 +6,32 @@ import java.security.Policy;
 import java.util.Date;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.RejectedExecutionException;
+
 import org.json.simple.JSONObject;
 
 import de.bytemind.core.server.Statistics;
 import de.bytemind.core.tools.ClassBuilder;
 import de.bytemind.core.tools.DateTime;
 import de.bytemind.core.tools.Debugger;
-import de.bytemind.core.tools.Is;
 import de.bytemind.core.tools.JSON;
 import de.bytemind.core.tools.SandboxSecurityPolicy;
-import de.bytemind.core.tools.Timer;
 import de.bytemind.core.users.Account;
+import de.bytemind.core.users.IdHandler;
 import de.bytemind.core.users.Role;
 import de.bytemind.webservice.email.SendEmail;
+import de.bytemind.webservice.metrics.Counter;
+import de.bytemind.webservice.metrics.EndpointMetric;
+import de.bytemind.webservice.metrics.Metrics;
+import de.bytemind.webservice.metrics.PrometheusWriter;
 import de.bytemind.webservice.users.AccountManager;
 import de.bytemind.webservice.users.AuthenticationToken;
+import de.bytemind.webservice.users.InvalidationBuses;
+import de.bytemind.webservice.users.LoginBackoff;
+import de.bytemind.webservice.users.SignedAccessToken;
 import spark.Request;
 import spark.Response;
+import spark.Route;
 
 /**
  * Basic server typically using external or instant authentication of accounts (if required at all) and no database.<br>
@@ -33,6 +42,16 @@ import spark.Response;
  */
 public class BasicServer extends ByteMindServer{
 	
+	//metrics of end-points
+	protected static final EndpointMetric ENDPOINT_METRIC = Metrics.endpoint("");
+	private static final Counter PING_COUNTER = Metrics.counter("Endpoint:ping");
+	
+	//request attributes of the concurrency limiter
+	private static final String LIMITER_ATTR = "concurrency-limiter";
+	private static final String LIMITER_START_ATTR = "concurrency-limiter-start";
+	private static final String LIMITER_FAILED_ATTR = "concurrency-limiter-failed";
+	private static final String LIMITER_SHED_ATTR = "concurrency-limiter-shed";
+	
 	//stuff
 	public String startUTC = "";
 	public String serverType = "";
@@ -40,6 +59,7 @@ public class BasicServer extends ByteMindServer{
 	private boolean serveStaticFiles = false;
 	
 	private boolean settingsLoaded = false;
+	private MetricsServer metricsServer;
 	
 	/**
 	 * Setup sandbox to secure access of plugins loaded via SandboxClassLoader. 
@@ -124,12 +144,62 @@ public class BasicServer extends ByteMindServer{
 	}
 	
 	/**
-	 * Sets the default end-points: ping, stats and config.
+	 * Sets the default end-points: ping, stats, config and metrics. Metrics are served on the server port only if "Config.metricsSecret"
+	 * is set, with "Config.metricsPort" they get their own server (see {@link MetricsServer}).
 	 */
 	public void loadDefaultEndpoints(){
-		get("/ping", (request, response) -> 			pingServer(request, response));
-		get("/stats", (request, response) -> 			serverStats(request, response));
-		get("/config", (request, response) -> 			configServer(request, response));
+		get("/ping", bulkhead((request, response) -> 		pingServer(request, response)));
+		get("/stats", bulkhead((request, response) -> 		serverStats(request, response)));
+		get("/config", bulkhead((request, response) -> 		configServer(request, response)));
+		if (Config.metricsPort > 0){
+			metricsServer = new MetricsServer(Config.metricsPort, () -> serverMetrics());
+			metricsServer.start();
+			Debugger.println("Metrics end-point running on port " + Config.metricsPort, 3);
+		}else if (!Config.metricsSecret.isEmpty()){
+			get("/metrics", (request, response) -> 			serverMetrics(request, response));
+		}
+	}
+	
+	/**
+	 * Add the adaptive concurrency limiter (see {@link ConcurrencyLimiters}) as before/after filter pair. Requests over the limit of
+	 * their route get an immediate 503 with 'Retry-After', slow or failed requests lower the limit. Requests rejected by a bulkhead
+	 * or rate limit are not counted.
+	 */
+	public void loadConcurrencyLimiter(){
+		ConcurrencyLimiters.setup();
+		before((request, response) -> {
+			//health checks and scrapes must see the overload, they are never shed
+			if (isMonitoringPath(request.pathInfo())){
+				return;
+			}
+			ConcurrencyLimiter limiter = ConcurrencyLimiters.getLimiter(request.pathInfo(), request.queryParams("action"));
+			long start = limiter.tryAcquire();
+			if (start < 0){
+				halt(503, returnServiceUnavailable(request, response, 1));
+			}
+			request.attribute(LIMITER_ATTR, limiter);
+			request.attribute(LIMITER_START_ATTR, start);
+		});
+		//runs after errors and halts too
+		afterAfter((request, response) -> {
+			ConcurrencyLimiter limiter = request.attribute(LIMITER_ATTR);
+			if (limiter != null){
+				if (request.attribute(LIMITER_SHED_ATTR) != null){
+					limiter.cancel();
+					return;
+				}
+				long start = request.attribute(LIMITER_START_ATTR);
+				boolean failed = request.attribute(LIMITER_FAILED_ATTR) != null || response.status() >= 500;
+				limiter.release(start, failed);
+			}
+		});
+	}
+	
+	/**
+	 * End-points for health checks and monitoring ("/ping", "/metrics") that the concurrency limiter lets through.
+	 */
+	protected boolean isMonitoringPath(String path){
+		return "/ping".equals(path) || "/metrics".equals(path);
 	}
 	
 	/**
@@ -138,13 +208,14 @@ public class BasicServer extends ByteMindServer{
 	public void handleError(){
 		exception(Exception.class, (ex, request, response) -> {
 			Debugger.println("Exception for request to " + request.url() + ": " + ex, 1);
+			request.attribute(LIMITER_FAILED_ATTR, true);		//counts as overload for the concurrency limiter
 			//print the last 5 traces ... the rest is typically server spam ^^
 			Debugger.printStackTrace(ex, 5);
 			JSONObject result = new JSONObject();
 			JSON.add(result, "result", "fail");
 			JSON.add(result, "error", "500 internal error");
 			JSON.add(result, "info", ex.getMessage());
-			response.body(returnResult(request, response, result.toJSONString(), 200)); 	//code 500 always creates client timeout :/
+			response.body(returnResult(request, response, result.toJSONString(), 500));
 		});
 	}
 	
@@ -217,13 +288,17 @@ public class BasicServer extends ByteMindServer{
 		//setup modules like loading stuff to memory and connecting commands to classes etc.
 		setupStuff();
 		
-		/*
-		//TODO: do we need to set this? https://wiki.eclipse.org/Jetty/Howto/High_Load
-		int maxThreads = 8;
-		int minThreads = 2;
-		int timeOutMillis = 30000;
-		threadPool(maxThreads, minThreads, timeOutMillis)
-		 */
+		//setup server thread pool (see: https://wiki.eclipse.org/Jetty/Howto/High_Load) and bulkheads
+		ServerThreadPool.setup();
+		Bulkheads.setup();
+		if (Config.rateLimit){
+			RateLimits.setup();
+		}
+		
+		//signed access tokens are verified here - listen to logouts etc. of the authentication server(s)
+		if (SignedAccessToken.isEnabled()){
+			SignedAccessToken.subscribeRevocations(InvalidationBuses.get());
+		}
 		
 		try {
 			port(Integer.valueOf(System.getenv("PORT")));
@@ -239,9 +314,16 @@ public class BasicServer extends ByteMindServer{
 			enableCORS("*", "*", "*");
 		}
 		
+		//adaptive concurrency limit - reject requests early when the server gets slow
+		if (Config.concurrencyLimiter){
+			loadConcurrencyLimiter();
+		}
+		
 		//do something before everything else - e.g. some authentication check
 		before((request, response) -> {	
 			//System.out.println("BEFORE TEST 1"); 		//DEBUG
+			//lazy authentication context - resolves credentials once when the first handler asks for them
+			request.attribute(RequestAuthentication.ATTR, new RequestAuthentication(request));
 		});
 		
 		//ERROR handling - TODO: improve
@@ -257,7 +339,7 @@ public class BasicServer extends ByteMindServer{
 	 */
 	public String pingServer(Request request, Response response){
 		//stats
-		Statistics.addInternalApiHit("Endpoint:ping", 1);
+		PING_COUNTER.inc();
 					
 		JSONObject msg = new JSONObject();
 		JSON.put(msg, "result", "success");
@@ -272,12 +354,12 @@ public class BasicServer extends ByteMindServer{
 	 * End-point to get statistics of the server.
 	 */
 	public String serverStats(Request request, Response response){
-		long tic = Timer.tic();
+		long start = System.nanoTime();
 		
 		//authenticate
 		Account account = authenticateAccount(request);
 		if (account == null || !account.authenticate()){
-			Statistics.addInternalApiHit("Endpoint:serverStats-noAuth", tic);	//Statistics
+			ENDPOINT_METRIC.record("serverStats-noAuth", start);	//Metrics
 			return returnNoAccess(request, response, (account == null)? 2 : account.getErrorCode());
 		
 		}else{
@@ -300,17 +382,80 @@ public class BasicServer extends ByteMindServer{
 								"\nTime local: " + nowLocal + "\n\n" +
 								Statistics.getInfoAsString() +
 								"\n" +
+								Metrics.getStatsAsString() +
+								"\n" +
+								serverModuleStats() +
+								"\n" +
 								serverStatsHook(request, response, account);
 				
-				Statistics.addInternalApiHit("Endpoint:serverStats", tic);			//Statistics
+				ENDPOINT_METRIC.record("serverStats", start);			//Metrics
 				return msg;
 				
 			}else{
-				Statistics.addInternalApiHit("Endpoint:serverStats-error", tic);	//Statistics
+				ENDPOINT_METRIC.record("serverStats-error", start);	//Metrics
 				return ("Please login with role '" + Role.seniordev + "' or higher to see statistics.");
 			}
 		}
 	}
+	/**
+	 * Statistics of internal server modules like the thread pool. Servers that add modules extend this.
+	 * @return string to append to statistics overview
+	 */
+	public String serverModuleStats(){
+		return ServerThreadPool.getStatsAsString() + Bulkheads.getStatsAsString() + ConcurrencyLimiters.getStatsAsString() + RateLimits.getStatsAsString();
+	}
+	/**
+	 * ---SERVER METRICS---<br>
+	 * End-point to get metrics in Prometheus format. Requires the header "Authorization: Bearer [Config.metricsSecret]".
+	 */
+	public String serverMetrics(Request request, Response response){
+		if (!MetricsServer.isAuthorized(request.headers("Authorization"))){
+			response.status(401);
+			response.type("text/plain; charset=utf-8");
+			return "401 not authorized";
+		}
+		response.status(200);
+		response.type(PrometheusWriter.CONTENT_TYPE);
+		return serverMetrics();
+	}
+	/**
+	 * All metrics in Prometheus format.
+	 */
+	public String serverMetrics(){
+		PrometheusWriter metrics = new PrometheusWriter();
+		metrics.writeRegistry().writeJvm();
+		serverModuleMetrics(metrics);
+		return metrics.toString();
+	}
+	/**
+	 * Metrics of internal server modules like the thread pool. Servers that add modules extend this (like {@link #serverModuleStats()}).
+	 */
+	public void serverModuleMetrics(PrometheusWriter metrics){
+		metrics.gauge("server_threads_busy", "Busy threads of the server pool.", ServerThreadPool.getBusyThreads())
+			.gauge("server_threads_idle", "Idle threads of the server pool.", ServerThreadPool.getIdleThreads())
+			.gauge("server_threads_max", "Max. threads of the server pool (-1 if unbounded).", ServerThreadPool.getMaxThreads())
+			.gauge("server_threads_queued", "Requests waiting for a thread of the server pool.", ServerThreadPool.getQueueSize());
+		if (Config.concurrencyLimiter){
+			metrics.family("concurrency_limit", "gauge", "Adaptive concurrency limit by route.");
+			for (ConcurrencyLimiter l : ConcurrencyLimiters.getLimiters()){
+				metrics.sample("concurrency_limit", l.getLimit(), "route", l.getName());
+			}
+			metrics.family("concurrency_in_flight", "gauge", "Requests running by route of the concurrency limiter.");
+			for (ConcurrencyLimiter l : ConcurrencyLimiters.getLimiters()){
+				metrics.sample("concurrency_in_flight", l.getInFlight(), "route", l.getName());
+			}
+			metrics.family("concurrency_rejected_total", "counter", "Requests rejected by the concurrency limiter by route.");
+			for (ConcurrencyLimiter l : ConcurrencyLimiters.getLimiters()){
+				metrics.sample("concurrency_rejected_total", l.getRejected(), "route", l.getName());
+			}
+		}
+		if (Config.rateLimit){
+			metrics.family("rate_limit_throttled_total", "counter", "Requests rejected by rate limits by route.");
+			for (RateLimiter l : RateLimits.getLimiters()){
+				metrics.sample("rate_limit_throttled_total", l.getThrottled(), "route", l.getName());
+			}
+		}
+	}
 	/**
 	 * Hook into server statistics end-point and append custom data.
 	 * @return string to append to statistics overview
@@ -324,19 +469,19 @@ public class BasicServer extends ByteMindServer{
 	 * End-point to remotely switch certain settings on run-time.
 	 */
 	public String configServer(Request request, Response response){
-		long tic = Timer.tic();
+		long start = System.nanoTime();
 		
-		//authenticate
-		Account account = authenticateAccount(request);
+		//authenticate - changes settings so signed access tokens are not enough
+		Account account = usesSignedAccessToken(request)? null : authenticateAccount(request);
 		if (account == null || !account.authenticate()){
-			Statistics.addInternalApiHit("Endpoint:configServer-noAuth", tic);		//Statistics
+			ENDPOINT_METRIC.record("configServer-noAuth", start);		//Metrics
 			return returnNoAccess(request, response, (account == null)? 2 : account.getErrorCode());
 		
 		}else{
 			//check role
 			if (!account.hasRole(Role.superuser)){
 				Debugger.println("unauthorized access attempt to server config! User: " + account.getUserID(), 3);
-				Statistics.addInternalApiHit("Endpoint:configServer-noRole", tic);		//Statistics
+				ENDPOINT_METRIC.record("configServer-noRole", start);		//Metrics
 				return returnNoAccess(request, response);
 			}
 			
@@ -365,7 +510,7 @@ public class BasicServer extends ByteMindServer{
 					JSON.add(data, es.getKey(), es.getValue());
 				}
 			}
-			Statistics.addInternalApiHit("Endpoint:configServer", tic);		//Statistics
+			ENDPOINT_METRIC.record("configServer", start);		//Metrics
 			return returnResult(request, response, msg.toJSONString(), 200);
 		}
 	}
@@ -389,6 +534,87 @@ public class BasicServer extends ByteMindServer{
 		return null;
 	}
 	
+	/**
+	 * Wrap a route so that it runs in its bulkhead lane (see "Config.bulkheadRoutes"). Requests that find their lane full
+	 * get a fast 503 answer. Routes without lane run directly in the server thread.
+	 * @param route - route to wrap
+	 * @return route running in lane
+	 */
+	public Route bulkhead(Route route){
+		return (request, response) -> {
+			Bulkhead lane = Bulkheads.getLane(request.pathInfo(), request.queryParams("action"));
+			if (lane == null){
+				return route.handle(request, response);
+			}
+			try{
+				return lane.run(() -> route.handle(request, response));
+			}catch (RejectedExecutionException e){
+				return returnServiceUnavailable(request, response, 1);
+			}
+		};
+	}
+	
+	/**
+	 * Wrap a route so that its requests are rate limited by client IP and user ID (see "Config.rateLimits"). The user ID is taken
+	 * from the raw parameters before any credentials are parsed, throttled requests get a 429 answer.
+	 * @param route - route to wrap
+	 * @return rate limited route
+	 */
+	public Route rateLimited(Route route){
+		return (request, response) -> {
+			if (Config.rateLimit){
+				RateLimiter limiter = RateLimits.getLimiter(request.pathInfo(), request.queryParams("action"));
+				if (limiter != null){
+					long waitMs = limiter.tryAcquire("ip:" + getClientIp(request));
+					if (waitMs == 0){
+						String userId = getRawUserId(request);
+						if (userId != null){
+							waitMs = limiter.tryAcquire("user:" + userId);
+						}
+					}
+					if (waitMs > 0){
+						return returnTooManyRequests(request, response, (int) Math.max(1, (waitMs + 999) / 1000));
+					}
+				}
+			}
+			return route.handle(request, response);
+		};
+	}
+	/**
+	 * IP of the client. If "Config.rateLimitTrustProxy" is set the last entry of 'X-Forwarded-For' (added by our own proxy) is used.
+	 */
+	public static String getClientIp(Request request){
+		if (Config.rateLimitTrustProxy){
+			String forwarded = request.headers("X-Forwarded-For");
+			if (forwarded != null && !forwarded.trim().isEmpty()){
+				String[] ips = forwarded.split(",");
+				return ips[ips.length - 1].trim();
+			}
+		}
+		return request.ip();
+	}
+	/**
+	 * User ID as sent by the client (KEY, GUUID or userid parameter) without any validation, or null.
+	 */
+	private static String getRawUserId(Request request){
+		String id = request.queryParams("KEY");
+		if (id != null){
+			int i = id.indexOf(';');
+			id = (i >= 0)? id.substring(0, i) : null;
+		}
+		if (id == null){
+			id = request.queryParams("GUUID");
+		}
+		if (id == null){
+			id = request.queryParams("userid");
+		}
+		if (id == null || id.trim().isEmpty()){
+			return null;
+		}
+		id = id.trim().toLowerCase();
+		return (id.length() > 128)? id.substring(0, 128) : id;
+	}
+	
 	//------- return methods and header manipulation -------
 	
 	/**
@@ -457,6 +683,16 @@ public class BasicServer extends ByteMindServer{
 	public String returnNoAccess(Request request, Response response, int errorCode){
 		if (errorCode == 2){
 			return returnNoAccess(request, response);
+		}else if (errorCode == 8){
+			//blocked after too many failed logins
+			LoginBackoff backoff = LoginBackoff.getInstance();
+			String userId = RequestAuthentication.of(request).getCredentials().getUserName();
+			long waitMs = (backoff != null && userId != null)? backoff.getRemainingMs(IdHandler.clean(userId)) : 0;
+			if (waitMs == 0){
+				//backoff is kept per GUUID, for email or phone logins we don't know the exact time
+				waitMs = Config.loginBackoffBase;
+			}
+			return returnTooManyRequests(request, response, (int) Math.max(1, (waitMs + 999) / 1000));
 		}else{
 			String msg = "{\"result\":\"fail\",\"error\":\"400 or 500 bad request or communication error\",\"code\":\"" + errorCode + "\"}";
 			return returnResult(request, response, msg, 500);
@@ -464,29 +700,50 @@ public class BasicServer extends ByteMindServer{
 	}
 	
 	/**
-	 * Authenticate the user via (presumably) faster token.
+	 * Return 503 'service unavailable' with 'Retry-After' header, e.g. when the server is too busy to handle the request.
+	 * @param retryAfterSeconds - seconds the client should wait before trying again
+	 */
+	public String returnServiceUnavailable(Request request, Response response, int retryAfterSeconds){
+		request.attribute(LIMITER_SHED_ATTR, true);		//load shedding is no sample for the concurrency limiter
+		response.header("Retry-After", String.valueOf(retryAfterSeconds));
+		String msg = "{\"result\":\"fail\",\"error\":\"503 service unavailable, server is busy\"}";
+		return returnResult(request, response, msg, 503);
+	}
+	
+	/**
+	 * Return 429 'too many requests' with 'Retry-After' header, e.g. when the client exceeded a rate limit.
+	 * @param retryAfterSeconds - seconds the client should wait before trying again
+	 */
+	public String returnTooManyRequests(Request request, Response response, int retryAfterSeconds){
+		request.attribute(LIMITER_SHED_ATTR, true);
+		response.header("Retry-After", String.valueOf(retryAfterSeconds));
+		String msg = "{\"result\":\"fail\",\"error\":\"429 too many requests\"}";
+		return returnResult(request, response, msg, 429);
+	}
+	
+	/**
+	 * True if the request authenticates with a {@link SignedAccessToken}. These short-lived bearer tokens are only good for read-only
+	 * requests, actions that create tokens or change the account have to reject them.
+	 * @param request - the request (aka URL-parameters) sent to server.
+	 */
+	protected boolean usesSignedAccessToken(Request request){
+		return SignedAccessToken.isSignedToken(RequestAuthentication.of(request).getCredentials().getPassword());
+	}
+	
+	/**
+	 * Authenticate the user via (presumably) faster token. The token is created once per request (see {@link RequestAuthentication}).
 	 * @param request - the request (aka URL-parameters) sent to server.
 	 */
 	protected AuthenticationToken authenticateToken(Request request){
-		Credentials credentials = new Credentials(request);
-		if (Is.notNullOrEmpty(credentials.idType)){
-			return null;
-		}else{
-			return new AuthenticationToken(credentials.username, credentials.password, 
-						credentials.idType, credentials.client, request);
-		}
+		return RequestAuthentication.of(request).getToken();
 	}
 	/**
 	 * Authenticate the user via (presumably) slower account class, filled with all the default info about the user.
+	 * The account is created and authenticated once per request (see {@link RequestAuthentication}).
 	 * @param request - the request (aka URL-parameters) sent to server.
 	 */
 	protected Account authenticateAccount(Request request){
-		Credentials credentials = new Credentials(request);
-		if (Is.notNullOrEmpty(credentials.idType)){
-			return null;
-		}else{
-			return new Account(credentials.key, credentials.idType, credentials.client);
-		}
+		return RequestAuthentication.of(request).getAccount();
 	}
 	
 	/**
@@ -0,0 +1,123 @@
+package de.bytemind.webservice.server;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A named bulkhead lane, basically a bounded number of server threads that may work on requests of this lane at the same time.
+ * Requests run in the server thread that received them, there is no hand-off to another pool. If the lane is full a request 
+ * waits at most "Config.bulkheadMaxWait" ms (and only if less than 'queueSize' requests are waiting already), then it is
+ * rejected. So a slow lane can only hold 'threads + queueSize' server threads and never uses up the threads of another lane.
+ * 
+ * @author Florian Quirin
+ *
+ */
+public class Bulkhead {
+	
+	private final String name;
+	private final int threads;
+	private final int queueSize;
+	private final Semaphore permits;
+	private final AtomicInteger waiting = new AtomicInteger(0);
+	private final LongAdder accepted = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+	
+	/**
+	 * Create a new lane.
+	 * @param name - name of lane, e.g. "light" or "heavy"
+	 * @param threads - number of server threads working on requests of this lane at the same time
+	 * @param queueSize - max. requests waiting (up to "Config.bulkheadMaxWait" ms) for a free slot
+	 */
+	public Bulkhead(String name, int threads, int queueSize){
+		this.name = name;
+		this.threads = threads;
+		this.queueSize = queueSize;
+		this.permits = new Semaphore(threads);
+	}
+	
+	/**
+	 * Run a job in this lane (in the calling thread) and return the result.
+	 * @param job - job to run
+	 * @return result of job
+	 * @throws RejectedExecutionException if the lane is full
+	 * @throws Exception any exception thrown by the job
+	 */
+	public <T> T run(Callable<T> job) throws Exception{
+		if (!acquire()){
+			rejected.increment();
+			throw new RejectedExecutionException("Bulkhead '" + name + "' is full");
+		}
+		accepted.increment();
+		try{
+			return job.call();
+		}finally{
+			permits.release();
+		}
+	}
+	private boolean acquire() throws InterruptedException{
+		if (permits.tryAcquire()){
+			return true;
+		}
+		if (Config.bulkheadMaxWait <= 0 || queueSize <= 0){
+			return false;
+		}
+		try{
+			if (waiting.incrementAndGet() > queueSize){
+				return false;
+			}
+			return permits.tryAcquire(Config.bulkheadMaxWait, TimeUnit.MILLISECONDS);
+		}finally{
+			waiting.decrementAndGet();
+		}
+	}
+	
+	public String getName(){
+		return name;
+	}
+	/**
+	 * Number of requests waiting for a free slot of this lane.
+	 */
+	public int getQueueDepth(){
+		return Math.max(0, waiting.get());
+	}
+	/**
+	 * Max. number of waiting requests.
+	 */
+	public int getQueueSize(){
+		return queueSize;
+	}
+	/**
+	 * Number of threads currently working on requests.
+	 */
+	public int getActiveThreads(){
+		return threads - permits.availablePermits();
+	}
+	/**
+	 * Max. number of threads.
+	 */
+	public int getMaxThreads(){
+		return threads;
+	}
+	/**
+	 * Total requests accepted by this lane.
+	 */
+	public long getAccepted(){
+		return accepted.sum();
+	}
+	/**
+	 * Total requests rejected because the lane was full.
+	 */
+	public long getRejected(){
+		return rejected.sum();
+	}
+	
+	@Override
+	public String toString(){
+		return name + " - active: " + getActiveThreads() + " of " + threads + ", queued: " + getQueueDepth() + " of " + queueSize
+				+ ", accepted: " + getAccepted() + ", rejected: " + getRejected();
+	}
+}
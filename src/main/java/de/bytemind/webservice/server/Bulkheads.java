@@ -0,0 +1,130 @@
+package de.bytemind.webservice.server;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import de.bytemind.core.tools.Debugger;
+
+/**
+ * Registry of the bulkhead lanes and the mapping of end-points (and their actions) to lanes. Lanes and mapping are defined 
+ * in the server config, e.g.:<br>
+ * bulkhead_lanes=light:16:200,heavy:4:40<br>
+ * bulkhead_routes=/ping=light,/authentication=light,/authentication:validate=heavy,...<br>
+ * Routes without lane run directly in the server thread.
+ * 
+ * @author Florian Quirin
+ *
+ */
+public class Bulkheads {
+	
+	private static Map<String, Bulkhead> lanes = new LinkedHashMap<>();
+	private static Map<String, RouteLanes> routes = new HashMap<>();
+	
+	/**
+	 * Lanes of one route, the default lane and the lanes for specific actions.
+	 */
+	private static class RouteLanes {
+		Bulkhead defaultLane;
+		Map<String, Bulkhead> actionLanes = new HashMap<>();
+	}
+	
+	/**
+	 * Create the lanes and route mapping from "Config.bulkheadLanes" and "Config.bulkheadRoutes".
+	 * Throws RuntimeException on invalid settings.
+	 */
+	public static void setup(){
+		Map<String, Bulkhead> newLanes = new LinkedHashMap<>();
+		Map<String, RouteLanes> newRoutes = new HashMap<>();
+		//lanes - name:threads:queue
+		for (String laneDef : Config.bulkheadLanes.split(",")){
+			laneDef = laneDef.trim();
+			if (laneDef.isEmpty()){
+				continue;
+			}
+			String[] parts = laneDef.split(":");
+			try{
+				newLanes.put(parts[0].trim(), new Bulkhead(parts[0].trim(), Integer.parseInt(parts[1].trim()), Integer.parseInt(parts[2].trim())));
+			}catch (Exception e){
+				throw new RuntimeException("Invalid bulkhead lane: '" + laneDef + "'! Expected format: name:threads:queue", e);
+			}
+		}
+		//routes - path[:action]=lane
+		for (String routeDef : Config.bulkheadRoutes.split(",")){
+			routeDef = routeDef.trim();
+			if (routeDef.isEmpty()){
+				continue;
+			}
+			String[] parts = routeDef.split("=");
+			Bulkhead lane = (parts.length == 2)? newLanes.get(parts[1].trim()) : null;
+			if (lane == null){
+				throw new RuntimeException("Invalid bulkhead route: '" + routeDef + "'! Expected format: path[:action]=lane with existing lane.");
+			}
+			String[] pathAndAction = parts[0].trim().split(":", 2);
+			RouteLanes rl = newRoutes.get(pathAndAction[0]);
+			if (rl == null){
+				rl = new RouteLanes();
+				newRoutes.put(pathAndAction[0], rl);
+			}
+			if (pathAndAction.length == 2){
+				rl.actionLanes.put(pathAndAction[1], lane);
+			}else{
+				rl.defaultLane = lane;
+			}
+		}
+		//replace old - requests still running in old lanes finish in their server threads
+		lanes = newLanes;
+		routes = newRoutes;
+		if (!lanes.isEmpty()){
+			Debugger.println("Bulkheads: " + lanes.keySet() + " for routes " + routes.keySet(), 3);
+		}
+	}
+	
+	/**
+	 * Get the lane of a request.
+	 * @param path - path of the end-point, e.g. "/authentication"
+	 * @param action - value of the "action" parameter or null
+	 * @return lane or null if the request should run directly in the server thread
+	 */
+	public static Bulkhead getLane(String path, String action){
+		RouteLanes rl = routes.get(path);
+		if (rl == null){
+			return null;
+		}
+		if (action != null){
+			Bulkhead lane = rl.actionLanes.get(action.trim());
+			if (lane != null){
+				return lane;
+			}
+		}
+		return rl.defaultLane;
+	}
+	
+	/**
+	 * Get a lane by name or null.
+	 */
+	public static Bulkhead getLaneByName(String name){
+		return lanes.get(name);
+	}
+	/**
+	 * All lanes.
+	 */
+	public static Collection<Bulkhead> getLanes(){
+		return lanes.values();
+	}
+	
+	/**
+	 * Current state of all lanes as string for the statistics end-point.
+	 */
+	public static String getStatsAsString(){
+		if (lanes.isEmpty()){
+			return "";
+		}
+		StringBuilder sb = new StringBuilder("Bulkheads:\n");
+		for (Bulkhead b : lanes.values()){
+			sb.append("- ").append(b.toString()).append("\n");
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,140 @@
+package de.bytemind.webservice.server;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Adaptive limit for the number of requests running at the same time (AIMD). Every request that finishes faster than the latency
+ * target (and without error) while the limiter is at least half used raises the limit by about 1 per limit requests, slow or failed
+ * requests cut it by 10% (at most once per latency target so one slow batch does not collapse it). Requests above the limit are
+ * rejected right away instead of piling up in the server queue.
+ *
+ * @author Florian Quirin
+ *
+ */
+public class ConcurrencyLimiter {
+
+	private static final double BACKOFF = 0.9d;
+
+	private final String name;
+	private final int minLimit;
+	private final int maxLimit;
+	private final long targetNanos;
+
+	private final AtomicInteger inFlight = new AtomicInteger(0);
+	private final AtomicLong limitBits;							//double as long bits
+	private final AtomicLong lastDecrease;
+
+	private final LongAdder accepted = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+	private final LongAdder decreased = new LongAdder();
+
+	/**
+	 * Create limiter.
+	 * @param name - name for statistics, e.g. "/authentication:validate"
+	 * @param initialLimit - start limit
+	 * @param minLimit - limit never drops below this
+	 * @param maxLimit - limit never grows above this
+	 * @param targetLatencyMs - requests slower than this count as overload
+	 */
+	public ConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit, long targetLatencyMs){
+		this.name = name;
+		this.minLimit = Math.max(1, minLimit);
+		this.maxLimit = Math.max(this.minLimit, maxLimit);
+		this.targetNanos = Math.max(1, targetLatencyMs) * 1000000l;
+		this.lastDecrease = new AtomicLong(System.nanoTime() - this.targetNanos - 1);
+		this.limitBits = new AtomicLong(Double.doubleToLongBits(Math.max(this.minLimit, Math.min(this.maxLimit, initialLimit))));
+	}
+
+	/**
+	 * Try to get a slot. Every successful call has to be followed by one {@link #release(long, boolean)}.
+	 * @return System.nanoTime() of the start or -1 if the limit is reached
+	 */
+	public long tryAcquire(){
+		int limit = getLimit();
+		while (true){
+			int current = inFlight.get();
+			if (current >= limit){
+				rejected.increment();
+				return -1;
+			}
+			if (inFlight.compareAndSet(current, current + 1)){
+				accepted.increment();
+				return System.nanoTime();
+			}
+		}
+	}
+
+	/**
+	 * Free the slot and adapt the limit.
+	 * @param startNanos - result of {@link #tryAcquire()}
+	 * @param failed - request failed with a server error (counts like a slow request)
+	 */
+	public void release(long startNanos, boolean failed){
+		int current = inFlight.getAndDecrement();
+		long now = System.nanoTime();
+		if (failed || (now - startNanos) > targetNanos){
+			long last = lastDecrease.get();
+			if ((now - last) > targetNanos && lastDecrease.compareAndSet(last, now)){
+				updateLimit(l -> Math.max(minLimit, l * BACKOFF));
+				decreased.increment();
+			}
+		}else{
+			double limit = getLimitExact();
+			if (current * 2 >= limit && limit < maxLimit){
+				updateLimit(l -> Math.min(maxLimit, l + 1.0d / l));
+			}
+		}
+	}
+
+	/**
+	 * Free the slot without adapting the limit, e.g. when the request was shed by a bulkhead or rate limit and says nothing about the backend.
+	 */
+	public void cancel(){
+		inFlight.decrementAndGet();
+	}
+
+	private void updateLimit(DoubleUnaryOperator update){
+		while (true){
+			long bits = limitBits.get();
+			long newBits = Double.doubleToLongBits(update.applyAsDouble(Double.longBitsToDouble(bits)));
+			if (bits == newBits || limitBits.compareAndSet(bits, newBits)){
+				return;
+			}
+		}
+	}
+
+	//--------- reading ---------
+
+	public String getName(){
+		return name;
+	}
+	/**
+	 * Current limit.
+	 */
+	public int getLimit(){
+		return (int) getLimitExact();
+	}
+	private double getLimitExact(){
+		return Double.longBitsToDouble(limitBits.get());
+	}
+	public int getInFlight(){
+		return inFlight.get();
+	}
+	public long getAccepted(){
+		return accepted.sum();
+	}
+	public long getRejected(){
+		return rejected.sum();
+	}
+
+	@Override
+	public String toString(){
+		return name + " - limit: " + String.format(Locale.ROOT, "%.1f", getLimitExact()) + " (" + minLimit + "-" + maxLimit + ")"
+				+ ", in-flight: " + getInFlight() + ", accepted: " + getAccepted() + ", rejected: " + getRejected() + ", decreased: " + decreased.sum();
+	}
+
+}
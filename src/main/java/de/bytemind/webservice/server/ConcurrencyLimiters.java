@@ -0,0 +1,100 @@
+package de.bytemind.webservice.server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.bytemind.core.tools.Debugger;
+
+/**
+ * Registry of the adaptive concurrency limiters (see {@link ConcurrencyLimiter}). Routes listed in the server config get their own
+ * limiter with their own max. limit, all other requests share the default limiter, e.g.:<br>
+ * concurrency_limiter=true<br>
+ * concurrency_routes=/authentication=100,/authentication:validate=20,...<br>
+ * Limiters are used by the before/after filters of {@link BasicServer}, "/ping" and "/metrics" are never limited.
+ *
+ * @author Florian Quirin
+ *
+ */
+public class ConcurrencyLimiters {
+
+	public static final String DEFAULT = "default";
+
+	private static ConcurrencyLimiter defaultLimiter;
+	private static Map<String, ConcurrencyLimiter> routes = new HashMap<>();		//"path" or "path:action"
+	private static List<ConcurrencyLimiter> all = new ArrayList<>();
+
+	/**
+	 * Create the limiters from "Config.concurrencyRoutes" and the limits in Config. Throws RuntimeException on invalid settings.
+	 */
+	public static void setup(){
+		List<ConcurrencyLimiter> newAll = new ArrayList<>();
+		Map<String, ConcurrencyLimiter> newRoutes = new HashMap<>();
+		ConcurrencyLimiter newDefault = create(DEFAULT, Config.concurrencyLimitMax);
+		newAll.add(newDefault);
+		//routes - path[:action]=max
+		for (String routeDef : Config.concurrencyRoutes.split(",")){
+			routeDef = routeDef.trim();
+			if (routeDef.isEmpty()){
+				continue;
+			}
+			String[] parts = routeDef.split("=");
+			try{
+				String route = parts[0].trim();
+				ConcurrencyLimiter limiter = create(route, Integer.parseInt(parts[1].trim()));
+				newRoutes.put(route, limiter);
+				newAll.add(limiter);
+			}catch (Exception e){
+				throw new RuntimeException("Invalid concurrency route: '" + routeDef + "'! Expected format: path[:action]=maxLimit", e);
+			}
+		}
+		defaultLimiter = newDefault;
+		routes = newRoutes;
+		all = newAll;
+		Debugger.println("Concurrency limiter: latency target " + Config.concurrencyLatencyTarget + "ms, routes " + routes.keySet(), 3);
+	}
+	private static ConcurrencyLimiter create(String name, int maxLimit){
+		return new ConcurrencyLimiter(name, Math.min(Config.concurrencyLimitInitial, maxLimit), Config.concurrencyLimitMin, maxLimit,
+				Config.concurrencyLatencyTarget);
+	}
+
+	/**
+	 * Get the limiter of a request.
+	 * @param path - path of the end-point, e.g. "/authentication"
+	 * @param action - value of the "action" parameter or null
+	 * @return limiter (default limiter if the route has none)
+	 */
+	public static ConcurrencyLimiter getLimiter(String path, String action){
+		if (action != null){
+			ConcurrencyLimiter limiter = routes.get(path + ":" + action.trim());
+			if (limiter != null){
+				return limiter;
+			}
+		}
+		ConcurrencyLimiter limiter = routes.get(path);
+		return (limiter != null)? limiter : defaultLimiter;
+	}
+
+	/**
+	 * All limiters (default first).
+	 */
+	public static Collection<ConcurrencyLimiter> getLimiters(){
+		return all;
+	}
+
+	/**
+	 * Current state of all limiters as string for the statistics end-point.
+	 */
+	public static String getStatsAsString(){
+		if (all.isEmpty()){
+			return "";
+		}
+		StringBuilder sb = new StringBuilder("Concurrency limits:\n");
+		for (ConcurrencyLimiter l : all){
+			sb.append("- ").append(l.toString()).append("\n");
+		}
+		return sb.toString();
+	}
+}
@@ -16,6 +16,7 @@ import de.bytemind.webservice.database.GlobalIdGeneratorElasticsearch;
 import de.bytemind.webservice.email.SendEmailBasicSmtp;
 import de.bytemind.webservice.users.AccountDataDynamoDB;
 import de.bytemind.webservice.users.AccountManagerDynamoDB;
+import de.bytemind.webservice.users.InvalidationBusLocal;
 
 /**
  * Server configuration class.
@@ -45,6 +46,37 @@ public class Config {
 	public static boolean serveStaticFiles = false;				//enable static file serving
 	public static boolean useSSL = false;						//enable SSL support - not needed if working behind a reverse proxy anyways
 	public static boolean restrictRegistration = true; 		//check new registrations against white-list?
+	public static String whitelistCache = "set";				//in-memory white-list: "set" (all entries), "bloom" (Bloom filter + database) or "off"
+	public static long whitelistRefreshInterval = 60000;		//reload in-memory white-list every N ms
+	public static double whitelistBloomFpp = 0.01d;			//false positive probability of Bloom filter
+	
+	//Server threads
+	public static String serverExecutionMode = "pool";		//"pool" (bounded pool of platform threads) or "virtual" (virtual thread per request, requires Java 21)
+	public static int serverThreadsMax = 200;					//max. threads of pool
+	public static int serverThreadsMin = 8;						//min. threads of pool
+	public static int serverThreadsIdleTimeout = 60000;			//idle time in ms before a thread of the pool is stopped
+	public static int serverThreadsQueueSize = 2000;			//max. jobs waiting for a free thread of the pool
+	public static String bulkheadLanes = "";					//bulkhead lanes as "name:threads:queue" separated by ",", e.g. "light:16:200,heavy:4:40"
+	public static String bulkheadRoutes = "";					//end-points mapped to lanes as "path[:action]=lane" separated by ",", e.g. "/ping=light,/authentication:validate=heavy"
+	public static long bulkheadMaxWait = 10;					//max. time in ms a request waits for a full lane before it is rejected (0: reject right away)
+	
+	//Concurrency limiter
+	public static boolean concurrencyLimiter = false;			//adaptive limit of concurrent requests per route, rejects requests over the limit with 503
+	public static int concurrencyLimitInitial = 50;				//start limit
+	public static int concurrencyLimitMin = 4;					//lowest limit
+	public static int concurrencyLimitMax = 200;				//highest limit of routes without own limit
+	public static long concurrencyLatencyTarget = 500;			//requests slower than this (ms) lower the limit
+	public static String concurrencyRoutes = "";				//routes with own limiter as "path[:action]=maxLimit" separated by ",", e.g. "/authentication:validate=20"
+	
+	//Rate limits
+	public static boolean rateLimit = false;					//limit requests per client IP and user ID, see "rateLimits"
+	public static String rateLimits = "";						//limits as "path[:action]=requests/seconds" separated by ",", e.g. "/authentication:validate=10/60"
+	public static int rateLimitMaxKeys = 100000;				//max. clients (IPs and user IDs) kept in memory per limit
+	public static boolean rateLimitTrustProxy = false;			//take client IP from 'X-Forwarded-For' (only if the server is behind a proxy that sets it)
+	
+	//Metrics
+	public static String metricsSecret = "";					//secret for /metrics (header "Authorization: Bearer [secret]"), empty: no /metrics on server port
+	public static int metricsPort = 0;							//separate port for /metrics (0: use server port)
 	
 	//Api info and default URLs
 	public static String api_version = "v0.8.0";				//API version
@@ -64,6 +96,56 @@ public class Config {
 	public static String knowledgeDB_module = Elasticsearch.class.getCanonicalName();
 	public static String uidGenerator_module = GlobalIdGeneratorElasticsearch.class.getCanonicalName();
 	public static String email_module = SendEmailBasicSmtp.class.getCanonicalName();
+	public static String invalidationBus_module = InvalidationBusLocal.class.getCanonicalName();
+	public static int guidBlockSize = 100;						//IDs reserved per database request by GlobalIdGeneratorElasticsearchRange
+	public static int guidNodeId = 0;							//unique ID of this server (0-1023) for GlobalIdGeneratorSnowflake
+	
+	//Bulk writes of knowledge database
+	public static int bulkQueueSize = 10000;					//max. documents waiting to be written
+	public static int bulkWorkers = 2;							//threads writing batches
+	public static int bulkMaxActions = 500;						//max. documents per batch
+	public static long bulkFlushInterval = 1000;				//max. time in ms a batch is collected
+	public static int bulkRetries = 3;							//retries of failed documents
+	public static String bulkBackpressure = "block";			//when queue is full: "block", "drop" or "caller-runs"
+	
+	//Authentication caches
+	public static int authCacheSize = 10000;					//max. users in key token cache (0 to disable)
+	public static long authCacheTtl = 60000;					//max. time in ms a key token validation is cached (roles changes take effect after this)
+	public static boolean authCoalescing = true;				//concurrent authentications with the same credentials share one database read
+	public static boolean authInProcess = true;					//authenticate accounts in-process if "authenticationEndpoint_url" points to this server
+	
+	//Signed access tokens (require a "serverSecret" of 16+ characters)
+	public static long accessTokenTtl = 600000;					//life-time in ms of signed access tokens issued by "validate" (0 to disable)
+	public static long accessTokenKeyRotation = 86400000;		//signing keys derived from the server secret rotate every N ms
+	
+	//Invalidation bus (e.g. InvalidationBusUdp)
+	public static int invalidationBusPort = 21311;				//UDP port to receive invalidations of other nodes
+	public static String invalidationBusPeers = "";				//other nodes as "host:port" separated by ","
+	public static long invalidationBusBatch = 50;				//invalidations are collected N ms before they are sent
+	
+	//User storage layout
+	public static String userStorageLayout = "single";			//"single": one item per user, "split": auth item + client token items + profile item (see UserStorageSplit)
+	
+	//User statistics write-behind
+	public static boolean statisticsWriteBehind = false;		//collect user statistics in memory and write merged updates (false: one write per call), a crash loses up to one flush interval
+	public static long statisticsFlushInterval = 60000;			//max. time in ms statistics are collected
+	public static int statisticsFlushThreshold = 5000;			//users waiting that trigger an early flush
+	public static int statisticsWriteConcurrency = 4;			//max. parallel statistics writes
+	
+	//Account write coalescing
+	public static long accountWriteWindow = 0;					//updates of a user within N ms are merged into one write (0 to disable) - DB.setAccountInfos blocks for up to N ms
+	public static int accountWriteConcurrency = 4;				//max. parallel merged writes
+	
+	//Multi-user account lookup
+	public static int accountBatchMaxUsers = 1000;				//max. users per request of the "/accountInfos" end-point
+	public static int accountBatchConcurrency = 4;				//parallel BatchGetItem requests (100 items each)
+	
+	//Failed login backoff
+	public static int loginBackoffThreshold = 5;				//failed password logins of an account before it is blocked (0 to disable)
+	public static long loginBackoffBase = 1000;					//first block time in ms, doubles with every further failure
+	public static long loginBackoffMax = 900000;				//max. block time in ms
+	public static long loginBackoffDecay = 600000;				//one failure is forgotten every N ms
+	public static int loginBackoffMaxKeys = 100000;				//max. accounts with failures kept in memory
 	
 	//Default managers //TODO: security?
 	public static final String sharedKey = "KantbyW3YLh8jTQPs5uzt2SzbmXZyphW"; 		//First step of inter-API communication security
@@ -85,6 +167,15 @@ public class Config {
 	public static String emailAccount = "account@...com";
 	public static String emailAccountKey = "";
 	public static String emailDebugBCC = "";
+	public static int emailPoolSize = 4;						//max. number of open SMTP connections
+	public static long emailPoolMaxIdle = 60000;				//SMTP connections idle for longer than this (ms) are closed before use
+	public static long emailPoolMaxWait = 20000;				//max. time (ms) to wait for a free SMTP connection
+	public static boolean emailOutbox = true;					//send registration and password reset emails asynchronously via outbox?
+	public static String emailOutboxFile = "Spool/email-outbox.spool";	//spool file of the email outbox
+	public static int emailOutboxWorkers = 2;					//threads sending emails of the outbox
+	public static int emailOutboxRetries = 8;					//retries of failed emails (with exponential back-off)
+	public static String emailTemplatesFolder = webContentFolder + "files/email-templates/";	//email templates loaded by EmailTemplateEngine
+	public static long emailTemplatesCheckInterval = 5000;		//check email template files for changes every N ms
 
 	
 	//----------helpers----------
@@ -108,6 +199,30 @@ public class Config {
 			serverName = settings.getProperty("server_name");
 			serverSecret = settings.getProperty("server_secret");
 			serverPort = Integer.valueOf(settings.getProperty("server_port"));
+			//server threads
+			serverExecutionMode = settings.getProperty("server_execution_mode", serverExecutionMode);
+			serverThreadsMax = Integer.valueOf(settings.getProperty("server_threads_max", String.valueOf(serverThreadsMax)));
+			serverThreadsMin = Integer.valueOf(settings.getProperty("server_threads_min", String.valueOf(serverThreadsMin)));
+			serverThreadsIdleTimeout = Integer.valueOf(settings.getProperty("server_threads_idle_timeout", String.valueOf(serverThreadsIdleTimeout)));
+			serverThreadsQueueSize = Integer.valueOf(settings.getProperty("server_threads_queue", String.valueOf(serverThreadsQueueSize)));
+			bulkheadLanes = settings.getProperty("bulkhead_lanes", bulkheadLanes);
+			bulkheadRoutes = settings.getProperty("bulkhead_routes", bulkheadRoutes);
+			bulkheadMaxWait = Long.valueOf(settings.getProperty("bulkhead_max_wait", String.valueOf(bulkheadMaxWait)));
+			//concurrency limiter
+			concurrencyLimiter = Boolean.valueOf(settings.getProperty("concurrency_limiter", String.valueOf(concurrencyLimiter)));
+			concurrencyLimitInitial = Integer.valueOf(settings.getProperty("concurrency_limit_initial", String.valueOf(concurrencyLimitInitial)));
+			concurrencyLimitMin = Integer.valueOf(settings.getProperty("concurrency_limit_min", String.valueOf(concurrencyLimitMin)));
+			concurrencyLimitMax = Integer.valueOf(settings.getProperty("concurrency_limit_max", String.valueOf(concurrencyLimitMax)));
+			concurrencyLatencyTarget = Long.valueOf(settings.getProperty("concurrency_latency_target", String.valueOf(concurrencyLatencyTarget)));
+			concurrencyRoutes = settings.getProperty("concurrency_routes", concurrencyRoutes);
+			//rate limits
+			rateLimit = Boolean.valueOf(settings.getProperty("rate_limit", String.valueOf(rateLimit)));
+			rateLimits = settings.getProperty("rate_limits", rateLimits);
+			rateLimitMaxKeys = Integer.valueOf(settings.getProperty("rate_limit_max_keys", String.valueOf(rateLimitMaxKeys)));
+			rateLimitTrustProxy = Boolean.valueOf(settings.getProperty("rate_limit_trust_proxy", String.valueOf(rateLimitTrustProxy)));
+			//metrics
+			metricsSecret = settings.getProperty("metrics_secret", metricsSecret);
+			metricsPort = Integer.valueOf(settings.getProperty("metrics_port", String.valueOf(metricsPort)));
 			//databases
 			DynamoDbConfig.setRegion(settings.getProperty("db_dynamo_region", ""));
 			DynamoDbConfig.setAccess(settings.getProperty("amazon_dynamoDB_access"));
@@ -124,6 +239,15 @@ public class Config {
 			emailAccount = settings.getProperty("email_account");
 			emailAccountKey = settings.getProperty("email_account_key");
 			emailDebugBCC = settings.getProperty("email_bcc", "");
+			emailPoolSize = Integer.valueOf(settings.getProperty("email_pool_size", String.valueOf(emailPoolSize)));
+			emailPoolMaxIdle = Long.valueOf(settings.getProperty("email_pool_idle", String.valueOf(emailPoolMaxIdle)));
+			emailPoolMaxWait = Long.valueOf(settings.getProperty("email_pool_wait", String.valueOf(emailPoolMaxWait)));
+			emailOutbox = Boolean.valueOf(settings.getProperty("email_outbox", String.valueOf(emailOutbox)));
+			emailOutboxFile = settings.getProperty("email_outbox_file", emailOutboxFile);
+			emailOutboxWorkers = Integer.valueOf(settings.getProperty("email_outbox_workers", String.valueOf(emailOutboxWorkers)));
+			emailOutboxRetries = Integer.valueOf(settings.getProperty("email_outbox_retries", String.valueOf(emailOutboxRetries)));
+			emailTemplatesFolder = settings.getProperty("email_templates_folder", emailTemplatesFolder);
+			emailTemplatesCheckInterval = Long.valueOf(settings.getProperty("email_templates_check", String.valueOf(emailTemplatesCheckInterval)));
 			//credentials
 			IdHandler.user_id_prefix = settings.getProperty("user_id_prefix");
 			superuserId = settings.getProperty("superuser_id");
@@ -132,12 +256,49 @@ public class Config {
 			//modules
 			authenticateFast_module = settings.getProperty("authenticateFast_module");
 			ClientDefaults.authentication_module = settings.getProperty("authenticateFull_module");
-			ClientDefaults.auth_endpoint_url = settings.getProperty("authentication_url");
+			ClientDefaults.auth_endpoint_url = settings.getProperty("authenticationEndpoint_url", settings.getProperty("authentication_url"));
 			accountData_module = settings.getProperty("accountData_module");
 			accountManager_module = settings.getProperty("accountManager_module");
 			knowledgeDB_module = settings.getProperty("knowledgeDB_module");
 			uidGenerator_module = settings.getProperty("uidGenerator_module");
 			email_module = settings.getProperty("email_module");
+			invalidationBus_module = settings.getProperty("invalidationBus_module", invalidationBus_module);
+			guidBlockSize = Integer.valueOf(settings.getProperty("guid_block_size", String.valueOf(guidBlockSize)));
+			guidNodeId = Integer.valueOf(settings.getProperty("guid_node_id", String.valueOf(guidNodeId)));
+			//bulk writes of knowledge database
+			bulkQueueSize = Integer.valueOf(settings.getProperty("bulk_queue_size", String.valueOf(bulkQueueSize)));
+			bulkWorkers = Integer.valueOf(settings.getProperty("bulk_workers", String.valueOf(bulkWorkers)));
+			bulkMaxActions = Integer.valueOf(settings.getProperty("bulk_max_actions", String.valueOf(bulkMaxActions)));
+			bulkFlushInterval = Long.valueOf(settings.getProperty("bulk_flush_interval", String.valueOf(bulkFlushInterval)));
+			bulkRetries = Integer.valueOf(settings.getProperty("bulk_retries", String.valueOf(bulkRetries)));
+			bulkBackpressure = settings.getProperty("bulk_backpressure", bulkBackpressure);
+			//authentication caches
+			authCacheSize = Integer.valueOf(settings.getProperty("auth_cache_size", String.valueOf(authCacheSize)));
+			authCacheTtl = Long.valueOf(settings.getProperty("auth_cache_ttl", String.valueOf(authCacheTtl)));
+			authCoalescing = Boolean.valueOf(settings.getProperty("auth_coalescing", String.valueOf(authCoalescing)));
+			authInProcess = Boolean.valueOf(settings.getProperty("auth_in_process", String.valueOf(authInProcess)));
+			accessTokenTtl = Long.valueOf(settings.getProperty("access_token_ttl", String.valueOf(accessTokenTtl)));
+			accessTokenKeyRotation = Long.valueOf(settings.getProperty("access_token_key_rotation", String.valueOf(accessTokenKeyRotation)));
+			invalidationBusPort = Integer.valueOf(settings.getProperty("invalidation_bus_port", String.valueOf(invalidationBusPort)));
+			invalidationBusPeers = settings.getProperty("invalidation_bus_peers", invalidationBusPeers);
+			invalidationBusBatch = Long.valueOf(settings.getProperty("invalidation_bus_batch", String.valueOf(invalidationBusBatch)));
+			userStorageLayout = settings.getProperty("user_storage_layout", userStorageLayout);
+			statisticsWriteBehind = Boolean.valueOf(settings.getProperty("statistics_write_behind", String.valueOf(statisticsWriteBehind)));
+			statisticsFlushInterval = Long.valueOf(settings.getProperty("statistics_flush_interval", String.valueOf(statisticsFlushInterval)));
+			statisticsFlushThreshold = Integer.valueOf(settings.getProperty("statistics_flush_threshold", String.valueOf(statisticsFlushThreshold)));
+			statisticsWriteConcurrency = Integer.valueOf(settings.getProperty("statistics_write_concurrency", String.valueOf(statisticsWriteConcurrency)));
+			accountWriteWindow = Long.valueOf(settings.getProperty("account_write_window", String.valueOf(accountWriteWindow)));
+			accountWriteConcurrency = Integer.valueOf(settings.getProperty("account_write_concurrency", String.valueOf(accountWriteConcurrency)));
+			accountBatchMaxUsers = Integer.valueOf(settings.getProperty("account_batch_max_users", String.valueOf(accountBatchMaxUsers)));
+			accountBatchConcurrency = Integer.valueOf(settings.getProperty("account_batch_concurrency", String.valueOf(accountBatchConcurrency)));
+			loginBackoffThreshold = Integer.valueOf(settings.getProperty("login_backoff_threshold", String.valueOf(loginBackoffThreshold)));
+			loginBackoffBase = Long.valueOf(settings.getProperty("login_backoff_base", String.valueOf(loginBackoffBase)));
+			loginBackoffMax = Long.valueOf(settings.getProperty("login_backoff_max", String.valueOf(loginBackoffMax)));
+			loginBackoffDecay = Long.valueOf(settings.getProperty("login_backoff_decay", String.valueOf(loginBackoffDecay)));
+			loginBackoffMaxKeys = Integer.valueOf(settings.getProperty("login_backoff_max_keys", String.valueOf(loginBackoffMaxKeys)));
+			whitelistCache = settings.getProperty("whitelist_cache", whitelistCache);
+			whitelistRefreshInterval = Long.valueOf(settings.getProperty("whitelist_refresh", String.valueOf(whitelistRefreshInterval)));
+			whitelistBloomFpp = Double.valueOf(settings.getProperty("whitelist_bloom_fpp", String.valueOf(whitelistBloomFpp)));
 			
 			Debugger.println("loading settings from " + configFile + "... done." , 3);
 			return settings;
@@ -160,6 +321,30 @@ public class Config {
 		config.setProperty("server_name", serverName);
 		config.setProperty("server_secret", serverSecret);
 		config.setProperty("server_port", String.valueOf(serverPort));
+		//server threads
+		config.setProperty("server_execution_mode", serverExecutionMode);
+		config.setProperty("server_threads_max", String.valueOf(serverThreadsMax));
+		config.setProperty("server_threads_min", String.valueOf(serverThreadsMin));
+		config.setProperty("server_threads_idle_timeout", String.valueOf(serverThreadsIdleTimeout));
+		config.setProperty("server_threads_queue", String.valueOf(serverThreadsQueueSize));
+		config.setProperty("bulkhead_lanes", bulkheadLanes);
+		config.setProperty("bulkhead_routes", bulkheadRoutes);
+		config.setProperty("bulkhead_max_wait", String.valueOf(bulkheadMaxWait));
+		//concurrency limiter
+		config.setProperty("concurrency_limiter", String.valueOf(concurrencyLimiter));
+		config.setProperty("concurrency_limit_initial", String.valueOf(concurrencyLimitInitial));
+		config.setProperty("concurrency_limit_min", String.valueOf(concurrencyLimitMin));
+		config.setProperty("concurrency_limit_max", String.valueOf(concurrencyLimitMax));
+		config.setProperty("concurrency_latency_target", String.valueOf(concurrencyLatencyTarget));
+		config.setProperty("concurrency_routes", concurrencyRoutes);
+		//rate limits
+		config.setProperty("rate_limit", String.valueOf(rateLimit));
+		config.setProperty("rate_limits", rateLimits);
+		config.setProperty("rate_limit_max_keys", String.valueOf(rateLimitMaxKeys));
+		config.setProperty("rate_limit_trust_proxy", String.valueOf(rateLimitTrustProxy));
+		//metrics
+		config.setProperty("metrics_secret", "");
+		config.setProperty("metrics_port", String.valueOf(metricsPort));
 		//databases
 		config.setProperty("db_dynamo_region", DynamoDbConfig.getRegion());
 		config.setProperty("amazon_dynamoDB_access", "");
@@ -176,6 +361,15 @@ public class Config {
 		config.setProperty("email_account", emailAccount);
 		config.setProperty("email_account_key", "");
 		config.setProperty("email_bcc", emailDebugBCC);
+		config.setProperty("email_pool_size", String.valueOf(emailPoolSize));
+		config.setProperty("email_pool_idle", String.valueOf(emailPoolMaxIdle));
+		config.setProperty("email_pool_wait", String.valueOf(emailPoolMaxWait));
+		config.setProperty("email_outbox", String.valueOf(emailOutbox));
+		config.setProperty("email_outbox_file", emailOutboxFile);
+		config.setProperty("email_outbox_workers", String.valueOf(emailOutboxWorkers));
+		config.setProperty("email_outbox_retries", String.valueOf(emailOutboxRetries));
+		config.setProperty("email_templates_folder", emailTemplatesFolder);
+		config.setProperty("email_templates_check", String.valueOf(emailTemplatesCheckInterval));
 		//credentials
 		config.setProperty("user_id_prefix", IdHandler.user_id_prefix);
 		config.setProperty("superuser_id", superuserId);
@@ -190,6 +384,43 @@ public class Config {
 		config.setProperty("knowledgeDB_module", knowledgeDB_module);
 		config.setProperty("uidGenerator_module", uidGenerator_module);
 		config.setProperty("email_module", email_module);
+		config.setProperty("invalidationBus_module", invalidationBus_module);
+		config.setProperty("guid_block_size", String.valueOf(guidBlockSize));
+		config.setProperty("guid_node_id", String.valueOf(guidNodeId));
+		//bulk writes of knowledge database
+		config.setProperty("bulk_queue_size", String.valueOf(bulkQueueSize));
+		config.setProperty("bulk_workers", String.valueOf(bulkWorkers));
+		config.setProperty("bulk_max_actions", String.valueOf(bulkMaxActions));
+		config.setProperty("bulk_flush_interval", String.valueOf(bulkFlushInterval));
+		config.setProperty("bulk_retries", String.valueOf(bulkRetries));
+		config.setProperty("bulk_backpressure", bulkBackpressure);
+		//authentication caches
+		config.setProperty("auth_cache_size", String.valueOf(authCacheSize));
+		config.setProperty("auth_cache_ttl", String.valueOf(authCacheTtl));
+		config.setProperty("auth_coalescing", String.valueOf(authCoalescing));
+		config.setProperty("auth_in_process", String.valueOf(authInProcess));
+		config.setProperty("access_token_ttl", String.valueOf(accessTokenTtl));
+		config.setProperty("access_token_key_rotation", String.valueOf(accessTokenKeyRotation));
+		config.setProperty("invalidation_bus_port", String.valueOf(invalidationBusPort));
+		config.setProperty("invalidation_bus_peers", invalidationBusPeers);
+		config.setProperty("invalidation_bus_batch", String.valueOf(invalidationBusBatch));
+		config.setProperty("user_storage_layout", userStorageLayout);
+		config.setProperty("statistics_write_behind", String.valueOf(statisticsWriteBehind));
+		config.setProperty("statistics_flush_interval", String.valueOf(statisticsFlushInterval));
+		config.setProperty("statistics_flush_threshold", String.valueOf(statisticsFlushThreshold));
+		config.setProperty("statistics_write_concurrency", String.valueOf(statisticsWriteConcurrency));
+		config.setProperty("account_write_window", String.valueOf(accountWriteWindow));
+		config.setProperty("account_write_concurrency", String.valueOf(accountWriteConcurrency));
+		config.setProperty("account_batch_max_users", String.valueOf(accountBatchMaxUsers));
+		config.setProperty("account_batch_concurrency", String.valueOf(accountBatchConcurrency));
+		config.setProperty("login_backoff_threshold", String.valueOf(loginBackoffThreshold));
+		config.setProperty("login_backoff_base", String.valueOf(loginBackoffBase));
+		config.setProperty("login_backoff_max", String.valueOf(loginBackoffMax));
+		config.setProperty("login_backoff_decay", String.valueOf(loginBackoffDecay));
+		config.setProperty("login_backoff_max_keys", String.valueOf(loginBackoffMaxKeys));
+		config.setProperty("whitelist_cache", whitelistCache);
+		config.setProperty("whitelist_refresh", String.valueOf(whitelistRefreshInterval));
+		config.setProperty("whitelist_bloom_fpp", String.valueOf(whitelistBloomFpp));
 		
 		try{
 			FilesAndStreams.saveSettings(configFile, config);
@@ -7,6 +7,7 @@ import de.bytemind.core.tools.Is;
 import de.bytemind.core.tools.JSON;
 import de.bytemind.core.tools.Security;
 import de.bytemind.core.users.IdHandler;
+import de.bytemind.webservice.users.SignedAccessToken;
 import spark.Request;
 
 /**
@@ -47,7 +48,8 @@ public class Credentials {
 				this.password = info[1];
 				//password must be 64 or 65 char hashed version - THE CLIENT IS EXPECTED TO DO THAT!
 				//65 char is the temporary token
-				if ((password.length() == 64) || (password.length() == 65)){
+				//"s1." prefix is a signed access token
+				if ((password.length() == 64) || (password.length() == 65) || SignedAccessToken.isSignedToken(password)){
 					idType = IdHandler.autodetectType(username);
 				}
 			}
@@ -16,6 +16,7 @@ import spark.Request;
  */
 public class FakeRequest extends Request {
 	private final Map<String, String> params = new HashMap<>();
+	private final Map<String, Object> attributes = new HashMap<>();
 	private Account fakeAccount;
 
 	/**
@@ -48,7 +49,21 @@ public class FakeRequest extends Request {
 		if (attribute.equals(ByteMindServer.ACCOUNT_ATTR)) {
 			return (T) fakeAccount;
 		}
-		return super.attribute(attribute);
+		return (T) attributes.get(attribute);
+	}
+	
+	@Override
+	public void attribute(String attribute, Object value) {
+		if (attribute.equals(ByteMindServer.ACCOUNT_ATTR)) {
+			fakeAccount = (Account) value;
+		}else{
+			attributes.put(attribute, value);
+		}
+	}
+
+	@Override
+	public String pathInfo() {
+		return null; 		//no end-point
 	}
 
 	@Override
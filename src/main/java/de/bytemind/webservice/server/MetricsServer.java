@@ -0,0 +1,97 @@
+package de.bytemind.webservice.server;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.function.Supplier;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+import de.bytemind.core.tools.Debugger;
+import de.bytemind.webservice.metrics.PrometheusWriter;
+
+/**
+ * Small Jetty server that only answers GET /metrics on its own port ("Config.metricsPort"), so scrapers don't have to go through
+ * the public port and its thread pool. If "Config.metricsSecret" is set it is required here as well.
+ *
+ * @author Florian Quirin
+ *
+ */
+public class MetricsServer {
+
+	private final Server server;
+
+	/**
+	 * Create server.
+	 * @param port - port to listen on
+	 * @param metrics - supplier of the metrics in Prometheus format
+	 */
+	public MetricsServer(int port, Supplier<String> metrics){
+		QueuedThreadPool pool = new QueuedThreadPool(8, 2);
+		pool.setName("metrics-pool");
+		server = new Server(pool);
+		ServerConnector connector = new ServerConnector(server, 1, 1);
+		connector.setPort(port);
+		server.addConnector(connector);
+		server.setHandler(new AbstractHandler(){
+			@Override
+			public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException{
+				baseRequest.setHandled(true);
+				if (!target.equals("/metrics") || !request.getMethod().equals("GET")){
+					response.sendError(404);
+				}else if (!isAuthorized(request.getHeader("Authorization"))){
+					response.sendError(401);
+				}else{
+					byte[] body = metrics.get().getBytes(StandardCharsets.UTF_8);
+					response.setStatus(200);
+					response.setContentType(PrometheusWriter.CONTENT_TYPE);
+					response.setContentLength(body.length);
+					response.getOutputStream().write(body);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Start listening.
+	 */
+	public void start(){
+		try{
+			server.start();
+		}catch (Exception e){
+			throw new RuntimeException("Metrics server could not be started: " + e.getMessage(), e);
+		}
+	}
+	/**
+	 * Stop server.
+	 */
+	public void stop(){
+		try{
+			server.stop();
+		}catch (Exception e){
+			Debugger.println("Metrics server - failed to stop: " + e.getMessage(), 1);
+		}
+	}
+
+	/**
+	 * Check the 'Authorization' header against "Config.metricsSecret" ("Bearer [secret]"). Without secret everybody is allowed.
+	 */
+	public static boolean isAuthorized(String authorizationHeader){
+		String secret = Config.metricsSecret;
+		if (secret == null || secret.isEmpty()){
+			return true;
+		}
+		if (authorizationHeader == null){
+			return false;
+		}
+		return MessageDigest.isEqual(("Bearer " + secret).getBytes(StandardCharsets.UTF_8), authorizationHeader.trim().getBytes(StandardCharsets.UTF_8));
+	}
+
+}
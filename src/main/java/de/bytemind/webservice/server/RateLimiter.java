@@ -0,0 +1,199 @@
+package de.bytemind.webservice.server;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Token buckets for one budget (e.g. 10 requests per 60s) keyed by client, e.g. "ip:1.2.3.4" or "user:uid1001".<br>
+ * The state of a bucket is one AtomicLong (refill time and tokens) updated with CAS, buckets are spread over several maps to keep
+ * contention low. Memory is bounded: when a map is full idle buckets (that would be full anyway) are evicted, if that is not
+ * enough the fullest bucket of a small sample is dropped. Clients that are currently limited have (almost) empty buckets,
+ * so a flood of new keys evicts other new keys first instead of resetting their limit.
+ *
+ * @author Florian Quirin
+ *
+ */
+public class RateLimiter {
+
+	private static final int STRIPES = 16;						//power of 2
+	private static final int TOKEN_BITS = 24;
+	private static final long TOKEN_MASK = (1l << TOKEN_BITS) - 1;
+	private static final long SCALE = 100;						//1 token = 100 units
+	public static final int MAX_CAPACITY = (int) (TOKEN_MASK / SCALE);
+	private static final long SWEEP_INTERVAL = 1000;			//min. ms between sweeps of one stripe
+	private static final int EVICTION_SAMPLE = 16;				//buckets compared to find the one to evict
+
+	private final String name;
+	private final int capacity;
+	private final long capacityUnits;
+	private final long periodMs;
+	private final int maxKeysPerStripe;
+	private final long startNanos = System.nanoTime();
+
+	@SuppressWarnings("unchecked")
+	private final Map<String, AtomicLong>[] stripes = new Map[STRIPES];
+	private final AtomicLong[] lastSweep = new AtomicLong[STRIPES];
+
+	private final LongAdder allowed = new LongAdder();
+	private final LongAdder throttled = new LongAdder();
+	private final LongAdder evicted = new LongAdder();
+
+	/**
+	 * Create limiter.
+	 * @param name - name for statistics, e.g. "/authentication:validate"
+	 * @param capacity - max. requests in a burst (max. {@link #MAX_CAPACITY})
+	 * @param periodMs - time to refill 'capacity' tokens
+	 * @param maxKeys - max. number of buckets kept in memory
+	 */
+	public RateLimiter(String name, int capacity, long periodMs, int maxKeys){
+		if (capacity < 1 || capacity > MAX_CAPACITY || periodMs < 1){
+			throw new IllegalArgumentException("Rate limit '" + name + "' - capacity must be 1-" + MAX_CAPACITY + " and period > 0");
+		}
+		this.name = name;
+		this.capacity = capacity;
+		this.capacityUnits = capacity * SCALE;
+		this.periodMs = periodMs;
+		this.maxKeysPerStripe = Math.max(16, maxKeys / STRIPES);
+		for (int i = 0; i < STRIPES; i++){
+			stripes[i] = new ConcurrentHashMap<>();
+			lastSweep[i] = new AtomicLong(0);
+		}
+	}
+
+	/**
+	 * Take one token of the bucket of 'key'.
+	 * @return 0 if the request is allowed, else the time in ms until the next token is available
+	 */
+	public long tryAcquire(String key){
+		int stripe = stripe(key);
+		Map<String, AtomicLong> buckets = stripes[stripe];
+		AtomicLong bucket = buckets.get(key);
+		if (bucket == null){
+			if (buckets.size() >= maxKeysPerStripe){
+				makeRoom(stripe);
+			}
+			bucket = buckets.computeIfAbsent(key, k -> new AtomicLong(pack(now(), capacityUnits)));
+		}
+		while (true){
+			long state = bucket.get();
+			long now = now();
+			long last = state >>> TOKEN_BITS;
+			long tokens = state & TOKEN_MASK;
+			//refill
+			long elapsed = now - last;
+			if (elapsed >= periodMs){
+				tokens = capacityUnits;
+				last = now;
+			}else if (elapsed > 0){
+				long add = elapsed * capacityUnits / periodMs;
+				if (tokens + add >= capacityUnits){
+					tokens = capacityUnits;
+					last = now;
+				}else{
+					tokens += add;
+					last += add * periodMs / capacityUnits;		//keep the rest of the time for the next refill
+				}
+			}
+			if (tokens < SCALE){
+				throttled.increment();
+				return Math.max(1, ((SCALE - tokens) * periodMs + capacityUnits - 1) / capacityUnits);
+			}
+			if (bucket.compareAndSet(state, pack(last, tokens - SCALE))){
+				allowed.increment();
+				return 0;
+			}
+		}
+	}
+
+	private static long pack(long time, long tokens){
+		return (time << TOKEN_BITS) | tokens;
+	}
+	private long now(){
+		return (System.nanoTime() - startNanos) / 1000000l;
+	}
+	private static int stripe(String key){
+		int h = key.hashCode();
+		return (h ^ (h >>> 16)) & (STRIPES - 1);
+	}
+
+	/**
+	 * Remove idle buckets of a stripe and, if it is still full, the fullest ones (least limited, cheapest to forget).
+	 */
+	private void makeRoom(int stripe){
+		Map<String, AtomicLong> buckets = stripes[stripe];
+		long now = now();
+		long last = lastSweep[stripe].get();
+		if ((now - last) >= SWEEP_INTERVAL && lastSweep[stripe].compareAndSet(last, now)){
+			Iterator<AtomicLong> it = buckets.values().iterator();
+			while (it.hasNext()){
+				if ((now - (it.next().get() >>> TOKEN_BITS)) >= periodMs){
+					it.remove();
+					evicted.increment();
+				}
+			}
+		}
+		while (buckets.size() >= maxKeysPerStripe){
+			String victim = null;
+			long victimTokens = -1;
+			int n = 0;
+			for (Map.Entry<String, AtomicLong> e : buckets.entrySet()){
+				long tokens = currentTokens(e.getValue().get(), now);
+				if (tokens > victimTokens){
+					victim = e.getKey();
+					victimTokens = tokens;
+				}
+				if (++n >= EVICTION_SAMPLE || tokens >= capacityUnits){
+					break;
+				}
+			}
+			if (victim == null){
+				break;
+			}
+			if (buckets.remove(victim) != null){
+				evicted.increment();
+			}
+		}
+	}
+	/**
+	 * Tokens (in units) a bucket state would have after refill at 'now'.
+	 */
+	private long currentTokens(long state, long now){
+		long elapsed = now - (state >>> TOKEN_BITS);
+		if (elapsed >= periodMs){
+			return capacityUnits;
+		}
+		return Math.min(capacityUnits, (state & TOKEN_MASK) + Math.max(0, elapsed) * capacityUnits / periodMs);
+	}
+
+	//--------- reading ---------
+
+	public String getName(){
+		return name;
+	}
+	/**
+	 * Number of buckets in memory.
+	 */
+	public int size(){
+		int n = 0;
+		for (Map<String, AtomicLong> m : stripes){
+			n += m.size();
+		}
+		return n;
+	}
+	public long getAllowed(){
+		return allowed.sum();
+	}
+	public long getThrottled(){
+		return throttled.sum();
+	}
+
+	@Override
+	public String toString(){
+		return name + " - " + capacity + " per " + (periodMs / 1000.0d) + "s, keys: " + size()
+				+ ", allowed: " + getAllowed() + ", throttled: " + getThrottled() + ", evicted: " + evicted.sum();
+	}
+
+}
@@ -0,0 +1,83 @@
+package de.bytemind.webservice.server;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import de.bytemind.core.tools.Debugger;
+
+/**
+ * Registry of the rate limits (see {@link RateLimiter}) of end-points and their actions, defined in the server config, e.g.:<br>
+ * rate_limit=true<br>
+ * rate_limits=/authentication=120/60,/authentication:validate=10/60,...<br>
+ * (requests per seconds). Routes without limit are not limited.
+ *
+ * @author Florian Quirin
+ *
+ */
+public class RateLimits {
+
+	private static Map<String, RateLimiter> limits = new LinkedHashMap<>();		//"path" or "path:action"
+
+	/**
+	 * Create the limiters from "Config.rateLimits". Throws RuntimeException on invalid settings.
+	 */
+	public static void setup(){
+		Map<String, RateLimiter> newLimits = new LinkedHashMap<>();
+		//path[:action]=requests/seconds
+		for (String limitDef : Config.rateLimits.split(",")){
+			limitDef = limitDef.trim();
+			if (limitDef.isEmpty()){
+				continue;
+			}
+			try{
+				String[] parts = limitDef.split("=");
+				String[] budget = parts[1].trim().split("/");
+				String route = parts[0].trim();
+				newLimits.put(route, new RateLimiter(route, Integer.parseInt(budget[0].trim()), Long.parseLong(budget[1].trim()) * 1000l,
+						Config.rateLimitMaxKeys));
+			}catch (Exception e){
+				throw new RuntimeException("Invalid rate limit: '" + limitDef + "'! Expected format: path[:action]=requests/seconds", e);
+			}
+		}
+		limits = newLimits;
+		Debugger.println("Rate limits: " + limits.keySet(), 3);
+	}
+
+	/**
+	 * Get the limiter of a request.
+	 * @param path - path of the end-point, e.g. "/authentication"
+	 * @param action - value of the "action" parameter or null
+	 * @return limiter or null if the route is not limited
+	 */
+	public static RateLimiter getLimiter(String path, String action){
+		if (action != null){
+			RateLimiter limiter = limits.get(path + ":" + action.trim());
+			if (limiter != null){
+				return limiter;
+			}
+		}
+		return limits.get(path);
+	}
+
+	/**
+	 * All limiters.
+	 */
+	public static Collection<RateLimiter> getLimiters(){
+		return limits.values();
+	}
+
+	/**
+	 * Current state of all limiters as string for the statistics end-point.
+	 */
+	public static String getStatsAsString(){
+		if (limits.isEmpty()){
+			return "";
+		}
+		StringBuilder sb = new StringBuilder("Rate limits:\n");
+		for (RateLimiter l : limits.values()){
+			sb.append("- ").append(l.toString()).append("\n");
+		}
+		return sb.toString();
+	}
+}
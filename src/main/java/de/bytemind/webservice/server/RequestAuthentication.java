@@ -0,0 +1,137 @@
+package de.bytemind.webservice.server;
+
+import de.bytemind.core.tools.Is;
+import de.bytemind.core.users.Account;
+import de.bytemind.webservice.metrics.Counter;
+import de.bytemind.webservice.metrics.Metrics;
+import de.bytemind.webservice.users.AuthenticationBridge;
+import de.bytemind.webservice.users.AuthenticationToken;
+import spark.Request;
+
+/**
+ * Request-scoped authentication context. Credentials are parsed on first use and the token and account are authenticated at most
+ * once per request, no matter how many filters, end-points or hooks ask for them.<br>
+ * The context is attached as request attribute {@link #ATTR} by a 'before' filter of the server (or on first use). A successfully
+ * authenticated account is also stored as {@link ByteMindServer#ACCOUNT_ATTR}.
+ *
+ * @author Florian Quirin
+ *
+ */
+public class RequestAuthentication {
+
+	public static final String ATTR = "authentication-context";
+
+	private static final Counter RESOLVED = Metrics.counter("RequestAuthentication:resolved");
+	private static final Counter REUSED = Metrics.counter("RequestAuthentication:reused");
+
+	private final Request request;
+	private Credentials credentials;
+	private AuthenticationToken token;
+	private Account account;
+
+	/**
+	 * Create a lazy context for this request. Nothing is parsed or authenticated yet.
+	 */
+	public RequestAuthentication(Request request){
+		this.request = request;
+	}
+
+	/**
+	 * Get the context of this request or attach a new one if there is none yet.
+	 */
+	public static RequestAuthentication of(Request request){
+		RequestAuthentication context = request.attribute(ATTR);
+		if (context == null){
+			context = new RequestAuthentication(request);
+			request.attribute(ATTR, context);
+		}
+		return context;
+	}
+
+	/**
+	 * Credentials of the request, parsed once.
+	 */
+	public Credentials getCredentials(){
+		if (credentials == null){
+			credentials = new Credentials(request);
+		}
+		return credentials;
+	}
+
+	/**
+	 * Authentication token of the request. Invalid credentials give a token that is not authenticated (error code 2).
+	 */
+	public AuthenticationToken getToken(){
+		if (token != null){
+			REUSED.inc();
+			return token;
+		}
+		Credentials credentials = getCredentials();
+		if (Is.nullOrEmpty(credentials.idType)){
+			token = AuthenticationToken.accessDenied();
+		}else{
+			RESOLVED.inc();
+			token = new AuthenticationToken(credentials, request);
+		}
+		return token;
+	}
+
+	/**
+	 * Account of the request or null if the credentials are invalid. The account authenticates only once, repeated calls of
+	 * 'authenticate()' return the first result. An account buffered as {@link ByteMindServer#ACCOUNT_ATTR} is used as it is.<br>
+	 * If the authentication end-point is this server the account is built from the token (see {@link AuthenticationBridge}).
+	 */
+	public Account getAccount(){
+		if (account != null){
+			REUSED.inc();
+			return account;
+		}
+		Account buffered = request.attribute(ByteMindServer.ACCOUNT_ATTR);
+		if (buffered != null){
+			account = buffered;
+			return account;
+		}
+		Credentials credentials = getCredentials();
+		if (Is.nullOrEmpty(credentials.idType)){
+			return null;
+		}
+		//our own end-point - build the account from the token instead of a HTTP loopback request
+		if (AuthenticationBridge.isLocalEndpoint()){
+			account = AuthenticationBridge.getAccount(getToken());
+			if (account.authenticate()){
+				request.attribute(ByteMindServer.ACCOUNT_ATTR, account);
+			}
+			return account;
+		}
+		account = new OnceAuthenticatedAccount(credentials.key, credentials.idType, credentials.client, request);
+		return account;
+	}
+
+	/**
+	 * Account that remembers the result of its (backend) authentication and buffers itself in the request on success.
+	 */
+	private static class OnceAuthenticatedAccount extends Account {
+		private final Request request;
+		private Boolean authenticated;
+
+		OnceAuthenticatedAccount(String key, String idType, String client, Request request){
+			super(key, idType, client);
+			this.request = request;
+		}
+
+		@Override
+		public boolean authenticate(){
+			if (authenticated == null){
+				RESOLVED.inc();
+				authenticated = super.authenticate();
+				if (authenticated){
+					request.attribute(ByteMindServer.ACCOUNT_ATTR, this);
+				}
+			}else{
+				REUSED.inc();
+			}
+			return authenticated;
+		}
+	}
+
+}
@@ -0,0 +1,211 @@
+package de.bytemind.webservice.server;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.util.BlockingArrayQueue;
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+import de.bytemind.core.tools.Debugger;
+import spark.embeddedserver.EmbeddedServers;
+import spark.embeddedserver.jetty.EmbeddedJettyFactory;
+
+/**
+ * Thread pool of the embedded Jetty server. Depending on "Config.serverExecutionMode" requests run either in a bounded pool of
+ * platform threads ("pool") or in one virtual thread per request ("virtual", requires a Java 21 runtime).<br>
+ * Both modes report their saturation, see {@link #getStatsAsString()}.
+ *
+ * @author Florian Quirin
+ *
+ */
+public class ServerThreadPool {
+
+	public static final String MODE_POOL = "pool";
+	public static final String MODE_VIRTUAL = "virtual";
+
+	private static String mode = "";
+	private static ThreadPool threadPool;
+
+	/**
+	 * Register the Jetty server factory with the configured thread pool. Has to be called before the first route is mapped.
+	 */
+	public static void setup(){
+		mode = Config.serverExecutionMode;
+		if (mode.equals(MODE_VIRTUAL)){
+			threadPool = new VirtualThreadPool();
+			Debugger.println("Server threads: one virtual thread per request.", 3);
+		}else if (mode.equals(MODE_POOL)){
+			QueuedThreadPool qtp = new QueuedThreadPool(Config.serverThreadsMax, Config.serverThreadsMin, Config.serverThreadsIdleTimeout,
+					new BlockingArrayQueue<Runnable>(Config.serverThreadsQueueSize));
+			qtp.setName("server-pool");
+			threadPool = qtp;
+			Debugger.println("Server threads: pool with min. " + Config.serverThreadsMin + ", max. " + Config.serverThreadsMax
+					+ " threads and queue size " + Config.serverThreadsQueueSize, 3);
+		}else{
+			throw new RuntimeException("Unknown server execution mode: '" + mode + "'! Please use '" + MODE_POOL + "' or '" + MODE_VIRTUAL + "'.");
+		}
+		//note: Spark's own thread settings are ignored in favor of our pool
+		EmbeddedServers.add(EmbeddedServers.defaultIdentifier(),
+				new EmbeddedJettyFactory((maxThreads, minThreads, threadTimeoutMillis) -> new Server(threadPool)));
+	}
+
+	/**
+	 * Execution mode in use, "pool" or "virtual" (or empty if not set up).
+	 */
+	public static String getMode(){
+		return mode;
+	}
+	/**
+	 * Number of threads currently running requests (or Jetty internals like acceptors and selectors).
+	 */
+	public static int getBusyThreads(){
+		if (threadPool instanceof QueuedThreadPool){
+			return ((QueuedThreadPool) threadPool).getBusyThreads();
+		}else if (threadPool != null){
+			return threadPool.getThreads();
+		}
+		return 0;
+	}
+	/**
+	 * Number of idle threads (always 0 for virtual threads).
+	 */
+	public static int getIdleThreads(){
+		return (threadPool != null)? threadPool.getIdleThreads() : 0;
+	}
+	/**
+	 * Maximum number of threads or -1 if unbounded (virtual threads).
+	 */
+	public static int getMaxThreads(){
+		if (threadPool instanceof QueuedThreadPool){
+			return ((QueuedThreadPool) threadPool).getMaxThreads();
+		}
+		return -1;
+	}
+	/**
+	 * Jobs waiting for a free thread (always 0 for virtual threads).
+	 */
+	public static int getQueueSize(){
+		if (threadPool instanceof QueuedThreadPool){
+			return ((QueuedThreadPool) threadPool).getQueueSize();
+		}
+		return 0;
+	}
+	/**
+	 * Saturation of the pool between 0.0 (all idle) and 1.0 (all threads busy). Virtual threads never saturate so this is always 0.
+	 */
+	public static double getSaturation(){
+		int max = getMaxThreads();
+		if (max > 0){
+			return Math.min(1.0d, (double) getBusyThreads() / max);
+		}
+		return 0.0d;
+	}
+	/**
+	 * Thread pool low on threads?
+	 */
+	public static boolean isLowOnThreads(){
+		return (threadPool != null) && threadPool.isLowOnThreads();
+	}
+
+	/**
+	 * Current state of the thread pool as string for the statistics end-point.
+	 */
+	public static String getStatsAsString(){
+		if (threadPool == null){
+			return "Server threads: default\n";
+		}else if (threadPool instanceof VirtualThreadPool){
+			VirtualThreadPool vtp = (VirtualThreadPool) threadPool;
+			return "Server threads: virtual" +
+					"\n- active: " + vtp.getThreads() +
+					"\n- peak: " + vtp.getPeakThreads() +
+					"\n- started: " + vtp.getStartedThreads() + "\n";
+		}else{
+			return "Server threads: pool" +
+					"\n- busy: " + getBusyThreads() + " of " + getMaxThreads() +
+					"\n- idle: " + getIdleThreads() +
+					"\n- queued: " + getQueueSize() + " (capacity " + Config.serverThreadsQueueSize + ")" +
+					"\n- saturation: " + Math.round(getSaturation() * 100.0d) + "%" + (isLowOnThreads()? " (LOW ON THREADS)" : "") + "\n";
+		}
+	}
+
+	//------------Implementations----------------
+
+	/**
+	 * Jetty thread pool starting one virtual thread per job. The executor is created via reflection so the class still
+	 * compiles with Java 8 (use the 'java21' build profile to build for Java 21).
+	 */
+	private static class VirtualThreadPool extends AbstractLifeCycle implements ThreadPool {
+
+		private final ExecutorService executor;
+		private final AtomicInteger active = new AtomicInteger(0);
+		private final AtomicInteger peak = new AtomicInteger(0);
+		private final LongAdder started = new LongAdder();
+
+		VirtualThreadPool(){
+			try{
+				executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+			}catch (Exception e){
+				throw new RuntimeException("Server execution mode '" + MODE_VIRTUAL + "' requires Java 21 or newer! Running: "
+						+ System.getProperty("java.version"), e);
+			}
+		}
+
+		@Override
+		public void execute(Runnable job){
+			int now = active.incrementAndGet();
+			peak.accumulateAndGet(now, Math::max);
+			started.increment();
+			try{
+				executor.execute(() -> {
+					try{
+						job.run();
+					}finally{
+						active.decrementAndGet();
+					}
+				});
+			}catch (RuntimeException e){
+				active.decrementAndGet();
+				throw e;
+			}
+		}
+
+		@Override
+		protected void doStop() throws Exception{
+			executor.shutdown();
+			super.doStop();
+		}
+
+		@Override
+		public void join() throws InterruptedException{
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		}
+
+		@Override
+		public int getThreads(){
+			return active.get();
+		}
+		public int getPeakThreads(){
+			return peak.get();
+		}
+		public long getStartedThreads(){
+			return started.sum();
+		}
+
+		@Override
+		public int getIdleThreads(){
+			return 0;
+		}
+
+		@Override
+		public boolean isLowOnThreads(){
+			return false;
+		}
+	}
+
+}
@@ -1,5 +1,9 @@
 package de.bytemind.webservice.users;
 
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
 import org.json.simple.JSONObject;
 
 import de.bytemind.core.users.Account;
@@ -30,6 +34,17 @@ public interface AccountData {
 	 */
 	public int getInfos(Account user, String... keys);
 	
+	/**
+	 * Get the same user values of many users at once (e.g. names and roles for a list of users). There is no user to check here,
+	 * the caller has to make sure that the request is allowed! Restricted keys (passwords, tokens, ...) are never read.
+	 * 
+	 * @param userIds - IDs (GUUIDs) of the users
+	 * @param keys - string array of keys that describe database entries
+	 * 
+	 * @return map of cleaned user ID (IdHandler.clean) to JSON with the keys that were found (users not found are missing) or null on database error
+	 */
+	public Map<String, JSONObject> getInfosBatch(Collection<String> userIds, String... keys);
+	
 	/**
 	 * Set a bunch of user values in account database at the same time to reduce traffic. 
 	 * If a key is not found the value remains null.
@@ -42,6 +57,19 @@ public interface AccountData {
 	 */
 	public int setInfos(Account user, JSONObject data); 
 	
+	/**
+	 * Like {@link #setInfos(Account, JSONObject)} but the write can be delayed and merged with other updates of the same user
+	 * (see {@link AccountWriteCoalescer}). The default implementation writes directly.
+	 * 
+	 * @param user - the user we are looking for
+	 * @param data - JSON object with data to write
+	 * 
+	 * @return future with the error code of {@link #setInfos(Account, JSONObject)}
+	 */
+	public default CompletableFuture<Integer> setInfosAsync(Account user, JSONObject data){
+		return CompletableFuture.completedFuture(setInfos(user, data));
+	}
+	
 	/**
 	 * Get any user specific object from account database.
 	 * The database implementation has to check if the user is authenticated correctly (and not just a user created with an ID and access level)!<br>
@@ -1,8 +1,18 @@
 package de.bytemind.webservice.users;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -14,7 +24,10 @@ import de.bytemind.core.tools.Debugger;
 import de.bytemind.core.tools.Is;
 import de.bytemind.core.tools.JSON;
 import de.bytemind.core.users.Account;
+import de.bytemind.core.users.IdHandler;
 import de.bytemind.webservice.database.DB;
+import de.bytemind.webservice.database.DynamoDbBatchGet;
+import de.bytemind.webservice.server.Config;
 
 /**
  * AWS DynamoDB database access implementing the Account_Interface.
@@ -27,6 +40,42 @@ public class AccountDataDynamoDB implements AccountData{
 	//Configuration
 	private static String tableName = DB.USERS;
 	
+	//BatchGetItem limit and threads reading the chunks of big batches
+	private static final int BATCH_GET_MAX_ITEMS = 100;
+	private static volatile ExecutorService batchReaders;
+	private static ExecutorService getBatchReaders(){
+		if (batchReaders == null){
+			synchronized (AccountDataDynamoDB.class){
+				if (batchReaders == null){
+					AtomicInteger n = new AtomicInteger(0);
+					batchReaders = Executors.newFixedThreadPool(Math.max(1, Config.accountBatchConcurrency), r -> {
+						Thread t = new Thread(r, "account-batch-reader-" + n.getAndIncrement());
+						t.setDaemon(true);
+						return t;
+					});
+				}
+			}
+		}
+		return batchReaders;
+	}
+	
+	//statistics are collected and written in merged updates
+	private static volatile StatisticsWriteBehind statisticsWriter;
+	/**
+	 * Get the statistics aggregator shared by all instances or null if it is deactivated (Config.statisticsWriteBehind = false).
+	 */
+	public static StatisticsWriteBehind getStatisticsWriter(){
+		if (statisticsWriter == null && Config.statisticsWriteBehind){
+			synchronized (AccountDataDynamoDB.class){
+				if (statisticsWriter == null){
+					statisticsWriter = new StatisticsWriteBehind(AccountDataDynamoDB::writeBasicStatisticsNow, 
+							Config.statisticsFlushInterval, Config.statisticsFlushThreshold, Config.statisticsWriteConcurrency);
+				}
+			}
+		}
+		return statisticsWriter;
+	}
+	
 	/**
 	 * Set DynamoDB table like "Users" etc. ...
 	 * @param path - table string created in DynamoDB
@@ -34,6 +83,28 @@ public class AccountDataDynamoDB implements AccountData{
 	public void setTable(String path){
 		tableName = path;
 	}
+	//updates of the same user within a short window are merged into one write
+	private static volatile AccountWriteCoalescer writeCoalescer;
+	/**
+	 * Get the write coalescer shared by all instances or null if it is deactivated (Config.accountWriteWindow = 0).
+	 */
+	public static AccountWriteCoalescer getWriteCoalescer(){
+		if (writeCoalescer == null && Config.accountWriteWindow > 0){
+			synchronized (AccountDataDynamoDB.class){
+				if (writeCoalescer == null){
+					writeCoalescer = new AccountWriteCoalescer(new AccountDataDynamoDB(), Config.accountWriteWindow, Config.accountWriteConcurrency);
+				}
+			}
+		}
+		return writeCoalescer;
+	}
+	
+	/**
+	 * Table of the data that can be written here (profile item in split layout).
+	 */
+	private static String getWriteTable(){
+		return AccountMapper.isSplitLayout()? DB.USERS_PROFILES : tableName;
+	}
 	
 	@Override
 	public boolean testModule() {
@@ -62,24 +133,22 @@ public class AccountDataDynamoDB implements AccountData{
 		String pK = user.getUserID();
 		
 		//keys:
-		ArrayList<String> checkedKeys = new ArrayList<>();
-		for (String s : keys){
-			//restrict access to database	TODO: keep this up to date!!! Introduce access levels?
-			if (AccountMapper.restrictReadAccess.contains(s.replaceFirst("\\..*", "").trim())){
-				//password and tokens retrieval is NOT allowed! NEVER! only if you run this as an authenticator (own class)
-				Debugger.println("DB read access to '" + s + "' has been denied!", 3);
-				continue;
-			}
-			checkedKeys.add(s);
-		}
+		ArrayList<String> checkedKeys = getReadableKeys(keys);
 				
 		//Connect
-		JSONObject response = DynamoDB.getItem(tableName, AccountMapper.GUUID, pK, checkedKeys.toArray(new String[]{}));
+		JSONObject response;
+		if (AccountMapper.isSplitLayout()){
+			//auth and profile item
+			response = UserStorageSplit.read(pK, IdHandler.Type.uid, checkedKeys.toArray(new String[]{}));
+		}else{
+			response = DynamoDB.getItem(tableName, AccountMapper.GUUID, pK, checkedKeys.toArray(new String[]{}));
+			DB.DYNAMODB_READS.inc();
+		}
 		//System.out.println("RESPONSE: " + response.toJSONString());			//debug
 		//System.out.println("Time needed: " + Debugger.toc(tic) + "ms");		//debug
 		
 		//Status?
-		if (!Connectors.httpSuccess(response)){
+		if (response == null || !Connectors.httpSuccess(response)){
 			//no access, no connection, wrong search keys or unknown error
 			return 4;
 		}else{
@@ -118,6 +187,119 @@ public class AccountDataDynamoDB implements AccountData{
 		}
 	}
 	
+	/**
+	 * Keys without the ones that must not be read (AccountMapper.restrictReadAccess).
+	 */
+	static ArrayList<String> getReadableKeys(String... keys){
+		ArrayList<String> checkedKeys = new ArrayList<>();
+		for (String s : keys){
+			//restrict access to database	TODO: keep this up to date!!! Introduce access levels?
+			if (AccountMapper.restrictReadAccess.contains(s.replaceFirst("\\..*", "").trim())){
+				//password and tokens retrieval is NOT allowed! NEVER! only if you run this as an authenticator (own class)
+				Debugger.println("DB read access to '" + s + "' has been denied!", 3);
+				continue;
+			}
+			checkedKeys.add(s);
+		}
+		return checkedKeys;
+	}
+	
+	//get the same data elements of many users - BatchGetItem with max. 100 items per request, requests run in parallel
+	public Map<String, JSONObject> getInfosBatch(Collection<String> userIds, String... keys){
+		long tic = System.currentTimeMillis();
+		
+		ArrayList<String> checkedKeys = getReadableKeys(keys);
+		Map<String, JSONObject> result = new LinkedHashMap<>();
+		if (userIds == null || userIds.isEmpty() || checkedKeys.isEmpty()){
+			return result;
+		}
+		//tables to read - split layout: auth and/or profile item
+		Map<String, List<String>> tableKeys = new LinkedHashMap<>();
+		if (AccountMapper.isSplitLayout()){
+			for (String k : checkedKeys){
+				tableKeys.computeIfAbsent(AccountMapper.isAuthField(k)? DB.USERS : DB.USERS_PROFILES, t -> new ArrayList<>()).add(k);
+			}
+		}else{
+			tableKeys.put(tableName, checkedKeys);
+		}
+		int chunkSize = BATCH_GET_MAX_ITEMS / tableKeys.size();
+		
+		//unique IDs in chunks
+		List<List<String>> idChunks = getIdChunks(userIds, chunkSize);
+		List<CompletableFuture<Map<String, JSONObject>>> chunks = new ArrayList<>();
+		for (List<String> chunk : idChunks){
+			chunks.add(CompletableFuture.supplyAsync(() -> readBatch(chunk, tableKeys), getBatchReaders()));
+		}
+		Map<String, JSONObject> found = new HashMap<>();
+		try{
+			for (CompletableFuture<Map<String, JSONObject>> c : chunks){
+				found.putAll(c.join());
+			}
+		}catch (Exception e){
+			Debugger.println("getInfosBatch - DynamoDB error: " + e.getMessage(), 1);
+			return null;
+		}
+		//keep order of request
+		for (List<String> chunk : idChunks){
+			for (String id : chunk){
+				JSONObject user = found.get(id);
+				if (user != null){
+					result.put(id, user);
+				}
+			}
+		}
+		Statistics.addInternalApiHit("AccountData:getInfosBatch", tic);
+		return result;
+	}
+	/**
+	 * Cleaned (see IdHandler.clean) unique IDs in order of the request, split into chunks of max. 'chunkSize' IDs.
+	 */
+	static List<List<String>> getIdChunks(Collection<String> userIds, int chunkSize){
+		Set<String> unique = new LinkedHashSet<>();
+		for (String id : userIds){
+			if (id != null && !id.trim().isEmpty()){
+				unique.add(IdHandler.clean(id));
+			}
+		}
+		List<String> ids = new ArrayList<>(unique);
+		List<List<String>> chunks = new ArrayList<>();
+		for (int i=0; i<ids.size(); i+=chunkSize){
+			chunks.add(ids.subList(i, Math.min(ids.size(), i + chunkSize)));
+		}
+		return chunks;
+	}
+	/**
+	 * One BatchGetItem request (with retries of unprocessed keys).
+	 * @return found users with their values
+	 */
+	private static Map<String, JSONObject> readBatch(List<String> ids, Map<String, List<String>> tableKeys){
+		DynamoDbBatchGet batch = new DynamoDbBatchGet();
+		for (String id : ids){
+			for (Entry<String, List<String>> e : tableKeys.entrySet()){
+				batch.add(e.getKey(), AccountMapper.GUUID, id, e.getValue());
+			}
+		}
+		JSONObject response = batch.execute();
+		if (response == null || !Connectors.httpSuccess(response)){
+			throw new RuntimeException("BatchGetItem failed: " + response);
+		}
+		Map<String, JSONObject> found = new HashMap<>();
+		for (Entry<String, List<String>> e : tableKeys.entrySet()){
+			for (JSONObject item : DynamoDbBatchGet.getItems(response, e.getKey())){
+				String id = (String) DynamoDB.typeConversion((JSONObject) item.get(AccountMapper.GUUID));
+				JSONObject user = found.computeIfAbsent(id, k -> new JSONObject());
+				for (String k : e.getValue()){
+					JSONObject value = DynamoDB.dig(item, k.split("\\."), 0);
+					Object converted = (value != null)? DynamoDB.typeConversion(value) : null;
+					if (converted != null){
+						JSON.put(user, k, converted);
+					}
+				}
+			}
+		}
+		return found;
+	}
+	
 	//get object from database - use the bunch read method and directly recover the object
 	public Object getInfoObject(Account user, String key) {
 		getInfos(user, key);
@@ -164,8 +346,9 @@ public class AccountDataDynamoDB implements AccountData{
 		}
 
 		//Connect
-		int code = DynamoDB.writeAny(tableName, AccountMapper.GUUID, pK, 
+		int code = DynamoDB.writeAny(getWriteTable(), AccountMapper.GUUID, pK, 
 				checkedKeys.toArray(new String[]{}), checkedObjects.toArray(new Object[]{}));
+		DB.DYNAMODB_WRITES.inc();
 		
 		if (code != 0){
 			Debugger.println("setInfo - DynamoDB error with code: " + code, 1);			//debug
@@ -178,6 +361,16 @@ public class AccountDataDynamoDB implements AccountData{
 		}
 	}
 
+	//set items in database, merged with other updates of the user if coalescing is active
+	@Override
+	public CompletableFuture<Integer> setInfosAsync(Account user, JSONObject data){
+		AccountWriteCoalescer coalescer = getWriteCoalescer();
+		if (coalescer != null){
+			return coalescer.setInfos(user, data);
+		}
+		return CompletableFuture.completedFuture(setInfos(user, data));
+	}
+
 	//set object in database - use the bunch write method with single key and object
 	public int setInfoObject(Account user, String key, Object object) {
 		return setInfos(user, JSON.make(key, object));
@@ -187,6 +380,16 @@ public class AccountDataDynamoDB implements AccountData{
 	
 	//write basic statistics like last log-in and total usage
 	public boolean writeBasicStatistics(String userID){
+		StatisticsWriteBehind aggregator = getStatisticsWriter();
+		if (aggregator != null){
+			return aggregator.record(userID);
+		}
+		return writeBasicStatisticsNow(userID, 1, System.currentTimeMillis());
+	}
+	/**
+	 * Add calls to the total and set the last login in one update.
+	 */
+	private static boolean writeBasicStatisticsNow(String userID, long calls, long lastLogin){
 		
 		long tic = System.currentTimeMillis();
 		
@@ -198,11 +401,11 @@ public class AccountDataDynamoDB implements AccountData{
 
 		String updateExpressionSet = "ADD ";
 		updateExpressionSet += "statistics.totalCalls :val1";	// + ", ";
-		JSON.add(expressionAttributeValues, ":val1", DynamoDB.typeConversionDynamoDB(new Integer(1)));
+		JSON.add(expressionAttributeValues, ":val1", DynamoDB.typeConversionDynamoDB(Long.valueOf(calls)));
 		
 		updateExpressionSet += " SET ";
 		updateExpressionSet += "statistics.lastLogin = :val2";  // + ", ";
-		JSON.add(expressionAttributeValues, ":val2", DynamoDB.typeConversionDynamoDB(String.valueOf(System.currentTimeMillis())));
+		JSON.add(expressionAttributeValues, ":val2", DynamoDB.typeConversionDynamoDB(String.valueOf(lastLogin)));
 
 		//clean up:
 		String updateExpression = updateExpressionSet.trim();
@@ -212,7 +415,7 @@ public class AccountDataDynamoDB implements AccountData{
 		
 		//JSON request:
 		JSONObject request = new JSONObject();
-		JSON.add(request, "TableName", tableName);
+		JSON.add(request, "TableName", getWriteTable());
 		JSON.add(request, "Key", prime);
 		JSON.add(request, "UpdateExpression", updateExpression);
 		if (!expressionAttributeValues.isEmpty()){
@@ -224,6 +427,7 @@ public class AccountDataDynamoDB implements AccountData{
 		
 		//Connect
 		JSONObject response = DynamoDB.request(operation, request.toJSONString());
+		DB.DYNAMODB_WRITES.inc();
 		//System.out.println("RESPONSE: " + response.toJSONString());			//debug
 		//System.out.println("Time needed: " + Debugger.toc(tic) + "ms");		//debug
 		
@@ -182,6 +182,7 @@ public interface AccountManager {
 	 * 5 - during registration/requestPasswordChange: user existence check failed; during createUser/changePassword: invalid token or time stamp<br>
 	 * 6 - password format invalid<br>
 	 * 7 - UID generation or storing failed<br>
+	 * 8 - too many failed logins, account is blocked for a while (see {@link LoginBackoff})<br>
 	 * 
 	 * @return integer error code
 	 */
@@ -1,6 +1,11 @@
 package de.bytemind.webservice.users;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -29,6 +34,7 @@ import de.bytemind.core.users.IdHandler;
 import de.bytemind.core.users.Role;
 import de.bytemind.webservice.database.DB;
 import de.bytemind.webservice.server.Config;
+import spark.Request;
 
 /**
  * User authentication implemented with AWS DynamoDB.
@@ -43,13 +49,73 @@ public class AccountManagerDynamoDB implements AccountManager, Authentication{
 	private static final long registration_token_valid_time = 86400000L;	//that token is valid 24h
 	private static final long reset_token_valid_time = 1200000L;		//that token is valid 20min
 	private static final long key_token_valid_time = 86400000L;			//that token is valid for one day
-	private static final long app_token_valid_time = 3153600000L;		//that token is valid for one year
+	static final long app_token_valid_time = 3153600000L;						//that token is valid for one year
 	
 	private static final String TOKENS_SUPP = "tokens_supp";
 	private static final String TOKENS_REG = "tokens_reg";
 	private static final String TOKENS_SUPP_TS = "tokens_supp_ts";		//keep this name
 	private static final String TOKENS_REG_TS = "tokens_reg_ts";		//keep this name
 	
+	//cache of successful key token validations
+	private static volatile KeyTokenCache tokenCache;
+	/**
+	 * Get the key token cache shared by all instances or null if it is deactivated (Config.authCacheSize = 0).
+	 */
+	public static KeyTokenCache getTokenCache(){
+		if (tokenCache == null && Config.authCacheSize > 0){
+			synchronized (AccountManagerDynamoDB.class){
+				if (tokenCache == null){
+					tokenCache = new KeyTokenCache(Config.authCacheSize, Config.authCacheTtl);
+				}
+			}
+		}
+		return tokenCache;
+	}
+	
+	//caches of this and other nodes are told about logouts, password changes etc.
+	private static volatile InvalidationBus invalidationBus;
+	
+	/**
+	 * Get the invalidation bus of this node (see {@link InvalidationBuses}) with the key token cache subscribed. Revocation of signed
+	 * access tokens is subscribed by the server (see {@link SignedAccessToken#subscribeRevocations(InvalidationBus)}).
+	 */
+	public static InvalidationBus getInvalidationBus(){
+		if (invalidationBus == null){
+			synchronized (AccountManagerDynamoDB.class){
+				if (invalidationBus == null){
+					InvalidationBus bus = InvalidationBuses.get();
+					bus.subscribe(inv -> {
+						invalidateCachedTokens(inv.getUserID(), (inv.getClient() == null)? null : getAppTokenPath(inv.getClient()));
+					});
+					invalidationBus = bus;
+				}
+			}
+		}
+		return invalidationBus;
+	}
+	
+	//identical authentications running at the same time share one database read
+	private static final SingleFlight<AuthenticationResult> authFlights = new SingleFlight<>("Authentication");
+	
+	/**
+	 * Result of an authentication that can be handed to coalesced callers.
+	 */
+	private static class AuthenticationResult {
+		final boolean success;
+		final String userID;
+		final int accessLvl;
+		final int errorCode;
+		final HashMap<String, Object> rawBasicInfo;
+		
+		AuthenticationResult(boolean success, String userID, int accessLvl, int errorCode, HashMap<String, Object> rawBasicInfo){
+			this.success = success;
+			this.userID = userID;
+			this.accessLvl = accessLvl;
+			this.errorCode = errorCode;
+			this.rawBasicInfo = rawBasicInfo;
+		}
+	}
+	
 	//temporary secrets
 	//private static String temporaryTokenSalt = Security.getRandomUUID().replaceAll("-", "").trim();
 	
@@ -59,12 +125,16 @@ public class AccountManagerDynamoDB implements AccountManager, Authentication{
 	private int accessLvl = -1;
 	private int errorCode = 0;
 	private HashMap<String, Object> rawBasicInfo;
+	private String readProfile;			//end-point path of the request that selects the basics to read (AccountMapper.readProfiles)
 	
 	@Override
 	public boolean testModule() {
 		JSONObject test = DynamoDB.listTables();
 		if (Connectors.httpSuccess(test)){
 			JSONArray tableNames = JSON.getJArray(test, "TableNames");
+			if (AccountMapper.isSplitLayout()){
+				return tableNames.contains(DB.USERS) && tableNames.contains(DB.USERS_TOKENS) && tableNames.contains(DB.USERS_PROFILES);
+			}
 			return tableNames.contains(DB.USERS);
 		}else{
 			return false;
@@ -114,6 +184,7 @@ public class AccountManagerDynamoDB implements AccountManager, Authentication{
 				Role.developer.name(), Role.tester.name(), Role.translator.name(), Role.user.name());
 		adminRoles.put("all", roles);
 		int code = DynamoDB.writeAny(DB.USERS, AccountMapper.GUUID, guuid, new String[]{AccountMapper.ROLES}, new Object[]{adminRoles});
+		DB.DYNAMODB_WRITES.inc();
 		if (code != 0){ 
 			System.out.println("Something went wrong, admin user roles could not be set :-( Please check your config-file and make sure that all account-modules are working properly (there should be some test-classes to check them).");
 			return ""; 
@@ -177,6 +248,9 @@ public class AccountManagerDynamoDB implements AccountManager, Authentication{
 			//search parameters:
 			JSONObject response = readBasics(identifier, idType, new String[]{AccountMapper.GUUID, AccountMapper.EMAIL, AccountMapper.PHONE});
 			//System.out.println("RESPONSE: " + response.toJSONString());				//debug
+			if (response == null){
+				throw new RuntimeException("Authentication.userExists(...) reports 'DB query failed! Result unclear!'");
+			}
 			
 			//Status?
 			try {
@@ -442,9 +516,34 @@ public class AccountManagerDynamoDB implements AccountManager, Authentication{
 		//-------------------------------------------------------------------------------------------
 		
 		//write values and return true/false - error codes can be checked afterwards if necessary
+		if (AccountMapper.isSplitLayout()){
+			return createSplitUserItems(guuid, keys, objects);
+		}
 		boolean success = write_protected(guuid, IdHandler.Type.uid, keys, objects);
 		return success;
 	}
+	/**
+	 * Split layout: auth fields go to the user item, the rest (except tokens) to the profile item.
+	 */
+	private boolean createSplitUserItems(String guuid, String[] keys, Object[] objects){
+		ArrayList<String> authKeys = new ArrayList<>(), profileKeys = new ArrayList<>();
+		ArrayList<Object> authObjects = new ArrayList<>(), profileObjects = new ArrayList<>();
+		for (int i=0; i<keys.length; i++){
+			if (keys[i].equals(AccountMapper.TOKENS)){
+				continue;
+			}else if (AccountMapper.isAuthField(keys[i])){
+				authKeys.add(keys[i]);		authObjects.add(objects[i]);
+			}else{
+				profileKeys.add(keys[i]);	profileObjects.add(objects[i]);
+			}
+		}
+		//profile first, the user "exists" as soon as the auth item is written
+		errorCode = UserStorageSplit.writeProfile(guuid, profileKeys.toArray(new String[0]), profileObjects.toArray());
+		if (errorCode != 0){
+			return false;
+		}
+		return write_protected(guuid, IdHandler.Type.uid, authKeys.toArray(new String[0]), authObjects.toArray());
+	}
 	
 	//request change of password
 	@Override
@@ -609,8 +708,15 @@ public class AccountManagerDynamoDB implements AccountManager, Authentication{
 		Object[] objects = new Object[]{
 				pwd, salt, iterations, 
 				emptyTokenDummy};
+		if (AccountMapper.isSplitLayout()){
+			//token items stay until they expire
+			keys[3] = AccountMapper.TOKENS_VALID_FROM;
+			objects[3] = Long.valueOf(System.currentTimeMillis());
+		}
 
-		return write_protected(guuid, IdHandler.Type.uid, keys, objects);
+		boolean success = write_protected(guuid, IdHandler.Type.uid, keys, objects);
+		getInvalidationBus().publish(guuid, null);
+		return success;
 	}
 	
 	//delete user - fields userid
@@ -643,9 +749,16 @@ public class AccountManagerDynamoDB implements AccountManager, Authentication{
 		
 		//Connect
 		JSONObject response = DynamoDB.request(operation, request.toJSONString());
+		DB.DYNAMODB_WRITES.inc();
 		//System.out.println("RESPONSE: " + response.toJSONString());			//debug
 		//System.out.println("Time needed: " + Debugger.toc(tic) + "ms");		//debug
 		
+		//split layout: remove profile too, token items expire (and are not read without the user item)
+		if (AccountMapper.isSplitLayout() && Connectors.httpSuccess(response)){
+			UserStorageSplit.deleteProfile(userid);
+		}
+		getInvalidationBus().publish(userid, null);
+		
 		if (!Connectors.httpSuccess(response)){
 			errorCode = 3;
 			Debugger.println("deleteUser() - DynamoDB Response: " + response.toJSONString(), 1);			//debug
@@ -661,12 +774,48 @@ public class AccountManagerDynamoDB implements AccountManager, Authentication{
 	@Override
 	public void setRequestInfo(Object request) {
 		//this.request = (Request) request;
-		//currently not needed
+		//the end-point decides what basics are read during authentication
+		if (request instanceof Request){
+			String path = ((Request) request).pathInfo();
+			readProfile = AccountMapper.hasReadProfile(path)? path : null;
+		}
 	}
 
 	//check it!
 	@Override
 	public boolean authenticate(JSONObject info) {
+		if (!Config.authCoalescing){
+			return authenticateNow(info);
+		}
+		//concurrent requests with the same credentials share one lookup
+		AuthenticationResult result = authFlights.execute(getCredentialsDigest(info) + "\n" + readProfile, () -> {
+			AccountManagerDynamoDB leader = new AccountManagerDynamoDB();
+			leader.readProfile = readProfile;
+			boolean success = leader.authenticateNow(info);
+			return new AuthenticationResult(success, leader.userID, leader.accessLvl, leader.errorCode, leader.rawBasicInfo);
+		});
+		userID = result.userID;
+		accessLvl = result.accessLvl;
+		errorCode = result.errorCode;
+		rawBasicInfo = (result.rawBasicInfo != null)? new HashMap<>(result.rawBasicInfo) : null;
+		return result.success;
+	}
+	/**
+	 * Digest of the credentials to identify identical authentications without keeping the password in memory.
+	 */
+	private static String getCredentialsDigest(JSONObject info){
+		String credentials = info.get("userId") + "\n" + info.get("idType") + "\n" + info.get("client") + "\n" + info.get("pwd");
+		try{
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			return Base64.getEncoder().encodeToString(md.digest(credentials.getBytes(StandardCharsets.UTF_8)));
+		}catch (NoSuchAlgorithmException e){
+			throw new RuntimeException("SHA-256 not available", e);
+		}
+	}
+	/**
+	 * Authentication with database lookup (no coalescing).
+	 */
+	private boolean authenticateNow(JSONObject info) {
 		String username = (String) info.get("userId");
 		String password = (String) info.get("pwd");
 		String idType = (String) info.get("idType");
@@ -675,18 +824,49 @@ public class AccountManagerDynamoDB implements AccountManager, Authentication{
 		//use the DynamoDB access to read 
 		//-------------BASICS-------------
 		username = IdHandler.clean(username);
-		String[] essentialBasics = new String[]{
-				//REQUIRED:
-				AccountMapper.GUUID, AccountMapper.PASSWORD, AccountMapper.PWD_SALT, AccountMapper.PWD_ITERATIONS, AccountMapper.TOKENS
-		};
-		String[] requiredBasics = new String[]{
-				AccountMapper.ROLES
-		};
-		String[] returnBasics = (String[]) ArrayUtils.addAll(requiredBasics, AccountMapper.addReadBasics);
+		
+		//basics this end-point needs
+		String[] returnBasics = AccountMapper.getReadProfile(readProfile);
+		
+		//key token validation cached?
+		KeyTokenCache cache = null;
+		if (password.length() == 65 && idType.equals(IdHandler.Type.uid)){
+			cache = getTokenCache();
+			if (cache != null){
+				KeyTokenCache.CachedToken cached = cache.get(username, getAppTokenPath(client), password);
+				if (cached != null && cached.getRawBasicInfo() != null 
+						&& cached.getRawBasicInfo().keySet().containsAll(Arrays.asList(returnBasics))){
+					userID = cached.getUserID();
+					accessLvl = cached.getAccessLevel();
+					rawBasicInfo = cached.getRawBasicInfo();
+					errorCode = 0;
+					return true;
+				}
+			}
+		}
+		//too many failed password logins? (counted per GUUID, other IDs are checked after the read)
+		LoginBackoff backoff = null;
+		if (password.length() != 65){
+			backoff = LoginBackoff.getInstance();
+			if (backoff != null && idType.equals(IdHandler.Type.uid) && backoff.isBlocked(username)){
+				errorCode = 8;
+				return false;
+			}
+		}
+		long readStarted = System.currentTimeMillis();
+		
+		//read only what the credentials need: the token of this client or the password fields
+		String[] essentialBasics;
+		if (password.length() == 65){
+			String tokenPath = getAppTokenPath(client);
+			essentialBasics = (String[]) ArrayUtils.addAll(AccountMapper.tokenLoginReads, new String[]{ tokenPath, tokenPath + "_ts" });
+		}else{
+			essentialBasics = AccountMapper.passwordLoginReads;
+		}
 		String[] readBasics = (String[]) ArrayUtils.addAll(essentialBasics, returnBasics);
-		/* e.g.:
-		AccountMapper.GUUID, AccountMapper.PASSWORD, AccountMapper.PWD_SALT, AccountMapper.PWD_ITERATIONS, AccountMapper.TOKENS, 
-		AccountMapper.EMAIL, AccountMapper.PHONE, AccountMapper.ROLES,
+		/* e.g. key token login:
+		AccountMapper.GUUID, AccountMapper.TOKENS + ".app", AccountMapper.TOKENS + ".app_ts", 
+		AccountMapper.ROLES, AccountMapper.EMAIL, AccountMapper.PHONE,
 		AccountMapper.USER_NAME, AccountMapper.LANGUAGE, AccountMapper.USER_BIRTH
 		 */
 		JSONObject result = readBasics(username, idType, readBasics);
@@ -694,7 +874,7 @@ public class AccountManagerDynamoDB implements AccountManager, Authentication{
 		//System.out.println("Auth. res: " + result.toJSONString()); 		//debug
 		
 		//Status?
-		if (!Connectors.httpSuccess(result)){
+		if (result == null || !Connectors.httpSuccess(result)){
 			errorCode = 3;
 			return false;
 		
@@ -714,16 +894,19 @@ public class AccountManagerDynamoDB implements AccountManager, Authentication{
 					return false;
 				}
 			}
+			String guuid = (String) DynamoDB.typeConversion((JSONObject) item.get(AccountMapper.GUUID));
+			if (backoff != null && guuid != null && backoff.isBlocked(guuid)){
+				errorCode = 8;
+				return false;
+			}
 			//check password or key token
 			String pwd;
+			long tokenValidUntil = 0;
 			//token key
 			if (password.length() == 65){
 				String token = getAppTokenPath(client);
 				String token_ts = token + "_ts";
-				long valid_time = app_token_valid_time;
-				if (Clients.isRatherUnsafe(client)){
-					valid_time = key_token_valid_time;
-				}
+				long valid_time = getAppTokenValidTime(client);
 				JSONObject t = DynamoDB.dig(item, token);
 				if (t != null){
 					pwd = DynamoDB.typeConversion(t).toString();
@@ -735,6 +918,7 @@ public class AccountManagerDynamoDB implements AccountManager, Authentication{
 						//token became invalid
 						pwd = null;
 					}
+					tokenValidUntil = ts + valid_time;
 				}else{
 					pwd = null;
 				}
@@ -758,12 +942,18 @@ public class AccountManagerDynamoDB implements AccountManager, Authentication{
 			if (pwd != null && !pwd.trim().isEmpty() && password != null && !password.trim().isEmpty()){
 				//check
 				if (!pwd.equals(password)){
+					if (backoff != null && guuid != null){
+						backoff.recordFailure(guuid);
+					}
 					errorCode = 2;
 					return false;
 				
 				}else{
 					//authentication successful!
-					userID = (String) DynamoDB.typeConversion((JSONObject) item.get(AccountMapper.GUUID));
+					if (backoff != null && guuid != null){
+						backoff.reset(guuid);
+					}
+					userID = guuid;
 					accessLvl = 0;			//basic auth does level 0
 					errorCode = 0;			//no errors so far
 										
@@ -778,10 +968,18 @@ public class AccountManagerDynamoDB implements AccountManager, Authentication{
 					}					
 					//-----------------------------------------
 					
+					//remember key token validation (with all default basics only)
+					if (cache != null && readProfile == null){
+						cache.put(username, getAppTokenPath(client), password, tokenValidUntil, accessLvl, rawBasicInfo, readStarted);
+					}
+					
 					return true;
 				}
 				
 			}else{
+				if (backoff != null && guuid != null){
+					backoff.recordFailure(guuid);
+				}
 				errorCode = 2;
 				return false;
 			}
@@ -804,7 +1002,8 @@ public class AccountManagerDynamoDB implements AccountManager, Authentication{
 		}
 		//write server token
 		String tokenPath = getAppTokenPath(client);
-		boolean success = writeLoginToken(userid, IdHandler.Type.uid, userToken, tokenPath);
+		boolean success = writeLoginToken(userid, IdHandler.Type.uid, userToken, tokenPath, getAppTokenValidTime(client));
+		invalidateCachedTokens(userid, tokenPath); 		//old token of client is replaced
 		if (success && !userToken.isEmpty()){
 			errorCode = 0;
 			return userToken;
@@ -823,7 +1022,13 @@ public class AccountManagerDynamoDB implements AccountManager, Authentication{
 		Object[] objects = new Object[]{"-"};
 		//String[] keys = new String[]{ACCOUNT.TOKEN_KEY, ACCOUNT.TOKEN_KEY_TS};
 		//Object[] objects = new Object[]{"-", new Long(0)};
-		boolean success = write_protected(userid, IdHandler.Type.uid, keys, objects); 	//logout should be called with GUUID type
+		boolean success;
+		if (AccountMapper.isSplitLayout()){
+			success = UserStorageSplit.deleteToken(userid, token);
+		}else{
+			success = write_protected(userid, IdHandler.Type.uid, keys, objects); 	//logout should be called with GUUID type
+		}
+		getInvalidationBus().publish(userid, client);
 		if (success){
 			errorCode = 0;
 			return true;
@@ -839,7 +1044,15 @@ public class AccountManagerDynamoDB implements AccountManager, Authentication{
 		HashMap<String, Object> emptyTokenDummy = new HashMap<String, Object>();
 		String[] keys = new String[]{ AccountMapper.TOKENS };
 		Object[] objects = new Object[]{ emptyTokenDummy };
-		return write_protected(userid, IdHandler.Type.uid, keys, objects);
+		boolean success;
+		if (AccountMapper.isSplitLayout()){
+			errorCode = UserStorageSplit.invalidateTokens(userid);
+			success = (errorCode == 0);
+		}else{
+			success = write_protected(userid, IdHandler.Type.uid, keys, objects);
+		}
+		getInvalidationBus().publish(userid, null);
+		return success;
 	}
 	
 	//return ID
@@ -911,7 +1124,7 @@ public class AccountManagerDynamoDB implements AccountManager, Authentication{
 	 * @param client - client_info as sent by user
 	 * @return
 	 */
-	private String getAppTokenPath(String client){
+	private static String getAppTokenPath(String client){
 		if (client == null || client.isEmpty()){
 			client = ClientDefaults.client_info;
 		}
@@ -920,9 +1133,35 @@ public class AccountManagerDynamoDB implements AccountManager, Authentication{
 		//System.out.println("CLIENT TOKEN: " + token_path); 		//debug
 		return token_path;
 	}
+	/**
+	 * Time in ms the login token of this client is valid.
+	 */
+	private static long getAppTokenValidTime(String client){
+		if (Clients.isRatherUnsafe(client)){
+			return key_token_valid_time;
+		}
+		return app_token_valid_time;
+	}
 	
 	//-----------------------Common tools--------------------------
 	
+	/**
+	 * Remove cached key token validations of a user.
+	 * @param userid - GUUID of user
+	 * @param tokenPath - path of client token or null for all clients
+	 */
+	private static void invalidateCachedTokens(String userid, String tokenPath){
+		KeyTokenCache cache = getTokenCache();
+		if (cache != null && userid != null){
+			userid = IdHandler.clean(userid);
+			if (tokenPath == null){
+				cache.invalidateUser(userid);
+			}else{
+				cache.invalidate(userid, tokenPath);
+			}
+		}
+	}
+	
 	/**
 	 * Generate a token for the user creation and password change process.
 	 * @return random secure token
@@ -949,13 +1188,18 @@ public class AccountManagerDynamoDB implements AccountManager, Authentication{
 	
 	/**
 	 * Write token to server (userId, idType) at tokenPath with time stamp.
+	 * @param validTime - time the token is valid (split layout: the token item is removed by the database afterwards)
 	 * @return true/false
 	 */
-	private boolean writeLoginToken(String userid, String idType, String token, String tokenPath){
+	private boolean writeLoginToken(String userid, String idType, String token, String tokenPath, long validTime){
 		if (token == null || token.length() < 16 || !tokenPath.startsWith(AccountMapper.TOKENS)){
 			Debugger.println("writeSecureToken(..) failed! Either because of wrong token or wrong path.", 1);
 			return false;
 		}
+		if (AccountMapper.isSplitLayout()){
+			errorCode = UserStorageSplit.writeToken(userid, tokenPath, token, validTime);
+			return (errorCode == 0);
+		}
 		long now = System.currentTimeMillis();
 		String tokenPath_ts = tokenPath + "_ts";
 		String[] keys = new String[]{tokenPath, tokenPath_ts};
@@ -999,9 +1243,12 @@ public class AccountManagerDynamoDB implements AccountManager, Authentication{
 	 * @param userID - unique id, often email address
 	 * @param idType - ID type 
 	 * @param lookUp - array of strings to retrieve
-	 * @return JSONObject with result (check yourself for usefulness)
+	 * @return JSONObject with result (check yourself for usefulness) or null if the split layout batch read failed (throttling)
 	 */
 	private JSONObject readBasics(String userID, String idType, String[] lookUp){
+		if (AccountMapper.isSplitLayout()){
+			return UserStorageSplit.read(userID, idType, lookUp);
+		}
 		JSONObject response;
 		if (idType.equals(IdHandler.Type.uid)){
 			//UID
@@ -1015,10 +1262,12 @@ public class AccountManagerDynamoDB implements AccountManager, Authentication{
 		}else{
 			throw new RuntimeException("Authentication.read_basics(...) reports 'unsupported identifier type': " + idType);
 		}
+		DB.DYNAMODB_READS.inc();
 		//System.out.println("Time needed: " + Debugger.toc(tic) + "ms");		//debug
 		return response;
 	}
 	private JSONObject read_reg_token(String ticketID, String[] lookUp){
+		DB.DYNAMODB_READS.inc();
 		return DynamoDB.getItem(ticketsTable, DynamoDB.PRIMARY_TICKET_KEY, ticketID, lookUp);
 	}
 	
@@ -1034,6 +1283,7 @@ public class AccountManagerDynamoDB implements AccountManager, Authentication{
 		if (idType.equals(IdHandler.Type.uid)){
 			//UID
 			errorCode = DynamoDB.writeAny(tableName, AccountMapper.GUUID, userID, keys, objects);
+			DB.DYNAMODB_WRITES.inc();
 		/* TODO: fix!
 		}else if (idType.equals(ID.Type.email)){
 			//EMAIL
@@ -1053,6 +1303,7 @@ public class AccountManagerDynamoDB implements AccountManager, Authentication{
 	}
 	private boolean write_reg_token(String ticketID, String[] keys, Object[] objects){
 		errorCode = DynamoDB.writeAny(ticketsTable, DynamoDB.PRIMARY_TICKET_KEY, ticketID, keys, objects);
+		DB.DYNAMODB_WRITES.inc();
 		if (errorCode == 0){
 			return true;
 		}else{
@@ -6,6 +6,7 @@ import java.util.List;
 import java.util.Map;
 
 import de.bytemind.core.users.AccountBasicInfo;
+import de.bytemind.webservice.server.Config;
 
 /**
  * This class handles the mapping of certain account entries to the correct database and fields (if they are nested for example)
@@ -25,6 +26,7 @@ public class AccountMapper {
 	public static final String PWD_SALT = "pwd_salt";				//salt for hashed password
 	public static final String PWD_ITERATIONS = "pwd_iteration";	//iterations for hashed password
 	public static final String TOKENS = "tokens";		//different tokens for security purposes
+	public static final String TOKENS_VALID_FROM = "tokens_valid_from";	//split layout: client tokens written before this time are invalid (logout of all clients)
 
 	public static final String USER_NAME = AccountBasicInfo.NAME;		//user name as seen in User class: "<nickname>Boss<firstname>...<lastname>...";
 	public static final String ROLES = AccountBasicInfo.ROLES;			//user roles like "user", "developer", "tester", ...
@@ -60,7 +62,7 @@ public class AccountMapper {
 	*/
 	//these here MUST be restricted at any cost and can only be read by secure server methods
 	public static final List<String> restrictReadAccess = Arrays.asList(
-			PASSWORD, PWD_SALT, PWD_ITERATIONS, TOKENS
+			PASSWORD, PWD_SALT, PWD_ITERATIONS, TOKENS, TOKENS_VALID_FROM
 	);
 	
 	//------------------- ACCOUNT BASICS ---------------------
@@ -79,4 +81,72 @@ public class AccountMapper {
 	};
 	//TODO: Needs simplification! 
 	//NOTE: if you add more basics here you might want to adjust "Account" and "AccountBasicInfo" as well. 
+	
+	//------------------- READ PROFILES ---------------------
+	//define what authentication reads from the database - only the fields of the presented credentials plus the basics of the end-point
+	
+	//key token login - in addition the token of the client is read: TOKENS + ".[client]" and TOKENS + ".[client]_ts"
+	public static String[] tokenLoginReads = new String[]{
+			GUUID
+	};
+	//password login
+	public static String[] passwordLoginReads = new String[]{
+			GUUID, PASSWORD, PWD_SALT, PWD_ITERATIONS
+	};
+	
+	//basics returned by authentication per end-point (path of the request), others get ROLES + addReadBasics
+	public static Map<String, String[]> readProfiles = new HashMap<>();
+	static {
+		readProfiles.put("/stats", new String[]{ ROLES });
+		readProfiles.put("/config", new String[]{ ROLES });
+		readProfiles.put("/authWhitelist", new String[]{ ROLES });
+		readProfiles.put("/accountInfos", new String[]{ ROLES });
+	}
+	
+	/**
+	 * Basics authentication should return for this end-point.
+	 * @param path - path of the request (e.g. "/stats") or null for the default (ROLES + addReadBasics)
+	 */
+	public static String[] getReadProfile(String path){
+		String[] profile = (path != null)? readProfiles.get(path) : null;
+		if (profile == null){
+			profile = new String[addReadBasics.length + 1];
+			profile[0] = ROLES;
+			System.arraycopy(addReadBasics, 0, profile, 1, addReadBasics.length);
+		}
+		return profile;
+	}
+	/**
+	 * True if the end-point uses its own read profile (else the default).
+	 */
+	public static boolean hasReadProfile(String path){
+		return path != null && readProfiles.containsKey(path);
+	}
+	
+	//------------------- STORAGE LAYOUT ---------------------
+	//"split" layout (Config.userStorageLayout): the users item keeps only what authentication needs, client tokens and the rest
+	//(profile, statistics) have their own items in DB.USERS_TOKENS and DB.USERS_PROFILES (see UserStorageSplit)
+	
+	public static final String TOKEN_ID = "TokenId";			//primary key of a token item: GUUID + "/" + client
+	public static final String TOKEN = "token";					//token of the client
+	public static final String TOKEN_TS = "token_ts";			//time the token was written
+	public static final String TOKEN_EXPIRES = "expires";		//expiry in epoch seconds - DynamoDB TTL attribute, expired tokens are pruned by the database
+	
+	//top-level fields of the auth item, everything else except TOKENS goes to the profile item
+	public static final List<String> authItemFields = Arrays.asList(
+			GUUID, EMAIL, PHONE, PASSWORD, PWD_SALT, PWD_ITERATIONS, ROLES, TOKENS_VALID_FROM
+	);
+	
+	/**
+	 * True if users are stored in the "split" layout.
+	 */
+	public static boolean isSplitLayout(){
+		return "split".equals(Config.userStorageLayout);
+	}
+	/**
+	 * True if the (top-level of the) key belongs to the auth item of the split layout.
+	 */
+	public static boolean isAuthField(String key){
+		return authItemFields.contains(key.replaceFirst("\\..*", "").trim());
+	}
 }
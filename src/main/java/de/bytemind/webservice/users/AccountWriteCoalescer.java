@@ -0,0 +1,198 @@
+package de.bytemind.webservice.users;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.simple.JSONObject;
+
+import de.bytemind.core.tools.Debugger;
+import de.bytemind.core.tools.JSON;
+import de.bytemind.core.users.Account;
+import de.bytemind.webservice.metrics.Counter;
+import de.bytemind.webservice.metrics.Metrics;
+
+/**
+ * Coalesces {@link AccountData#setInfos(Account, JSONObject)} calls of the same user. Updates that arrive within "window" ms are
+ * merged key by key (last writer wins in call order) and written with one call of the target. Every caller gets a future that
+ * completes with the error code of the merged write.<br>
+ * A batch is written in order after the previous batch of the user. Keys that overlap with a waiting key (e.g. "name" and
+ * "name.first") close the batch and start a new one since they cannot be written in one update.
+ *
+ * @author Florian Quirin
+ *
+ */
+public class AccountWriteCoalescer {
+
+	private static final Counter CALLS = Metrics.counter("AccountWriteCoalescer:calls");
+	private static final Counter WRITES = Metrics.counter("AccountWriteCoalescer:writes");
+
+	/**
+	 * Merged updates of one user (modified only inside map operations).
+	 */
+	private static class Batch {
+		final Account user;
+		final CompletableFuture<Void> previous;
+		final CompletableFuture<Void> done = new CompletableFuture<>();
+		final Map<String, Object> data = new LinkedHashMap<>();
+		final List<CompletableFuture<Integer>> callers = new ArrayList<>();
+		boolean sealed = false;
+
+		Batch(Account user, CompletableFuture<Void> previous){
+			this.user = user;
+			this.previous = previous;
+		}
+	}
+
+	private final AccountData target;
+	private final long window;
+	private final Map<String, Batch> batches = new ConcurrentHashMap<>();
+	private final ScheduledExecutorService scheduler;
+	private final ExecutorService writers;
+
+	/**
+	 * Create coalescer.
+	 * @param target - account data module that writes the merged updates (without coalescing)
+	 * @param window - time in ms updates of a user are collected
+	 * @param concurrency - max. parallel writes
+	 */
+	public AccountWriteCoalescer(AccountData target, long window, int concurrency){
+		this.target = target;
+		this.window = Math.max(1, window);
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "account-write-coalescer");
+			t.setDaemon(true);
+			return t;
+		});
+		AtomicInteger n = new AtomicInteger(0);
+		this.writers = Executors.newFixedThreadPool(Math.max(1, concurrency), r -> {
+			Thread t = new Thread(r, "account-writer-" + n.getAndIncrement());
+			t.setDaemon(true);
+			return t;
+		});
+		Debugger.println("Account write coalescing: window " + this.window + "ms, " + Math.max(1, concurrency) + " writers", 3);
+	}
+
+	/**
+	 * Queue an update of the user.
+	 * @param user - authenticated user
+	 * @param data - keys and values to write (see {@link AccountData#setInfos(Account, JSONObject)})
+	 * @return future with the error code of the write (0 - no error)
+	 */
+	@SuppressWarnings("unchecked")
+	public CompletableFuture<Integer> setInfos(Account user, JSONObject data){
+		if (data == null || data.isEmpty()){
+			return CompletableFuture.completedFuture(4);
+		}
+		if (user.getAccessLevel() < 0){
+			return CompletableFuture.completedFuture(2);
+		}
+		CALLS.inc();
+		CompletableFuture<Integer> result = new CompletableFuture<>();
+		String userID = user.getUserID();
+		Batch[] closed = new Batch[1];
+		Batch[] opened = new Batch[1];
+		batches.compute(userID, (k, b) -> {
+			if (b != null && !b.sealed && overlaps(b.data.keySet(), data.keySet())){
+				b.sealed = true;
+				closed[0] = b;
+			}
+			if (b == null || b.sealed){
+				b = new Batch(user, (b != null)? b.done : CompletableFuture.completedFuture(null));
+				opened[0] = b;
+			}
+			for (Entry<String, Object> e : (Set<Entry<String, Object>>) data.entrySet()){
+				b.data.put(e.getKey(), e.getValue());
+			}
+			b.callers.add(result);
+			return b;
+		});
+		if (closed[0] != null){
+			startWrite(userID, closed[0]);
+		}
+		if (opened[0] != null){
+			Batch b = opened[0];
+			scheduler.schedule(() -> seal(userID, b), window, TimeUnit.MILLISECONDS);
+		}
+		return result;
+	}
+
+	/**
+	 * Paths that cannot be set in the same update: equal top-level parts where one path is a prefix of the other.
+	 */
+	private static boolean overlaps(Set<String> waiting, Set<?> keys){
+		for (Object o : keys){
+			String k = (String) o;
+			for (String w : waiting){
+				if (!k.equals(w) && (k.startsWith(w + ".") || w.startsWith(k + "."))){
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private void seal(String userID, Batch b){
+		boolean[] sealedNow = new boolean[1];
+		batches.computeIfPresent(userID, (k, current) -> {
+			if (current == b && !b.sealed){
+				b.sealed = true;
+				sealedNow[0] = true;
+			}
+			return current;
+		});
+		if (sealedNow[0]){
+			startWrite(userID, b);
+		}
+	}
+	private void startWrite(String userID, Batch b){
+		b.previous.whenComplete((r, e) -> writers.execute(() -> write(userID, b)));
+	}
+	private void write(String userID, Batch b){
+		int code;
+		try{
+			JSONObject data = new JSONObject();
+			for (Entry<String, Object> e : b.data.entrySet()){
+				JSON.put(data, e.getKey(), e.getValue());
+			}
+			code = target.setInfos(b.user, data);
+			WRITES.inc();
+		}catch (Exception e){
+			Debugger.println("AccountWriteCoalescer - write of '" + userID + "' failed: " + e.getMessage(), 1);
+			code = 4;
+		}
+		batches.remove(userID, b);		//written, next batch may start right away
+		b.done.complete(null);
+		for (CompletableFuture<Integer> f : b.callers){
+			f.complete(code);
+		}
+	}
+
+	/**
+	 * Users with updates waiting or being written.
+	 */
+	public int getPendingUsers(){
+		return batches.size();
+	}
+
+	/**
+	 * Current state as string for the statistics end-point.
+	 */
+	public static String getStatsAsString(){
+		long calls = CALLS.get();
+		long writes = WRITES.get();
+		return "Account write coalescing:" +
+				"\n- calls: " + calls + ", writes: " + writes + ((writes > 0)? (", calls per write: " + Math.round(calls * 10.0d / writes) / 10.0d) : "") + "\n";
+	}
+
+}
@@ -0,0 +1,115 @@
+package de.bytemind.webservice.users;
+
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.URI;
+
+import de.bytemind.core.client.ClientDefaults;
+import de.bytemind.core.tools.Debugger;
+import de.bytemind.core.users.Account;
+import de.bytemind.core.users.AccountBasicInfo;
+import de.bytemind.webservice.metrics.Counter;
+import de.bytemind.webservice.metrics.Metrics;
+import de.bytemind.webservice.server.Config;
+
+/**
+ * In-process replacement of the full account authentication. A core {@link Account} authenticates via "authenticationEndpoint_url",
+ * if that URL points back to this server every account check would be a HTTP request to ourselves. In that case the account is
+ * built from the {@link AuthenticationToken} (same module the '/authentication' end-point uses) without leaving the process.
+ * Remote end-points (real micro-service deployments) keep the normal path.
+ *
+ * @author Florian Quirin
+ *
+ */
+public class AuthenticationBridge {
+
+	private static final Counter IN_PROCESS = Metrics.counter("Authentication:inProcess");
+
+	private static volatile String checkedUrl;
+	private static volatile boolean checkedLocal;
+
+	/**
+	 * True if "Config.authInProcess" is set and the authentication end-point is this server (loopback or own address, same port).
+	 * The result is cached until the URL changes.
+	 */
+	public static boolean isLocalEndpoint(){
+		if (!Config.authInProcess){
+			return false;
+		}
+		String url = ClientDefaults.auth_endpoint_url;
+		if (url == null || url.isEmpty()){
+			return false;
+		}
+		if (!url.equals(checkedUrl)){
+			checkedLocal = isLocalUrl(url, Config.serverPort);
+			checkedUrl = url;
+			Debugger.println("Authentication end-point '" + url + "' is " + (checkedLocal? "this server - using in-process authentication." : "remote."), 3);
+		}
+		return checkedLocal;
+	}
+
+	/**
+	 * Check if the URL points to this machine and the given port.
+	 */
+	public static boolean isLocalUrl(String url, int serverPort){
+		try{
+			URI uri = new URI(url);
+			String host = uri.getHost();
+			if (host == null){
+				return false;
+			}
+			int port = uri.getPort();
+			if (port < 0){
+				port = "https".equalsIgnoreCase(uri.getScheme())? 443 : 80;
+			}
+			if (port != serverPort){
+				return false;
+			}
+			InetAddress address = InetAddress.getByName(host);
+			return address.isLoopbackAddress() || address.isAnyLocalAddress() || NetworkInterface.getByInetAddress(address) != null;
+		}catch (Exception e){
+			Debugger.println("AuthenticationBridge - cannot check URL '" + url + "': " + e.getMessage(), 1);
+			return false;
+		}
+	}
+
+	/**
+	 * Build the account of an authenticated (or failed) token. The account does not contact the end-point again, 'authenticate()'
+	 * returns the token result and 'getErrorCode()' its error code.
+	 */
+	public static Account getAccount(AuthenticationToken token){
+		IN_PROCESS.inc();
+		return new InProcessAccount(token);
+	}
+
+	/**
+	 * Account filled from a token like the '/authentication' end-point would do it.
+	 */
+	private static class InProcessAccount extends Account {
+		private final boolean authenticated;
+		private final int errorCode;
+
+		InProcessAccount(AuthenticationToken token){
+			super(token.getUserID(), token.getAccessLevel(), token.getClientInfo());
+			this.authenticated = token.authenticated();
+			this.errorCode = authenticated? 0 : token.getErrorCode();
+			if (authenticated && token.getRawBasicInfo() != null){
+				AccountBasicInfo basics = token.upgradeAndGetBasicInfo();
+				if (basics != null){
+					mapBasicInfo(basics);
+				}
+			}
+		}
+
+		@Override
+		public boolean authenticate(){
+			return authenticated;
+		}
+
+		@Override
+		public int getErrorCode(){
+			return errorCode;
+		}
+	}
+
+}
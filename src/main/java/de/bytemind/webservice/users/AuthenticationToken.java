@@ -1,6 +1,7 @@
 package de.bytemind.webservice.users;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.json.simple.JSONObject;
@@ -32,6 +33,7 @@ public class AuthenticationToken {
 	private int accessLvl = -1;					//user access level received from authenticator
 	private Map<String, Object> rawBasicInfo;		//basic info of the user acquired during authentication. Note: format can depend on module that is used!
 	private int errorCode;						//errorCode passed down from authenticator
+	private AccountBasicInfo signedBasicInfo;	//basic info (roles) of a signed access token
 	
 	private Authentication auth;		//the authentication module in use, created in constructor
 	
@@ -39,6 +41,14 @@ public class AuthenticationToken {
 	 * Create invalid, empty token.
 	 */
 	public AuthenticationToken(){}
+	/**
+	 * Create invalid token for requests without valid credentials (error code 2).
+	 */
+	public static AuthenticationToken accessDenied(){
+		AuthenticationToken token = new AuthenticationToken();
+		token.errorCode = 2;
+		return token;
+	}
 	/**
 	 * Default constructor for token.
 	 */
@@ -49,6 +59,26 @@ public class AuthenticationToken {
 	 * Default constructor for token.
 	 */
 	public AuthenticationToken(String username, String password, String idType, String client, Request request){
+		//signed access token - verified locally without database
+		if (SignedAccessToken.isSignedToken(password)){
+			SignedAccessToken signed = SignedAccessToken.verify(username, password);
+			if (signed != null){
+				timeCreated = System.currentTimeMillis();
+				authenticated = true;
+				userID = signed.getUserID();
+				key = password;
+				this.client = signed.getClient();
+				accessLvl = signed.getAccessLevel();
+				rawBasicInfo = new HashMap<>();
+				JSONObject basics = new JSONObject();
+				JSON.put(basics, AccountBasicInfo.ROLES, Converters.list2JsonArray(signed.getRoles()));
+				signedBasicInfo = new AccountBasicInfo(basics);
+				errorCode = 0;
+			}else{
+				errorCode = 2;
+			}
+			return;
+		}
 		try {
 			auth = (Authentication) ClassBuilder.construct(Config.authenticateFast_module); 	//e.g.: new Authentication_Demo();
 			auth.setRequestInfo(request);
@@ -157,9 +187,30 @@ public class AuthenticationToken {
 	}
 	
 	public AccountBasicInfo upgradeAndGetBasicInfo() {
+		if (signedBasicInfo != null){
+			return signedBasicInfo;
+		}
 		return auth.upgradeBasicInfo(rawBasicInfo);
 	}
 	
+	/**
+	 * Get a signed access token (see {@link SignedAccessToken}) that other servers can verify without database.
+	 * @param client - client the token is issued for
+	 * @return token or empty string if signed tokens are disabled or the user is not authenticated
+	 */
+	public String getSignedAccessToken(String client){
+		if (!authenticated() || !SignedAccessToken.isEnabled()){
+			return "";
+		}
+		List<?> roles = null;
+		AccountBasicInfo basics = upgradeAndGetBasicInfo();
+		JSONObject basicsJson = (basics != null)? basics.exportJson() : null;
+		if (basicsJson != null && basicsJson.get(AccountBasicInfo.ROLES) instanceof List){
+			roles = (List<?>) basicsJson.get(AccountBasicInfo.ROLES);
+		}
+		return SignedAccessToken.create(userID, accessLvl, client, roles);
+	}
+	
 	/**
 	 * Get a secure key token for user authentication and write it to database.
 	 * @param client - depending on the client different tokens can be used  
@@ -178,6 +229,10 @@ public class AuthenticationToken {
 	 * @return false/true
 	 */
 	public boolean logoutUser(String client){
+		if (auth == null){
+			//token was signed - no module used so far
+			auth = (Authentication) ClassBuilder.construct(Config.authenticateFast_module);
+		}
 		boolean res = auth.logout(userID, client);
 		errorCode = auth.getErrorCode(); 
 		return res;
@@ -0,0 +1,52 @@
+package de.bytemind.webservice.users;
+
+/**
+ * Message of the {@link InvalidationBus}: cached authentication data of a user (and client) is no longer valid,
+ * e.g. after logout or password change.
+ *
+ * @author Florian Quirin
+ *
+ */
+public class Invalidation {
+
+	private final String userId;
+	private final String client;
+	private final long time;
+
+	/**
+	 * Create message.
+	 * @param userId - user ID
+	 * @param client - client info or null for all clients of the user
+	 * @param time - system time in ms when the invalidation happened (on the publishing node)
+	 */
+	public Invalidation(String userId, String client, long time){
+		this.userId = userId;
+		this.client = client;
+		this.time = time;
+	}
+
+	public String getUserID(){
+		return userId;
+	}
+	/**
+	 * Client info or null for all clients.
+	 */
+	public String getClient(){
+		return client;
+	}
+	public long getTime(){
+		return time;
+	}
+
+	/**
+	 * Key of identical invalidations (user and client).
+	 */
+	public String getKey(){
+		return userId + "\n" + ((client == null)? "*" : client);
+	}
+
+	@Override
+	public String toString(){
+		return "Invalidation: " + userId + ", client: " + ((client == null)? "all" : client) + ", time: " + time;
+	}
+}
@@ -0,0 +1,42 @@
+package de.bytemind.webservice.users;
+
+import java.util.function.Consumer;
+
+/**
+ * Bus to tell all caches of authentication data (on this and other server nodes) that a user logged out, changed the password etc.<br>
+ * Publishing delivers the message to the local subscribers right away, implementations with a transport send it to the other nodes
+ * in batches. The implementation is set via "Config.invalidationBus_module".
+ *
+ * @author Florian Quirin
+ *
+ */
+public interface InvalidationBus {
+
+	/**
+	 * Add a cache that should drop data of invalidated users.
+	 */
+	public void subscribe(Consumer<Invalidation> subscriber);
+
+	/**
+	 * Invalidate cached data of this user (and client) on all nodes.
+	 * @param userId - user ID
+	 * @param client - client info or null for all clients
+	 */
+	public void publish(String userId, String client);
+
+	/**
+	 * Start the transport (if there is one).
+	 */
+	public void start();
+
+	/**
+	 * Send what is left and stop the transport.
+	 */
+	public void close();
+
+	/**
+	 * Current state as string for the statistics end-point.
+	 */
+	public String getStatsAsString();
+
+}
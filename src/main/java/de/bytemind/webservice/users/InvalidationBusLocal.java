@@ -0,0 +1,78 @@
+package de.bytemind.webservice.users;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import de.bytemind.core.tools.Debugger;
+import de.bytemind.webservice.metrics.Counter;
+import de.bytemind.webservice.metrics.Metrics;
+
+/**
+ * In-process {@link InvalidationBus}: messages reach the subscribers of this server only. Use it for single node deployments.
+ * Implementations with a transport extend this class and add the sending part.
+ *
+ * @author Florian Quirin
+ *
+ */
+public class InvalidationBusLocal implements InvalidationBus {
+
+	protected static final Counter PUBLISHED = Metrics.counter("InvalidationBus:published");
+	protected static final Counter DELIVERED = Metrics.counter("InvalidationBus:delivered");
+
+	private final List<Consumer<Invalidation>> subscribers = new CopyOnWriteArrayList<>();
+
+	@Override
+	public void subscribe(Consumer<Invalidation> subscriber){
+		subscribers.add(subscriber);
+	}
+
+	@Override
+	public void publish(String userId, String client){
+		if (userId == null){
+			return;
+		}
+		PUBLISHED.inc();
+		Invalidation invalidation = new Invalidation(userId, client, System.currentTimeMillis());
+		deliver(invalidation);
+		send(invalidation);
+	}
+
+	/**
+	 * Hand message to the transport to reach other nodes. The local bus has none.
+	 */
+	protected void send(Invalidation invalidation){
+		//no other nodes
+	}
+
+	/**
+	 * Hand message to all local subscribers. A failing subscriber does not stop the others.
+	 */
+	protected void deliver(Invalidation invalidation){
+		for (Consumer<Invalidation> s : subscribers){
+			try{
+				s.accept(invalidation);
+			}catch (Exception e){
+				Debugger.println("InvalidationBus - subscriber failed for " + invalidation + ": " + e.getMessage(), 1);
+			}
+		}
+		DELIVERED.inc();
+	}
+
+	@Override
+	public void start(){
+		//nothing to start
+	}
+
+	@Override
+	public void close(){
+		//nothing to close
+	}
+
+	@Override
+	public String getStatsAsString(){
+		return "Invalidation bus (local):" +
+				"\n- subscribers: " + subscribers.size() + ", published: " + PUBLISHED.get() + ", delivered: " + DELIVERED.get() + "\n";
+	}
+
+}
@@ -0,0 +1,341 @@
+package de.bytemind.webservice.users;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+
+import de.bytemind.core.tools.Converters;
+import de.bytemind.core.tools.Debugger;
+import de.bytemind.core.tools.JSON;
+import de.bytemind.core.tools.RandomGen;
+import de.bytemind.webservice.metrics.Counter;
+import de.bytemind.webservice.metrics.LatencyHistogram;
+import de.bytemind.webservice.metrics.Metrics;
+import de.bytemind.webservice.server.Config;
+
+/**
+ * {@link InvalidationBus} that sends messages via UDP to the other nodes ("Config.invalidationBusPeers" as "host:port" separated by ",").
+ * Messages are collected for "Config.invalidationBusBatch" ms, identical messages (same user and client) in one batch are sent once.
+ * Datagrams are signed with HMAC-SHA256 of "Config.serverSecret", unsigned or foreign datagrams are dropped.<br>
+ * Delivery is best-effort: there is no acknowledgement, instead every datagram is sent {@link #SENDS} times (one batch interval apart)
+ * so a single lost packet doesn't matter. Receivers ignore copies they have seen already and datagrams older than
+ * 2 x batch + {@link #MAX_CLOCK_SKEW} (replays). If all copies get lost a revoked signed access token stays valid on that node until
+ * it expires, so keep "Config.accessTokenTtl" short.<br>
+ * Works on one machine too (loopback peers with different ports). The time between publishing and delivery on the receiving
+ * node is recorded as "InvalidationBus:lag" (requires synchronized clocks across machines).
+ *
+ * @author Florian Quirin
+ *
+ */
+public class InvalidationBusUdp extends InvalidationBusLocal {
+
+	private static final int MAX_PER_DATAGRAM = 100;
+	private static final int MAX_DATAGRAM = 65507;
+	static final int SENDS = 3;							//every datagram is sent this often (against packet loss)
+	static final long MAX_CLOCK_SKEW = 2000;			//max. difference of the clocks of two nodes in ms
+
+	private static final Counter DEDUPLICATED = Metrics.counter("InvalidationBus:deduplicated");
+	private static final Counter SENT_BATCHES = Metrics.counter("InvalidationBus:sentDatagrams");
+	private static final Counter RECEIVED = Metrics.counter("InvalidationBus:received");
+	private static final Counter DROPPED = Metrics.counter("InvalidationBus:dropped");
+	private static final Counter COPIES = Metrics.counter("InvalidationBus:copiesIgnored");
+	private static final LatencyHistogram LAG = Metrics.histogram("InvalidationBus:lag");
+
+	private final int port;
+	private final List<InetSocketAddress> peers = new ArrayList<>();
+	private final long batchMs;
+	private final String nodeId = "node-" + RandomGen.randomInt(100000, 999999) + "-" + System.nanoTime();
+
+	private final Map<String, Invalidation> pending = new ConcurrentHashMap<>();
+	private final long maxAge;							//datagrams older than this are dropped
+	private final List<Outgoing> outgoing = new ArrayList<>();		//datagrams with copies left to send (guarded by itself)
+	private final Map<String, Long> seen = new ConcurrentHashMap<>();	//IDs of received datagrams and when to forget them
+	private final AtomicLong datagramIds = new AtomicLong(0);
+	private volatile long lastSeenSweep = 0;
+	private DatagramSocket socket;
+	private ScheduledExecutorService sender;
+	private Thread receiver;
+	private volatile boolean running = false;
+	private final ThreadLocal<Mac> macs;
+
+	/**
+	 * Create bus with settings from "Config.invalidationBus*".
+	 */
+	public InvalidationBusUdp(){
+		this(Config.invalidationBusPort, Config.invalidationBusPeers, Config.invalidationBusBatch, Config.serverSecret);
+	}
+	/**
+	 * Create bus.
+	 * @param port - UDP port to receive messages (0 for a random port)
+	 * @param peers - other nodes as "host:port" separated by ","
+	 * @param batchMs - time messages are collected before they are sent
+	 * @param secret - shared secret of all nodes to sign the datagrams
+	 */
+	public InvalidationBusUdp(int port, String peers, long batchMs, String secret){
+		this.port = port;
+		this.batchMs = Math.max(1, batchMs);
+		this.maxAge = 2 * this.batchMs + MAX_CLOCK_SKEW;
+		SecretKeySpec key = new SecretKeySpec(("invalidation-bus:" + secret).getBytes(StandardCharsets.UTF_8), "HmacSHA256");
+		this.macs = ThreadLocal.withInitial(() -> {
+			try{
+				Mac mac = Mac.getInstance("HmacSHA256");
+				mac.init(key);
+				return mac;
+			}catch (GeneralSecurityException e){
+				throw new RuntimeException("HmacSHA256 not available", e);
+			}
+		});
+		if (peers != null){
+			for (String peer : peers.split(",")){
+				peer = peer.trim();
+				if (!peer.isEmpty()){
+					String[] hostPort = peer.split(":(?=[0-9]+$)");
+					if (hostPort.length != 2){
+						throw new RuntimeException("InvalidationBusUdp - invalid peer (use 'host:port'): " + peer);
+					}
+					this.peers.add(new InetSocketAddress(hostPort[0], Integer.parseInt(hostPort[1])));
+				}
+			}
+		}
+	}
+
+	@Override
+	public synchronized void start(){
+		if (running){
+			return;
+		}
+		try{
+			socket = new DatagramSocket(port);
+		}catch (SocketException e){
+			throw new RuntimeException("InvalidationBusUdp - cannot open UDP port " + port + ": " + e.getMessage(), e);
+		}
+		running = true;
+		receiver = new Thread(this::receive, "invalidation-bus-receiver");
+		receiver.setDaemon(true);
+		receiver.start();
+		sender = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "invalidation-bus-sender");
+			t.setDaemon(true);
+			return t;
+		});
+		sender.scheduleWithFixedDelay(this::flush, batchMs, batchMs, TimeUnit.MILLISECONDS);
+		Debugger.println("InvalidationBusUdp - listening on port " + getPort() + ", peers: " + peers.size() + ", batch: " + batchMs + "ms", 3);
+	}
+
+	/**
+	 * Port the bus is listening on (useful if it was started with port 0).
+	 */
+	public int getPort(){
+		return (socket != null)? socket.getLocalPort() : port;
+	}
+
+	@Override
+	protected void send(Invalidation invalidation){
+		if (peers.isEmpty()){
+			return;
+		}
+		if (pending.put(invalidation.getKey(), invalidation) != null){
+			DEDUPLICATED.inc();
+		}
+	}
+
+	/**
+	 * Datagram content with the copies that still have to be sent.
+	 */
+	private static class Outgoing {
+		final long id;
+		final List<Invalidation> batch;
+		int sendsLeft = SENDS;
+
+		Outgoing(long id, List<Invalidation> batch){
+			this.id = id;
+			this.batch = batch;
+		}
+	}
+
+	/**
+	 * Send pending messages to all peers and the next copy of recent datagrams.
+	 */
+	private void flush(){
+		synchronized (outgoing){
+			flushNow();
+		}
+	}
+	private void flushNow(){
+		if (!pending.isEmpty()){
+			List<Invalidation> batch = new ArrayList<>();
+			for (String key : pending.keySet()){
+				Invalidation inv = pending.remove(key);
+				if (inv != null){
+					batch.add(inv);
+				}
+			}
+			for (int i=0; i<batch.size(); i+=MAX_PER_DATAGRAM){
+				outgoing.add(new Outgoing(datagramIds.incrementAndGet(), new ArrayList<>(batch.subList(i, Math.min(batch.size(), i + MAX_PER_DATAGRAM)))));
+			}
+		}
+		Iterator<Outgoing> it = outgoing.iterator();
+		while (it.hasNext()){
+			Outgoing out = it.next();
+			//every copy gets the current time so receivers can drop old datagrams
+			byte[] data = encode(out.batch, out.id, System.currentTimeMillis());
+			for (InetSocketAddress peer : peers){
+				try{
+					socket.send(new DatagramPacket(data, data.length, peer));
+					SENT_BATCHES.inc();
+				}catch (Exception e){
+					Debugger.println("InvalidationBusUdp - sending to " + peer + " failed: " + e.getMessage(), 1);
+				}
+			}
+			if (--out.sendsLeft <= 0){
+				it.remove();
+			}
+		}
+	}
+
+	private void receive(){
+		byte[] buffer = new byte[MAX_DATAGRAM];
+		while (running){
+			try{
+				DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+				socket.receive(packet);
+				long now = System.currentTimeMillis();
+				List<Invalidation> batch = decode(new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8), now);
+				if (batch == null){
+					DROPPED.inc();
+					continue;
+				}
+				for (Invalidation inv : batch){
+					RECEIVED.inc();
+					deliver(inv);
+					LAG.recordMicros(Math.max(0, now - inv.getTime()) * 1000);
+				}
+			}catch (Exception e){
+				if (running){
+					Debugger.println("InvalidationBusUdp - receive failed: " + e.getMessage(), 1);
+				}
+			}
+		}
+	}
+
+	//------------Format: [signature]\n[{"node":..., "id":..., "time":..., "inv":[[user, client, time], ...]}]----------------
+
+	/**
+	 * Signed datagram.
+	 * @param id - datagram ID (same for all copies)
+	 * @param time - time of sending
+	 */
+	byte[] encode(List<Invalidation> batch, long id, long time){
+		List<Object> entries = new ArrayList<>();
+		for (Invalidation inv : batch){
+			entries.add(Converters.list2JsonArray(Arrays.asList(inv.getUserID(), inv.getClient(), inv.getTime())));
+		}
+		JSONObject msg = new JSONObject();
+		JSON.put(msg, "node", nodeId);
+		JSON.put(msg, "id", id);
+		JSON.put(msg, "time", time);
+		JSON.put(msg, "inv", Converters.list2JsonArray(entries));
+		String body = msg.toJSONString();
+		return (sign(body) + "\n" + body).getBytes(StandardCharsets.UTF_8);
+	}
+	/**
+	 * Messages of a datagram or null if it is not signed correctly or too old. Own messages and copies that have been received
+	 * already give an empty list.
+	 * @param now - time of receiving
+	 */
+	List<Invalidation> decode(String datagram, long now) throws Exception {
+		int split = datagram.indexOf('\n');
+		if (split < 0){
+			return null;
+		}
+		String body = datagram.substring(split + 1);
+		if (!MessageDigest.isEqual(datagram.substring(0, split).getBytes(StandardCharsets.UTF_8), sign(body).getBytes(StandardCharsets.UTF_8))){
+			return null;
+		}
+		JSONObject msg = (JSONObject) new JSONParser().parse(body);
+		List<Invalidation> batch = new ArrayList<>();
+		String node = (String) msg.get("node");
+		if (nodeId.equals(node)){
+			return batch;
+		}
+		//replay protection: recent datagrams only, each one once
+		long time = Converters.obj2long(msg.get("time"), 0);
+		if (now - time > maxAge || time - now > MAX_CLOCK_SKEW){
+			return null;
+		}
+		sweepSeen(now);
+		if (seen.putIfAbsent(node + "/" + msg.get("id"), now + maxAge + SENDS * batchMs) != null){
+			COPIES.inc();
+			return batch;
+		}
+		for (Object o : (JSONArray) msg.get("inv")){
+			JSONArray entry = (JSONArray) o;
+			batch.add(new Invalidation((String) entry.get(0), (String) entry.get(1), Converters.obj2long(entry.get(2), 0)));
+		}
+		return batch;
+	}
+	/**
+	 * Forget IDs of datagrams that would be too old anyway.
+	 */
+	private void sweepSeen(long now){
+		if (now - lastSeenSweep > maxAge){
+			lastSeenSweep = now;
+			seen.values().removeIf(forgetAt -> forgetAt < now);
+		}
+	}
+	private String sign(String body){
+		return Base64.getEncoder().encodeToString(macs.get().doFinal(body.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	@Override
+	public synchronized void close(){
+		if (!running){
+			return;
+		}
+		sender.shutdown();
+		try{
+			sender.awaitTermination(batchMs * 2, TimeUnit.MILLISECONDS);
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+		//send what is left including the remaining copies
+		for (int i=0; i<SENDS; i++){
+			flush();
+		}
+		running = false;
+		socket.close();
+	}
+
+	@Override
+	public String getStatsAsString(){
+		LatencyHistogram.Snapshot lag = LAG.getSnapshot();
+		return "Invalidation bus (UDP port " + getPort() + ", peers: " + peers.size() + "):" +
+				"\n- published: " + PUBLISHED.get() + ", deduplicated: " + DEDUPLICATED.get() + ", datagrams sent: " + SENT_BATCHES.get() +
+				"\n- received: " + RECEIVED.get() + ", dropped: " + DROPPED.get() + ", copies ignored: " + COPIES.get() + ", pending: " + pending.size() +
+				"\n- lag (ms): mean " + Math.round(lag.getMeanMicros() / 1000) + ", p99 " + (lag.getPercentileMicros(0.99) / 1000) +
+				", max " + (lag.getMaxMicros() / 1000) + "\n";
+	}
+
+}
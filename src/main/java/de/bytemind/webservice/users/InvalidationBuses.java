@@ -0,0 +1,33 @@
+package de.bytemind.webservice.users;
+
+import de.bytemind.core.tools.ClassBuilder;
+import de.bytemind.webservice.server.Config;
+
+/**
+ * Holds the {@link InvalidationBus} of this server ("Config.invalidationBus_module"). There is one bus per node so the UDP port is
+ * bound once, the caches (key token cache of {@link AccountManagerDynamoDB}, revocations of {@link SignedAccessToken}) subscribe to it
+ * where they are used.
+ *
+ * @author Florian Quirin
+ *
+ */
+public class InvalidationBuses {
+
+	private static volatile InvalidationBus bus;
+
+	/**
+	 * Get the bus of this node. Created and started on first call.
+	 */
+	public static InvalidationBus get(){
+		if (bus == null){
+			synchronized (InvalidationBuses.class){
+				if (bus == null){
+					InvalidationBus newBus = (InvalidationBus) ClassBuilder.construct(Config.invalidationBus_module);
+					newBus.start();
+					bus = newBus;
+				}
+			}
+		}
+		return bus;
+	}
+}
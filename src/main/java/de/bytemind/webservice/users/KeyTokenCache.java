@@ -0,0 +1,259 @@
+package de.bytemind.webservice.users;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import de.bytemind.core.tools.Security;
+
+/**
+ * Bounded cache of successful key token validations. Entries are stored per user (GUUID) and client token path together with
+ * a hash of the token (never the token itself) and expire after a fixed time or when the token itself becomes invalid, whatever comes first.<br>
+ * Logout, password change etc. have to call {@link #invalidate(String, String)} or {@link #invalidateUser(String)}.
+ *
+ * @author Florian Quirin
+ *
+ */
+public class KeyTokenCache {
+
+	private static final int STRIPES = 16;
+
+	private final long ttl;
+	private final int maxUsersPerStripe;
+	private final LinkedHashMap<String, UserTokens>[] stripes;
+	private final long[] evictedInvalidationAt;		//latest invalidation time of users removed from each stripe (guarded by the stripe)
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder invalidations = new LongAdder();
+
+	/**
+	 * Result of a cached validation.
+	 */
+	public static class CachedToken {
+		final String tokenHash;
+		final long expires;
+		final String userID;
+		final int accessLvl;
+		final Map<String, Object> rawBasicInfo;
+
+		CachedToken(String tokenHash, long expires, String userID, int accessLvl, Map<String, Object> rawBasicInfo){
+			this.tokenHash = tokenHash;
+			this.expires = expires;
+			this.userID = userID;
+			this.accessLvl = accessLvl;
+			this.rawBasicInfo = Collections.unmodifiableMap(new HashMap<>(rawBasicInfo));
+		}
+		public String getUserID(){
+			return userID;
+		}
+		public int getAccessLevel(){
+			return accessLvl;
+		}
+		/**
+		 * Copy of the raw basic info, safe to modify.
+		 */
+		public HashMap<String, Object> getRawBasicInfo(){
+			return new HashMap<>(rawBasicInfo);
+		}
+	}
+	/**
+	 * All cached tokens of one user.
+	 */
+	private static class UserTokens {
+		final Map<String, CachedToken> byPath = new ConcurrentHashMap<>(4);
+		volatile long invalidatedAt = 0;
+	}
+
+	/**
+	 * Create cache.
+	 * @param maxUsers - max. number of users in cache (least recently used are removed first)
+	 * @param ttl - max. time in ms a validation is kept
+	 */
+	@SuppressWarnings("unchecked")
+	public KeyTokenCache(int maxUsers, long ttl){
+		this.ttl = ttl;
+		this.maxUsersPerStripe = Math.max(1, maxUsers / STRIPES);
+		this.stripes = new LinkedHashMap[STRIPES];
+		this.evictedInvalidationAt = new long[STRIPES];
+		for (int i = 0; i < STRIPES; i++){
+			final int index = i;
+			this.stripes[i] = new LinkedHashMap<String, UserTokens>(16, 0.75f, true){
+				private static final long serialVersionUID = 1L;
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, UserTokens> eldest){
+					if (size() > maxUsersPerStripe){
+						evictions.increment();
+						//the invalidation time is lost with the entry, remember it for reads that are still running
+						evictedInvalidationAt[index] = Math.max(evictedInvalidationAt[index], eldest.getValue().invalidatedAt);
+						return true;
+					}
+					return false;
+				}
+			};
+		}
+	}
+
+	private LinkedHashMap<String, UserTokens> getStripe(String guuid){
+		return stripes[getStripeIndex(guuid)];
+	}
+	private static int getStripeIndex(String guuid){
+		return (guuid.hashCode() & 0x7fffffff) % STRIPES;
+	}
+
+	/**
+	 * Get a cached validation.
+	 * @param guuid - user ID
+	 * @param tokenPath - client token path
+	 * @param token - key token submitted by user
+	 * @return cached result or null
+	 */
+	public CachedToken get(String guuid, String tokenPath, String token){
+		LinkedHashMap<String, UserTokens> stripe = getStripe(guuid);
+		UserTokens ut;
+		synchronized (stripe){
+			ut = stripe.get(guuid);
+		}
+		CachedToken ct = (ut != null)? ut.byPath.get(tokenPath) : null;
+		if (ct != null && ct.expires > System.currentTimeMillis() && ct.tokenHash.equals(hashToken(token))){
+			hits.increment();
+			return ct;
+		}
+		misses.increment();
+		return null;
+	}
+
+	/**
+	 * Store a successful validation.
+	 * @param guuid - user ID
+	 * @param tokenPath - client token path
+	 * @param token - key token submitted by user
+	 * @param tokenValidUntil - time when the token itself expires
+	 * @param accessLvl - access level of validation
+	 * @param rawBasicInfo - raw basic info of validation
+	 * @param readStarted - time when the database read that validated the token started. If the user was invalidated after this the result is not stored.
+	 */
+	public void put(String guuid, String tokenPath, String token, long tokenValidUntil, int accessLvl, Map<String, Object> rawBasicInfo, long readStarted){
+		long expires = Math.min(System.currentTimeMillis() + ttl, tokenValidUntil);
+		CachedToken ct = new CachedToken(hashToken(token), expires, guuid, accessLvl, rawBasicInfo);
+		int index = getStripeIndex(guuid);
+		LinkedHashMap<String, UserTokens> stripe = stripes[index];
+		synchronized (stripe){
+			UserTokens ut = stripe.get(guuid);
+			if (ut == null){
+				//the user might have been invalidated and evicted while the read was running
+				if (evictedInvalidationAt[index] >= readStarted){
+					return;
+				}
+				ut = new UserTokens();
+				stripe.put(guuid, ut);
+			}else if (ut.invalidatedAt >= readStarted){
+				return;
+			}
+			ut.byPath.put(tokenPath, ct);
+		}
+	}
+
+	/**
+	 * Remove the cached token of one client of the user.
+	 */
+	public void invalidate(String guuid, String tokenPath){
+		invalidations.increment();
+		LinkedHashMap<String, UserTokens> stripe = getStripe(guuid);
+		synchronized (stripe){
+			UserTokens ut = getOrCreate(stripe, guuid);
+			ut.invalidatedAt = System.currentTimeMillis();
+			ut.byPath.remove(tokenPath);
+		}
+	}
+	/**
+	 * Remove all cached tokens of the user.
+	 */
+	public void invalidateUser(String guuid){
+		invalidations.increment();
+		LinkedHashMap<String, UserTokens> stripe = getStripe(guuid);
+		synchronized (stripe){
+			UserTokens ut = getOrCreate(stripe, guuid);
+			ut.invalidatedAt = System.currentTimeMillis();
+			ut.byPath.clear();
+		}
+	}
+	private UserTokens getOrCreate(LinkedHashMap<String, UserTokens> stripe, String guuid){
+		UserTokens ut = stripe.get(guuid);
+		if (ut == null){
+			//keep the invalidation time to block results of reads that are still running
+			ut = new UserTokens();
+			stripe.put(guuid, ut);
+		}
+		return ut;
+	}
+
+	/**
+	 * Remove everything.
+	 */
+	public void clear(){
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < STRIPES; i++){
+			synchronized (stripes[i]){
+				stripes[i].clear();
+				evictedInvalidationAt[i] = now;
+			}
+		}
+	}
+
+	//--------- metrics ---------
+
+	public long getHits(){
+		return hits.sum();
+	}
+	public long getMisses(){
+		return misses.sum();
+	}
+	public long getEvictions(){
+		return evictions.sum();
+	}
+	public long getInvalidations(){
+		return invalidations.sum();
+	}
+	/**
+	 * Number of users in cache.
+	 */
+	public int size(){
+		int size = 0;
+		for (LinkedHashMap<String, UserTokens> stripe : stripes){
+			synchronized (stripe){
+				size += stripe.size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Current state of the cache as string for the statistics end-point.
+	 */
+	public String getStatsAsString(){
+		long h = getHits();
+		long m = getMisses();
+		long rate = ((h + m) > 0)? Math.round(100.0d * h / (h + m)) : 0;
+		return "Key token cache:" +
+				"\n- hits: " + h + ", misses: " + m + " (hit rate " + rate + "%)" +
+				"\n- users: " + size() + ", evictions: " + getEvictions() + ", invalidations: " + getInvalidations() + "\n";
+	}
+
+	//--------- tools ---------
+
+	private static String hashToken(String token){
+		try{
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			return Security.bytearrayToHexString(md.digest(token.getBytes(StandardCharsets.UTF_8)));
+		}catch (Exception e){
+			throw new RuntimeException("KeyTokenCache - token hashing failed!", e);
+		}
+	}
+}
@@ -0,0 +1,191 @@
+package de.bytemind.webservice.users;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.bytemind.webservice.metrics.Counter;
+import de.bytemind.webservice.metrics.Metrics;
+import de.bytemind.webservice.server.Config;
+
+/**
+ * Failed password logins per account (GUUID, so email and phone logins of a user share one counter) with exponential backoff.
+ * Only wrong passwords of existing accounts are counted. After "Config.loginBackoffThreshold" failures the account is
+ * blocked for "Config.loginBackoffBase" ms, every further failure doubles the time (up to "Config.loginBackoffMax").
+ * One failure is forgotten every "Config.loginBackoffDecay" ms and a successful login resets the account.<br>
+ * The state of an account is one AtomicLong (time of last failure and failures). At most "Config.loginBackoffMaxKeys" accounts
+ * are kept, accounts without failures are removed first and blocked accounts last.
+ *
+ * @author Florian Quirin
+ *
+ */
+public class LoginBackoff {
+
+	private static final int COUNT_BITS = 16;
+	private static final long COUNT_MASK = (1l << COUNT_BITS) - 1;
+	private static final long SWEEP_INTERVAL = 1000;
+
+	private static final Counter FAILURES = Metrics.counter("Login:failed");
+	private static final Counter REJECTED = Metrics.counter("Login:backoffRejected");
+
+	private static volatile LoginBackoff instance;
+
+	/**
+	 * Get the backoff of this server or null if it is deactivated ("Config.loginBackoffThreshold" = 0).
+	 */
+	public static LoginBackoff getInstance(){
+		if (instance == null && Config.loginBackoffThreshold > 0){
+			synchronized (LoginBackoff.class){
+				if (instance == null){
+					instance = new LoginBackoff(Config.loginBackoffThreshold, Config.loginBackoffBase, Config.loginBackoffMax,
+							Config.loginBackoffDecay, Config.loginBackoffMaxKeys);
+				}
+			}
+		}
+		return instance;
+	}
+
+	private final int threshold;
+	private final long baseMs;
+	private final long maxMs;
+	private final long decayMs;
+	private final int maxKeys;
+	private final long startNanos = System.nanoTime();
+	private final Map<String, AtomicLong> accounts = new ConcurrentHashMap<>();
+	private final AtomicLong lastSweep = new AtomicLong(0);
+
+	/**
+	 * Create backoff.
+	 * @param threshold - failures before the first block
+	 * @param baseMs - first block time
+	 * @param maxMs - max. block time
+	 * @param decayMs - time after which one failure is forgotten
+	 * @param maxKeys - max. accounts kept in memory
+	 */
+	public LoginBackoff(int threshold, long baseMs, long maxMs, long decayMs, int maxKeys){
+		this.threshold = Math.max(1, threshold);
+		this.baseMs = Math.max(1, baseMs);
+		this.maxMs = Math.max(this.baseMs, maxMs);
+		this.decayMs = Math.max(1, decayMs);
+		this.maxKeys = Math.max(16, maxKeys);
+	}
+
+	/**
+	 * Time in ms until the account may try a password login again, 0 if it is not blocked.
+	 * @param userId - cleaned user ID as used for the login
+	 */
+	public long getRemainingMs(String userId){
+		AtomicLong state = accounts.get(userId);
+		if (state == null){
+			return 0;
+		}
+		long s = state.get();
+		long now = now();
+		long failures = failures(s, now);
+		if (failures < threshold){
+			return 0;
+		}
+		long window = Math.min(maxMs, baseMs << Math.min(30, failures - threshold));
+		return Math.max(0, (s >>> COUNT_BITS) + window - now);
+	}
+	/**
+	 * Check if the account is blocked and count the rejection.
+	 */
+	public boolean isBlocked(String userId){
+		if (getRemainingMs(userId) > 0){
+			REJECTED.inc();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Count a failed password login.
+	 */
+	public void recordFailure(String userId){
+		FAILURES.inc();
+		AtomicLong state = accounts.get(userId);
+		if (state == null){
+			if (accounts.size() >= maxKeys){
+				makeRoom();
+			}
+			state = accounts.computeIfAbsent(userId, k -> new AtomicLong(0));
+		}
+		while (true){
+			long s = state.get();
+			long now = now();
+			long failures = Math.min(COUNT_MASK, failures(s, now) + 1);
+			if (state.compareAndSet(s, (now << COUNT_BITS) | failures)){
+				return;
+			}
+		}
+	}
+	/**
+	 * Forget the failures of an account after a successful login.
+	 */
+	public void reset(String userId){
+		accounts.remove(userId);
+	}
+
+	/**
+	 * Failures left after decay.
+	 */
+	private long failures(long state, long now){
+		long failures = state & COUNT_MASK;
+		if (failures == 0){
+			return 0;
+		}
+		long forgotten = (now - (state >>> COUNT_BITS)) / decayMs;
+		return Math.max(0, failures - forgotten);
+	}
+	private long now(){
+		return (System.nanoTime() - startNanos) / 1000000l;
+	}
+
+	/**
+	 * Remove accounts without failures, then accounts that are not blocked and if it is still full any account.
+	 */
+	private void makeRoom(){
+		long now = now();
+		long last = lastSweep.get();
+		if ((now - last) >= SWEEP_INTERVAL && lastSweep.compareAndSet(last, now)){
+			Iterator<Map.Entry<String, AtomicLong>> it = accounts.entrySet().iterator();
+			while (it.hasNext()){
+				Map.Entry<String, AtomicLong> e = it.next();
+				if (failures(e.getValue().get(), now) == 0 || (accounts.size() >= maxKeys && getRemainingMs(e.getKey()) == 0)){
+					it.remove();
+				}
+			}
+		}
+		Iterator<String> it = accounts.keySet().iterator();
+		while (accounts.size() >= maxKeys && it.hasNext()){
+			if (getRemainingMs(it.next()) == 0){
+				it.remove();
+			}
+		}
+		it = accounts.keySet().iterator();
+		while (accounts.size() >= maxKeys && it.hasNext()){
+			it.next();
+			it.remove();
+		}
+	}
+
+	//------------Metrics----------------
+
+	/**
+	 * Current state as string for the statistics end-point.
+	 */
+	public String getStatsAsString(){
+		int blocked = 0;
+		for (String userId : accounts.keySet()){
+			if (getRemainingMs(userId) > 0){
+				blocked++;
+			}
+		}
+		return "Login backoff:" +
+				"\n- accounts with failures: " + accounts.size() + " (max. " + maxKeys + "), blocked now: " + blocked +
+				"\n- failed logins: " + FAILURES.get() + ", rejected during backoff: " + REJECTED.get() + "\n";
+	}
+
+}
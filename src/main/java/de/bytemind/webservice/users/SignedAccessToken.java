@@ -0,0 +1,331 @@
+package de.bytemind.webservice.users;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+
+import de.bytemind.core.tools.Converters;
+import de.bytemind.core.tools.Debugger;
+import de.bytemind.core.tools.JSON;
+import de.bytemind.core.users.IdHandler;
+import de.bytemind.webservice.metrics.Counter;
+import de.bytemind.webservice.metrics.Metrics;
+import de.bytemind.webservice.server.Config;
+
+/**
+ * Self-contained access token that can be verified without database, format: "s1.[key ID].[payload].[signature]".<br>
+ * It is a short-lived bearer token for read-only requests and "check": it can't be used to create new tokens, logout, delete the account
+ * or change the password (these need the key token or password).<br>
+ * The payload holds user ID, access level, client, roles, time of issue and expiry (Base64url JSON), the signature is HMAC-SHA256
+ * with a key derived from "Config.serverSecret" and the key ID. Key IDs rotate every "Config.accessTokenKeyRotation" ms, the current
+ * and the previous key are accepted. Tokens live "Config.accessTokenTtl" ms, logouts are kept in a revocation list for that time.<br>
+ * Every server with the same secret can verify the tokens. Tokens are only issued and accepted if the secret has at least
+ * {@link #MIN_SECRET_LENGTH} characters.
+ *
+ * @author Florian Quirin
+ *
+ */
+public class SignedAccessToken {
+
+	public static final String PREFIX = "s1.";
+	public static final int MIN_SECRET_LENGTH = 16;
+	private static final String ALGORITHM = "HmacSHA256";
+	private static final String ALL_CLIENTS = "*";
+
+	private static final Counter ISSUED = Metrics.counter("AccessToken:issued");
+	private static final Counter VERIFIED = Metrics.counter("AccessToken:verified");
+	private static final Counter REJECTED = Metrics.counter("AccessToken:rejected");
+	private static final Counter REVOKED = Metrics.counter("AccessToken:revoked");
+
+	private static final Map<Long, SecretKeySpec> keys = new ConcurrentHashMap<>();
+	private static volatile String keysSecret;
+	private static final Map<String, Long> revoked = new ConcurrentHashMap<>();
+	private static final AtomicLong lastSweep = new AtomicLong(0);
+	private static final ThreadLocal<Mac> macs = ThreadLocal.withInitial(() -> {
+		try{
+			return Mac.getInstance(ALGORITHM);
+		}catch (GeneralSecurityException e){
+			throw new RuntimeException(ALGORITHM + " not available", e);
+		}
+	});
+
+	private final String userId;
+	private final int accessLevel;
+	private final String client;
+	private final List<String> roles;
+	private final long issuedAt;
+	private final long expiresAt;
+
+	private SignedAccessToken(String userId, int accessLevel, String client, List<String> roles, long issuedAt, long expiresAt){
+		this.userId = userId;
+		this.accessLevel = accessLevel;
+		this.client = client;
+		this.roles = roles;
+		this.issuedAt = issuedAt;
+		this.expiresAt = expiresAt;
+	}
+
+	/**
+	 * Signed tokens are active ("Config.accessTokenTtl" &gt; 0) and the server secret is strong enough.
+	 */
+	public static boolean isEnabled(){
+		return Config.accessTokenTtl > 0 && Config.serverSecret != null && Config.serverSecret.length() >= MIN_SECRET_LENGTH;
+	}
+	/**
+	 * Looks like a signed token (prefix check only).
+	 */
+	public static boolean isSignedToken(String token){
+		return token != null && token.startsWith(PREFIX);
+	}
+
+	/**
+	 * Issue a token.
+	 * @param userId - unique user ID (GUUID)
+	 * @param accessLevel - access level of the authentication
+	 * @param client - client info
+	 * @param roles - user roles or null
+	 * @return token or empty string if signed tokens are disabled
+	 */
+	public static String create(String userId, int accessLevel, String client, List<?> roles){
+		if (!isEnabled() || userId == null){
+			return "";
+		}
+		long now = System.currentTimeMillis();
+		JSONObject payload = new JSONObject();
+		JSON.put(payload, "uid", userId);
+		JSON.put(payload, "lvl", accessLevel);
+		JSON.put(payload, "cl", client);
+		if (roles != null){
+			List<String> names = new ArrayList<>();
+			for (Object r : roles){
+				names.add(String.valueOf(r));
+			}
+			JSON.put(payload, "roles", Converters.list2JsonArray(names));
+		}
+		JSON.put(payload, "iat", now);
+		JSON.put(payload, "exp", now + getTtl());
+		String signedPart = PREFIX + currentKeyId(now) + "." + base64(payload.toJSONString().getBytes(StandardCharsets.UTF_8));
+		ISSUED.inc();
+		return signedPart + "." + base64(sign(currentKeyId(now), signedPart));
+	}
+
+	/**
+	 * Verify signature, expiry and revocation of a token.
+	 * @param userId - user ID the client sent with the token (cleaned and compared to the token) or null to skip the check
+	 * @param token - the signed token
+	 * @return verified token or null
+	 */
+	public static SignedAccessToken verify(String userId, String token){
+		SignedAccessToken verified = parse(token);
+		if (verified == null
+				|| (userId != null && !IdHandler.clean(userId).equals(IdHandler.clean(verified.userId)))
+				|| isRevoked(verified)){
+			REJECTED.inc();
+			return null;
+		}
+		VERIFIED.inc();
+		return verified;
+	}
+	private static SignedAccessToken parse(String token){
+		if (!isEnabled() || !isSignedToken(token)){
+			return null;
+		}
+		try{
+			int sigStart = token.lastIndexOf('.');
+			int kidEnd = token.indexOf('.', PREFIX.length());
+			if (sigStart <= kidEnd || kidEnd < 0){
+				return null;
+			}
+			long now = System.currentTimeMillis();
+			long kid = Long.parseLong(token.substring(PREFIX.length(), kidEnd));
+			long currentKid = currentKeyId(now);
+			if (kid != currentKid && kid != currentKid - 1){
+				return null;
+			}
+			String signedPart = token.substring(0, sigStart);
+			byte[] signature = Base64.getUrlDecoder().decode(token.substring(sigStart + 1));
+			if (!MessageDigest.isEqual(signature, sign(kid, signedPart))){
+				return null;
+			}
+			String json = new String(Base64.getUrlDecoder().decode(token.substring(kidEnd + 1, sigStart)), StandardCharsets.UTF_8);
+			JSONObject payload = (JSONObject) new JSONParser().parse(json);
+			String uid = (String) payload.get("uid");
+			long expiresAt = Converters.obj2long(payload.get("exp"), 0);
+			if (uid == null || expiresAt <= now){
+				return null;
+			}
+			List<String> roles = new ArrayList<>();
+			JSONArray ja = (JSONArray) payload.get("roles");
+			if (ja != null){
+				for (Object r : ja){
+					roles.add((String) r);
+				}
+			}
+			return new SignedAccessToken(uid, Converters.obj2int(payload.get("lvl"), -1),
+					(String) payload.get("cl"), Collections.unmodifiableList(roles),
+					Converters.obj2long(payload.get("iat"), 0), expiresAt);
+		}catch (Exception e){
+			//broken token
+			return null;
+		}
+	}
+
+	//------------Revocation----------------
+
+	/**
+	 * Reject tokens of this user (and client) issued until now, e.g. after logout. Entries are kept as long as tokens live.
+	 * @param userId - user ID
+	 * @param client - client info or null for all clients
+	 */
+	public static void revoke(String userId, String client){
+		revoke(userId, client, System.currentTimeMillis());
+	}
+	/**
+	 * Reject tokens of this user (and client) issued until 'time', e.g. for a logout on another node (see {@link InvalidationBus}).
+	 */
+	public static void revoke(String userId, String client, long time){
+		if (userId == null){
+			return;
+		}
+		sweepRevoked();
+		revoked.merge(revocationKey(IdHandler.clean(userId), (client == null)? ALL_CLIENTS : client), time, Math::max);
+		REVOKED.inc();
+	}
+	/**
+	 * Revoke tokens for every logout, password change etc. published on the bus. Every server that verifies signed tokens must do this,
+	 * not only the authentication server.
+	 */
+	public static void subscribeRevocations(InvalidationBus bus){
+		bus.subscribe(inv -> revoke(inv.getUserID(), inv.getClient(), inv.getTime()));
+	}
+	private static boolean isRevoked(SignedAccessToken token){
+		if (revoked.isEmpty()){
+			return false;
+		}
+		String id = IdHandler.clean(token.userId);
+		Long all = revoked.get(revocationKey(id, ALL_CLIENTS));
+		if (all != null && token.issuedAt <= all){
+			return true;
+		}
+		Long client = revoked.get(revocationKey(id, token.client));
+		return client != null && token.issuedAt <= client;
+	}
+	private static String revocationKey(String userId, String client){
+		return userId + "\n" + client;
+	}
+	/**
+	 * Remove revocations older than the token life-time (at most once per second).
+	 */
+	private static void sweepRevoked(){
+		long now = System.currentTimeMillis();
+		long last = lastSweep.get();
+		if ((now - last) >= 1000 && lastSweep.compareAndSet(last, now)){
+			long oldest = now - getTtl();
+			Iterator<Long> it = revoked.values().iterator();
+			while (it.hasNext()){
+				if (it.next() < oldest){
+					it.remove();
+				}
+			}
+		}
+	}
+
+	//------------Keys----------------
+
+	/**
+	 * Token life-time in ms, never longer than the key rotation so the previous key covers all valid tokens.
+	 */
+	public static long getTtl(){
+		return Math.min(Config.accessTokenTtl, getRotation());
+	}
+	private static long getRotation(){
+		return Math.max(60000, Config.accessTokenKeyRotation);
+	}
+	private static long currentKeyId(long now){
+		return now / getRotation();
+	}
+	private static byte[] sign(long kid, String signedPart){
+		Mac mac = macs.get();
+		try{
+			mac.init(getKey(kid));
+		}catch (GeneralSecurityException e){
+			throw new RuntimeException("Cannot init " + ALGORITHM, e);
+		}
+		return mac.doFinal(signedPart.getBytes(StandardCharsets.UTF_8));
+	}
+	/**
+	 * Key of this ID derived from the server secret: HMAC(secret, "access-token-key:" + ID).
+	 */
+	private static SecretKeySpec getKey(long kid){
+		String secret = Config.serverSecret;
+		if (!secret.equals(keysSecret)){
+			keys.clear();
+			keysSecret = secret;
+			Debugger.println("SignedAccessToken - derived new keys from server secret.", 3);
+		}
+		SecretKeySpec key = keys.get(kid);
+		if (key == null){
+			try{
+				Mac mac = Mac.getInstance(ALGORITHM);
+				mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), ALGORITHM));
+				key = new SecretKeySpec(mac.doFinal(("access-token-key:" + kid).getBytes(StandardCharsets.UTF_8)), ALGORITHM);
+			}catch (GeneralSecurityException e){
+				throw new RuntimeException("Cannot derive access token key", e);
+			}
+			if (keys.size() > 4){
+				keys.clear();
+			}
+			keys.put(kid, key);
+		}
+		return key;
+	}
+	private static String base64(byte[] data){
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(data);
+	}
+
+	//------------Claims----------------
+
+	public String getUserID(){
+		return userId;
+	}
+	public int getAccessLevel(){
+		return accessLevel;
+	}
+	public String getClient(){
+		return client;
+	}
+	public List<String> getRoles(){
+		return roles;
+	}
+	public long getIssuedAt(){
+		return issuedAt;
+	}
+	public long getExpiresAt(){
+		return expiresAt;
+	}
+
+	/**
+	 * Current state as string for the statistics end-point.
+	 */
+	public static String getStatsAsString(){
+		return "Signed access tokens: " + (isEnabled()? "on" : "off") +
+				"\n- issued: " + ISSUED.get() + ", verified: " + VERIFIED.get() + ", rejected: " + REJECTED.get() +
+				"\n- revoked: " + REVOKED.get() + ", revocations kept: " + revoked.size() + "\n";
+	}
+
+}
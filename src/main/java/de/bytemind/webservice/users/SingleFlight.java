@@ -0,0 +1,75 @@
+package de.bytemind.webservice.users;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import de.bytemind.webservice.metrics.Counter;
+import de.bytemind.webservice.metrics.Metrics;
+
+/**
+ * Coalesces identical calls that run at the same time: the first caller of a key does the work, callers that arrive while it is
+ * running wait for it and get the same result (or exception). Nothing is cached after the call finished.<br>
+ * Counters "[name]:calls" and "[name]:merged" are registered in {@link Metrics}.
+ *
+ * @author Florian Quirin
+ *
+ * @param <V> - result type
+ */
+public class SingleFlight<V> {
+
+	private final ConcurrentHashMap<String, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+	private final Counter calls;
+	private final Counter merged;
+
+	/**
+	 * Create single-flight group.
+	 * @param name - name for the metrics, e.g. "Authentication"
+	 */
+	public SingleFlight(String name){
+		this.calls = Metrics.counter(name + ":calls");
+		this.merged = Metrics.counter(name + ":merged");
+	}
+
+	/**
+	 * Run 'loader' for 'key' or wait for the call that is already running for this key.
+	 * @param key - key of identical calls (should not contain secrets, use a digest)
+	 * @param loader - the actual call
+	 * @return result of the call
+	 */
+	public V execute(String key, Supplier<V> loader){
+		calls.inc();
+		CompletableFuture<V> own = new CompletableFuture<>();
+		CompletableFuture<V> running = inFlight.putIfAbsent(key, own);
+		if (running != null){
+			merged.inc();
+			try{
+				return running.join();
+			}catch (CompletionException e){
+				if (e.getCause() instanceof RuntimeException){
+					throw (RuntimeException) e.getCause();
+				}
+				throw e;
+			}
+		}
+		try{
+			V result = loader.get();
+			own.complete(result);
+			return result;
+		}catch (RuntimeException | Error e){
+			own.completeExceptionally(e);
+			throw e;
+		}finally{
+			inFlight.remove(key, own);
+		}
+	}
+
+	/**
+	 * Number of keys with a call running right now.
+	 */
+	public int getInFlight(){
+		return inFlight.size();
+	}
+
+}
@@ -0,0 +1,235 @@
+package de.bytemind.webservice.users;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import de.bytemind.core.tools.Debugger;
+
+/**
+ * Write-behind aggregation of user statistics. Calls are counted per user in memory and written as one merged update
+ * (sum of calls, latest login) every "flushInterval" ms or as soon as "flushThreshold" users are waiting. Writes run on a pool of
+ * "concurrency" threads, failed users are merged back and written with the next flush. Remaining updates are written when the JVM shuts down,
+ * if the process crashes up to one flush interval of statistics is lost (off by default, see "Config.statisticsWriteBehind").
+ *
+ * @author Florian Quirin
+ *
+ */
+public class StatisticsWriteBehind {
+
+	/**
+	 * Writes the merged statistics of one user.
+	 */
+	public interface Writer {
+		/**
+		 * @param userID - user ID
+		 * @param calls - calls to add to the total
+		 * @param lastLogin - time of the latest login
+		 * @return true if the update was written
+		 */
+		boolean write(String userID, long calls, long lastLogin);
+	}
+
+	/**
+	 * Statistics of one user waiting to be written (modified only inside map operations).
+	 */
+	private static class Pending {
+		long calls = 0;
+		long lastLogin = 0;
+	}
+
+	private final Writer writer;
+	private final long flushInterval;
+	private final int flushThreshold;
+	private final int maxPending;
+	private final Map<String, Pending> pending = new ConcurrentHashMap<>();
+	private final ScheduledExecutorService scheduler;
+	private final ExecutorService writers;
+	private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+	private volatile boolean running = true;
+
+	//metrics
+	private final LongAdder recorded = new LongAdder();
+	private final LongAdder written = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+	private final LongAdder flushes = new LongAdder();
+	private final AtomicInteger lastFlush = new AtomicInteger(0);
+
+	/**
+	 * Create and start aggregator.
+	 * @param writer - writes the merged update of a user
+	 * @param flushInterval - max. time in ms updates are collected
+	 * @param flushThreshold - users waiting that trigger an early flush
+	 * @param concurrency - max. parallel writes
+	 */
+	public StatisticsWriteBehind(Writer writer, long flushInterval, int flushThreshold, int concurrency){
+		this.writer = writer;
+		this.flushInterval = Math.max(1, flushInterval);
+		this.flushThreshold = Math.max(1, flushThreshold);
+		this.maxPending = this.flushThreshold * 10;
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "statistics-write-behind");
+			t.setDaemon(true);
+			return t;
+		});
+		AtomicInteger n = new AtomicInteger(0);
+		this.writers = Executors.newFixedThreadPool(Math.max(1, concurrency), r -> {
+			Thread t = new Thread(r, "statistics-writer-" + n.getAndIncrement());
+			t.setDaemon(true);
+			return t;
+		});
+		scheduler.scheduleWithFixedDelay(this::flush, this.flushInterval, this.flushInterval, TimeUnit.MILLISECONDS);
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> shutdown(10000), "statistics-write-behind-shutdown"));
+		Debugger.println("Statistics write-behind: flush every " + this.flushInterval + "ms or at " + this.flushThreshold
+				+ " users, " + Math.max(1, concurrency) + " writers", 3);
+	}
+
+	/**
+	 * Count one call of the user. Written with the next flush.
+	 * @return false if the aggregator is shut down
+	 */
+	public boolean record(String userID){
+		return record(userID, 1, System.currentTimeMillis());
+	}
+	/**
+	 * Add calls and login time of the user. Written with the next flush.
+	 * @return false if the aggregator is shut down
+	 */
+	public boolean record(String userID, long calls, long lastLogin){
+		if (!running || userID == null){
+			dropped.increment();
+			return false;
+		}
+		merge(userID, calls, lastLogin);
+		recorded.add(calls);
+		if (pending.size() >= flushThreshold && flushScheduled.compareAndSet(false, true)){
+			scheduler.execute(() -> {
+				flushScheduled.set(false);
+				flush();
+			});
+		}
+		return true;
+	}
+	private void merge(String userID, long calls, long lastLogin){
+		pending.compute(userID, (k, p) -> {
+			if (p == null){
+				p = new Pending();
+			}
+			p.calls += calls;
+			p.lastLogin = Math.max(p.lastLogin, lastLogin);
+			return p;
+		});
+	}
+
+	/**
+	 * Write all waiting updates (runs on the scheduler, on shutdown in the calling thread).
+	 */
+	private void flush(){
+		if (pending.isEmpty()){
+			return;
+		}
+		List<Future<?>> futures = new ArrayList<>();
+		int n = 0;
+		for (String userID : pending.keySet()){
+			Pending p = pending.remove(userID);
+			if (p == null){
+				continue;
+			}
+			n++;
+			futures.add(writers.submit(() -> write(userID, p)));
+		}
+		for (Future<?> f : futures){
+			try{
+				f.get();
+			}catch (InterruptedException e){
+				Thread.currentThread().interrupt();
+				return;
+			}catch (Exception e){
+				Debugger.println("Statistics write-behind: writer error - " + e.getMessage(), 1);
+			}
+		}
+		flushes.increment();
+		lastFlush.set(n);
+	}
+	private void write(String userID, Pending p){
+		boolean success;
+		try{
+			success = writer.write(userID, p.calls, p.lastLogin);
+		}catch (Exception e){
+			Debugger.println("Statistics write-behind: writing '" + userID + "' failed - " + e.getMessage(), 1);
+			success = false;
+		}
+		if (success){
+			written.increment();
+		}else{
+			failed.increment();
+			//try again with the next flush, unless too much is waiting already
+			if (running && pending.size() < maxPending){
+				merge(userID, p.calls, p.lastLogin);
+			}else{
+				dropped.add(p.calls);
+			}
+		}
+	}
+
+	/**
+	 * Stop accepting updates and write what is left.
+	 * @param timeout - max. time to wait for the writes in ms
+	 */
+	public void shutdown(long timeout){
+		if (!running){
+			return;
+		}
+		running = false;
+		scheduler.shutdown();
+		try{
+			scheduler.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+			flush();
+			writers.shutdown();
+			writers.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+		if (!pending.isEmpty()){
+			Debugger.println("Statistics write-behind: shutdown left " + pending.size() + " users unwritten!", 1);
+		}
+	}
+
+	//------------Metrics----------------
+
+	public int getPendingUsers(){
+		return pending.size();
+	}
+	public long getRecorded(){
+		return recorded.sum();
+	}
+	public long getWritten(){
+		return written.sum();
+	}
+	public long getFailed(){
+		return failed.sum();
+	}
+	public long getDropped(){
+		return dropped.sum();
+	}
+
+	/**
+	 * Current state as string for the statistics end-point.
+	 */
+	public String getStatsAsString(){
+		return "Statistics write-behind:" +
+				"\n- calls recorded: " + getRecorded() + ", updates written: " + getWritten() + ", failed: " + getFailed() + ", dropped calls: " + getDropped() +
+				"\n- waiting users: " + getPendingUsers() + ", flushes: " + flushes.sum() + ", last flush: " + lastFlush.get() + " users\n";
+	}
+
+}
@@ -0,0 +1,328 @@
+package de.bytemind.webservice.users;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import de.bytemind.core.databases.DynamoDB;
+import de.bytemind.core.tools.Connectors;
+import de.bytemind.core.tools.Converters;
+import de.bytemind.core.tools.JSON;
+import de.bytemind.webservice.database.DB;
+import de.bytemind.webservice.database.SetupDynamoDB;
+import de.bytemind.webservice.server.BasicAuthenticationServer;
+
+/**
+ * Tool to move users from the "single" to the "split" storage layout (see {@link UserStorageSplit}) and to compare the capacity
+ * units both layouts consume. Arguments (plus the usual server arguments like "--test"):<br>
+ * - "report" (default): scan the users and estimate item sizes, read (RCU) and write units (WCU) per operation in both layouts<br>
+ * - "migrate": create the split tables, copy profile data and valid client tokens to their own items (existing items are not overwritten)<br>
+ * - "cleanup": remove profile data and tokens from the user items (only after all servers use "user_storage_layout=split")<br>
+ * Migrate while no server writes (or switch all servers right after), profile changes made in the single layout after the copy are lost.
+ *
+ * @author Florian Quirin
+ *
+ */
+public class UserStorageMigration {
+
+	private static final String usersTable = DB.USERS;
+
+	//sums of the report
+	private static long users = 0, tokenItems = 0;
+	private static long singleBytes = 0, authBytes = 0, profileBytes = 0, tokenBytes = 0, maxSingleBytes = 0;
+	private static double singleRead = 0, splitReadDefault = 0, splitReadProfile = 0, splitReadPwd = 0;
+	private static long singleWrite = 0, splitWriteToken = 0, splitWriteProfile = 0;
+	//migration
+	private static long profilesWritten = 0, tokensWritten = 0, skipped = 0, cleaned = 0, failed = 0;
+
+	public static void main(String[] args){
+		boolean migrate = false, cleanup = false;
+		for (String arg : args){
+			if (arg.equals("migrate")){
+				migrate = true;
+			}else if (arg.equals("cleanup")){
+				cleanup = true;
+			}
+		}
+		new BasicAuthenticationServer().loadSettings(args);
+		if (migrate){
+			SetupDynamoDB.setupSplitAccountsTables();
+		}
+
+		//scan all users
+		JSONObject lastKey = null;
+		do{
+			JSONObject request = JSON.make("TableName", usersTable, "Limit", 100);
+			if (lastKey != null){
+				JSON.put(request, "ExclusiveStartKey", lastKey);
+			}
+			JSONObject response = DynamoDB.request("Scan", request.toJSONString());
+			DB.DYNAMODB_READS.inc();
+			if (!Connectors.httpSuccess(response)){
+				throw new RuntimeException("UserStorageMigration - scan of '" + usersTable + "' failed: " + response);
+			}
+			for (Object o : (JSONArray) response.get("Items")){
+				JSONObject item = (JSONObject) o;
+				if (!item.containsKey(AccountMapper.GUUID)){
+					continue;
+				}
+				addToReport(item);
+				if (migrate){
+					migrate(item);
+				}
+				if (cleanup){
+					cleanup(item);
+				}
+			}
+			lastKey = (JSONObject) response.get("LastEvaluatedKey");
+		}while (lastKey != null);
+
+		printReport();
+		if (migrate || cleanup){
+			System.out.println("Profiles written: " + profilesWritten + ", tokens written: " + tokensWritten
+					+ ", skipped (exist already): " + skipped + ", user items cleaned: " + cleaned + ", failed: " + failed);
+		}
+	}
+
+	//------------Report----------------
+
+	private static void addToReport(JSONObject item){
+		long single = itemSize(item);
+		long auth = 0, profile = 0;
+		for (Object key : item.keySet()){
+			long size = attributeSize((String) key, (JSONObject) item.get(key));
+			if (AccountMapper.isAuthField((String) key)){
+				auth += size;
+			}else if (!key.equals(AccountMapper.TOKENS)){
+				profile += size;
+			}
+		}
+		String guuid = (String) DynamoDB.typeConversion((JSONObject) item.get(AccountMapper.GUUID));
+		auth += attributeSize(AccountMapper.TOKENS_VALID_FROM, DynamoDB.typeConversionDynamoDB(Long.valueOf(System.currentTimeMillis())));
+		profile += attributeSize(AccountMapper.GUUID, (JSONObject) item.get(AccountMapper.GUUID));
+		List<JSONObject> tokens = getTokenItems(item, guuid, AccountManagerDynamoDB.app_token_valid_time);
+		long token = 0;
+		for (JSONObject t : tokens){
+			long size = itemSize(t);
+			tokenBytes += size;
+			token = Math.max(token, size);
+		}
+		if (token == 0){
+			//one login token of the average size
+			token = 100 + guuid.length();
+		}
+		users++;
+		tokenItems += tokens.size();
+		singleBytes += single;		maxSingleBytes = Math.max(maxSingleBytes, single);
+		authBytes += auth;
+		profileBytes += profile;
+
+		//GetItem costs the full item, no matter what is projected
+		singleRead += readUnits(single);
+		splitReadDefault += readUnits(auth) + readUnits(token) + readUnits(profile);	//token login, basics of the default read profile
+		splitReadProfile += readUnits(auth) + readUnits(token);						//token login, end-point reads ROLES only
+		splitReadPwd += readUnits(auth) + readUnits(profile);							//password login
+		//UpdateItem costs the bigger of the old and new item
+		singleWrite += writeUnits(single);
+		splitWriteToken += writeUnits(token);
+		splitWriteProfile += writeUnits(profile);
+	}
+	private static void printReport(){
+		if (users == 0){
+			System.out.println("No users found in '" + usersTable + "'.");
+			return;
+		}
+		System.out.println("Users: " + users + ", client tokens: " + tokenItems);
+		System.out.println("Average item size (bytes) - single: " + (singleBytes / users) + " (max. " + maxSingleBytes + "), "
+				+ "split: auth " + (authBytes / users) + ", profile " + (profileBytes / users) + ", token " + ((tokenItems > 0)? (tokenBytes / tokenItems) : 0));
+		System.out.println("Capacity units per operation (average, eventually consistent reads) - single vs. split:");
+		System.out.println("- token login (default basics): " + avg(singleRead) + " RCU vs. " + avg(splitReadDefault) + " RCU");
+		System.out.println("- token login (roles only):     " + avg(singleRead) + " RCU vs. " + avg(splitReadProfile) + " RCU");
+		System.out.println("- password login:               " + avg(singleRead) + " RCU vs. " + avg(splitReadPwd) + " RCU");
+		System.out.println("- write login token:            " + avg(singleWrite) + " WCU vs. " + avg(splitWriteToken) + " WCU");
+		System.out.println("- statistics / setInfos:        " + avg(singleWrite) + " WCU vs. " + avg(splitWriteProfile) + " WCU");
+		System.out.println("Note: sizes are estimated with the DynamoDB item size rules (names + values, 3 bytes per map/list, 1 per element).");
+	}
+	private static String avg(double sum){
+		return String.format("%.2f", sum / users);
+	}
+	private static double readUnits(long bytes){
+		return 0.5 * Math.max(1, (bytes + 4095) / 4096);
+	}
+	private static long writeUnits(long bytes){
+		return Math.max(1, (bytes + 1023) / 1024);
+	}
+
+	/**
+	 * Approximate size of an item in DynamoDB format.
+	 */
+	static long itemSize(JSONObject item){
+		long size = 0;
+		for (Object key : item.keySet()){
+			size += attributeSize((String) key, (JSONObject) item.get(key));
+		}
+		return size;
+	}
+	private static long attributeSize(String name, JSONObject value){
+		return name.getBytes(StandardCharsets.UTF_8).length + valueSize(value);
+	}
+	private static long valueSize(JSONObject value){
+		if (value == null || value.isEmpty()){
+			return 0;
+		}
+		String type = (String) value.keySet().iterator().next();
+		Object v = value.get(type);
+		switch (type){
+			case "S":
+				return ((String) v).getBytes(StandardCharsets.UTF_8).length;
+			case "N":
+				return (((String) v).replaceAll("[^0-9]", "").length() + 1) / 2 + 1;
+			case "B":
+				return ((String) v).length() * 3 / 4;
+			case "M":
+				long m = 3;
+				for (Object k : ((JSONObject) v).keySet()){
+					m += 1 + attributeSize((String) k, (JSONObject) ((JSONObject) v).get(k));
+				}
+				return m;
+			case "L":
+				long l = 3;
+				for (Object e : (JSONArray) v){
+					l += 1 + valueSize((JSONObject) e);
+				}
+				return l;
+			case "SS":
+			case "NS":
+			case "BS":
+				long set = 0;
+				for (Object e : (JSONArray) v){
+					set += valueSize(JSON.make(type.substring(0, 1), e));
+				}
+				return set;
+			default:
+				return 1;		//BOOL, NULL
+		}
+	}
+
+	//------------Migration----------------
+
+	/**
+	 * Token items of the valid tokens in the TOKENS map of a single layout item.
+	 */
+	private static List<JSONObject> getTokenItems(JSONObject item, String guuid, long maxAge){
+		List<JSONObject> list = new ArrayList<>();
+		JSONObject tokens = DynamoDB.dig(item, AccountMapper.TOKENS);
+		JSONObject map = (tokens != null)? (JSONObject) tokens.get("M") : null;
+		if (map == null){
+			return list;
+		}
+		long now = System.currentTimeMillis();
+		for (Object key : map.keySet()){
+			String client = (String) key;
+			if (client.endsWith("_ts") || !map.containsKey(client + "_ts")){
+				continue;
+			}
+			Object token = DynamoDB.typeConversion((JSONObject) map.get(client));
+			long ts = Converters.obj2long(DynamoDB.typeConversion((JSONObject) map.get(client + "_ts")), -1);
+			if (token == null || token.toString().length() < 16 || ts <= 0 || (now - ts) > maxAge){
+				continue;
+			}
+			JSONObject t = new JSONObject();
+			JSON.put(t, AccountMapper.TOKEN_ID, DynamoDB.typeConversionDynamoDB(UserStorageSplit.getTokenId(guuid, AccountMapper.TOKENS + "." + client)));
+			JSON.put(t, AccountMapper.GUUID, item.get(AccountMapper.GUUID));
+			JSON.put(t, AccountMapper.TOKEN, map.get(client));
+			JSON.put(t, AccountMapper.TOKEN_TS, map.get(client + "_ts"));
+			//authentication checks the real validity of the client, the item lives as long as the longest
+			JSON.put(t, AccountMapper.TOKEN_EXPIRES, DynamoDB.typeConversionDynamoDB(Long.valueOf((ts + maxAge) / 1000)));
+			list.add(t);
+		}
+		return list;
+	}
+
+	private static void migrate(JSONObject item){
+		String guuid = (String) DynamoDB.typeConversion((JSONObject) item.get(AccountMapper.GUUID));
+		JSONObject profile = new JSONObject();
+		for (Object key : item.keySet()){
+			if (!AccountMapper.isAuthField((String) key) && !key.equals(AccountMapper.TOKENS)){
+				JSON.put(profile, (String) key, item.get(key));
+			}
+		}
+		if (!profile.isEmpty()){
+			JSON.put(profile, AccountMapper.GUUID, item.get(AccountMapper.GUUID));
+			if (putIfNew(DB.USERS_PROFILES, AccountMapper.GUUID, profile) == 0){
+				profilesWritten++;
+			}
+		}
+		for (JSONObject token : getTokenItems(item, guuid, AccountManagerDynamoDB.app_token_valid_time)){
+			if (putIfNew(DB.USERS_TOKENS, AccountMapper.TOKEN_ID, token) == 0){
+				tokensWritten++;
+			}
+		}
+	}
+	/**
+	 * Write item if there is none with the same key yet.
+	 * @return 0: written, 1: exists, 2: error
+	 */
+	private static int putIfNew(String table, String keyName, JSONObject item){
+		JSONObject request = JSON.make(
+				"TableName", table,
+				"Item", item,
+				"ConditionExpression", "attribute_not_exists(#k)",
+				"ExpressionAttributeNames", JSON.make("#k", keyName)
+		);
+		JSONObject response = DynamoDB.request("PutItem", request.toJSONString());
+		DB.DYNAMODB_WRITES.inc();
+		if (Connectors.httpSuccess(response)){
+			return 0;
+		}else if (String.valueOf(response).contains("ConditionalCheckFailed")){
+			skipped++;
+			return 1;
+		}else{
+			failed++;
+			System.out.println("UserStorageMigration - writing to '" + table + "' failed: " + response);
+			return 2;
+		}
+	}
+
+	private static void cleanup(JSONObject item){
+		JSONObject names = new JSONObject();
+		StringBuilder remove = new StringBuilder();
+		for (Object key : item.keySet()){
+			if (!AccountMapper.isAuthField((String) key)){
+				String p = "#a" + names.size();
+				JSON.put(names, p, key);
+				remove.append((remove.length() > 0)? ", " : "").append(p);
+			}
+		}
+		if (remove.length() == 0){
+			return;
+		}
+		//never remove data that was not copied
+		String guuid = (String) DynamoDB.typeConversion((JSONObject) item.get(AccountMapper.GUUID));
+		JSONObject profile = DynamoDB.getItem(DB.USERS_PROFILES, AccountMapper.GUUID, guuid, AccountMapper.GUUID);
+		DB.DYNAMODB_READS.inc();
+		if (!Connectors.httpSuccess(profile) || profile.get("Item") == null || ((JSONObject) profile.get("Item")).isEmpty()){
+			failed++;
+			System.out.println("UserStorageMigration - no profile of '" + guuid + "', user item is not cleaned (migrate first).");
+			return;
+		}
+		JSONObject request = JSON.make(
+				"TableName", usersTable,
+				"Key", JSON.make(AccountMapper.GUUID, item.get(AccountMapper.GUUID)),
+				"UpdateExpression", "REMOVE " + remove,
+				"ExpressionAttributeNames", names
+		);
+		JSONObject response = DynamoDB.request("UpdateItem", request.toJSONString());
+		DB.DYNAMODB_WRITES.inc();
+		if (Connectors.httpSuccess(response)){
+			cleaned++;
+		}else{
+			failed++;
+			System.out.println("UserStorageMigration - cleanup of '" + item.get(AccountMapper.GUUID) + "' failed: " + response);
+		}
+	}
+
+}
@@ -0,0 +1,247 @@
+package de.bytemind.webservice.users;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import de.bytemind.core.databases.DynamoDB;
+import de.bytemind.core.tools.Connectors;
+import de.bytemind.core.tools.Converters;
+import de.bytemind.core.tools.Debugger;
+import de.bytemind.core.tools.JSON;
+import de.bytemind.core.users.IdHandler;
+import de.bytemind.webservice.database.DB;
+import de.bytemind.webservice.database.DynamoDbBatchGet;
+
+/**
+ * Database access of the "split" user storage layout (Config.userStorageLayout):<br>
+ * - DB.USERS: small auth item with {@link AccountMapper#authItemFields} (password, roles, IDs), read by every login<br>
+ * - DB.USERS_TOKENS: one item per user and client login token, expired items are pruned by DynamoDB TTL ({@link AccountMapper#TOKEN_EXPIRES})<br>
+ * - DB.USERS_PROFILES: everything else (name, language, infos, statistics, ...), rewritten by statistics and setInfos<br>
+ * Reads return the merged item in the format of the single layout so the authentication code works with both.
+ *
+ * @author Florian Quirin
+ *
+ */
+public class UserStorageSplit {
+
+	private static final String usersTable = DB.USERS;
+	private static final String tokensTable = DB.USERS_TOKENS;
+	private static final String profilesTable = DB.USERS_PROFILES;
+
+	/**
+	 * ID of the token item of a user and client.
+	 * @param guuid - user ID
+	 * @param tokenPath - token path of the client: AccountMapper.TOKENS + ".[client]"
+	 */
+	public static String getTokenId(String guuid, String tokenPath){
+		return IdHandler.clean(guuid) + "/" + tokenPath.substring(AccountMapper.TOKENS.length() + 1);
+	}
+
+	/**
+	 * Read keys of a user from auth, token and profile items. A user ID needs one request (batch), email and phone need the index query
+	 * of the auth item first. Only the items the keys belong to are read. Connectors.httpSuccess(result) can be used to check the status.
+	 * @param userID - unique id (cleaned)
+	 * @param idType - ID type
+	 * @param lookUp - keys like in the single layout, e.g. AccountMapper.TOKENS + ".[client]", AccountMapper.TOKENS + ".[client]_ts", AccountMapper.USER_NAME, ...
+	 * @return response with merged "Item" (missing if the user was not found) or null if keys were still unprocessed after the retries (throttling)
+	 */
+	public static JSONObject read(String userID, String idType, String[] lookUp){
+		List<String> authKeys = new ArrayList<>();
+		List<String> profileKeys = new ArrayList<>();
+		Set<String> tokenPaths = new LinkedHashSet<>();
+		for (String k : lookUp){
+			if (k.startsWith(AccountMapper.TOKENS + ".")){
+				tokenPaths.add(k.endsWith("_ts")? k.substring(0, k.length() - 3) : k);
+			}else if (AccountMapper.isAuthField(k)){
+				authKeys.add(k);
+			}else{
+				profileKeys.add(k);
+			}
+		}
+		boolean readCold = !profileKeys.isEmpty() || !tokenPaths.isEmpty();
+		if (readCold && !authKeys.contains(AccountMapper.GUUID)){
+			authKeys.add(AccountMapper.GUUID);
+		}
+		if (!tokenPaths.isEmpty() && !authKeys.contains(AccountMapper.TOKENS_VALID_FROM)){
+			authKeys.add(AccountMapper.TOKENS_VALID_FROM);
+		}
+
+		JSONObject response;
+		JSONObject auth;
+		JSONObject cold = null;
+		if (idType.equals(IdHandler.Type.uid) && readCold){
+			//all in one
+			DynamoDbBatchGet batch = new DynamoDbBatchGet().add(usersTable, AccountMapper.GUUID, userID, authKeys);
+			addColdReads(batch, userID, profileKeys, tokenPaths);
+			response = batch.execute();
+			if (response == null || !Connectors.httpSuccess(response)){
+				return response;
+			}
+			List<JSONObject> found = DynamoDbBatchGet.getItems(response, usersTable);
+			auth = found.isEmpty()? null : found.get(0);
+			cold = response;
+		}else{
+			String[] keys = authKeys.toArray(new String[0]);
+			if (idType.equals(IdHandler.Type.uid)){
+				response = DynamoDB.getItem(usersTable, AccountMapper.GUUID, userID, keys);
+			}else if (idType.equals(IdHandler.Type.email)){
+				response = DynamoDB.queryIndex(usersTable, AccountMapper.EMAIL, userID, keys);
+			}else if (idType.equals(IdHandler.Type.phone)){
+				response = DynamoDB.queryIndex(usersTable, AccountMapper.PHONE, userID, keys);
+			}else{
+				throw new RuntimeException("UserStorageSplit.read(...) reports 'unsupported identifier type': " + idType);
+			}
+			DB.DYNAMODB_READS.inc();
+			if (!Connectors.httpSuccess(response)){
+				return response;
+			}
+			if (response.containsKey("Items")){
+				JSONArray ja = (JSONArray) response.get("Items");
+				auth = ja.isEmpty()? null : (JSONObject) ja.get(0);
+			}else{
+				auth = (JSONObject) response.get("Item");
+				if (auth != null && auth.isEmpty()){
+					auth = null;
+				}
+			}
+			if (auth != null && readCold){
+				String guuid = (String) DynamoDB.typeConversion((JSONObject) auth.get(AccountMapper.GUUID));
+				DynamoDbBatchGet batch = new DynamoDbBatchGet();
+				addColdReads(batch, guuid, profileKeys, tokenPaths);
+				cold = batch.execute();
+				if (cold == null || !Connectors.httpSuccess(cold)){
+					return cold;
+				}
+			}
+		}
+		JSONObject item = (auth != null)? merge(auth, cold) : null;
+		//same format as single item read
+		for (String k : Arrays.asList("Items", "Item", "Count", "ScannedCount", "Responses", "UnprocessedKeys")){
+			response.remove(k);
+		}
+		if (item != null){
+			JSON.put(response, "Item", item);
+		}
+		return response;
+	}
+	private static void addColdReads(DynamoDbBatchGet batch, String guuid, List<String> profileKeys, Set<String> tokenPaths){
+		if (!profileKeys.isEmpty()){
+			batch.add(profilesTable, AccountMapper.GUUID, guuid, profileKeys);
+		}
+		for (String tokenPath : tokenPaths){
+			batch.add(tokensTable, AccountMapper.TOKEN_ID, getTokenId(guuid, tokenPath),
+					Arrays.asList(AccountMapper.TOKEN, AccountMapper.TOKEN_TS, AccountMapper.TOKEN_EXPIRES));
+		}
+	}
+	/**
+	 * Auth item plus profile attributes and valid client tokens as AccountMapper.TOKENS map.
+	 */
+	private static JSONObject merge(JSONObject auth, JSONObject cold){
+		JSONObject item = new JSONObject();
+		for (Object key : auth.keySet()){
+			JSON.put(item, (String) key, auth.get(key));
+		}
+		if (cold == null){
+			return item;
+		}
+		for (JSONObject profile : DynamoDbBatchGet.getItems(cold, profilesTable)){
+			for (Object key : profile.keySet()){
+				if (!AccountMapper.GUUID.equals(key)){
+					JSON.put(item, (String) key, profile.get(key));
+				}
+			}
+		}
+		List<JSONObject> tokenItems = DynamoDbBatchGet.getItems(cold, tokensTable);
+		if (!tokenItems.isEmpty()){
+			long validFrom = Converters.obj2long(typeConversion(auth, AccountMapper.TOKENS_VALID_FROM), 0);
+			long now = System.currentTimeMillis();
+			JSONObject tokens = new JSONObject();
+			for (JSONObject t : tokenItems){
+				String tokenId = (String) typeConversion(t, AccountMapper.TOKEN_ID);
+				long ts = Converters.obj2long(typeConversion(t, AccountMapper.TOKEN_TS), -1);
+				long expires = Converters.obj2long(typeConversion(t, AccountMapper.TOKEN_EXPIRES), 0);
+				//TTL deletion can take a while and logout of all clients keeps the token items
+				if (tokenId == null || ts <= validFrom || (expires * 1000) < now){
+					continue;
+				}
+				String client = tokenId.substring(tokenId.indexOf('/') + 1);
+				JSON.put(tokens, client, t.get(AccountMapper.TOKEN));
+				JSON.put(tokens, client + "_ts", t.get(AccountMapper.TOKEN_TS));
+			}
+			JSON.put(item, AccountMapper.TOKENS, JSON.make("M", tokens));
+		}
+		return item;
+	}
+	private static Object typeConversion(JSONObject item, String key){
+		JSONObject value = (JSONObject) item.get(key);
+		return (value == null)? null : DynamoDB.typeConversion(value);
+	}
+
+	//------------Writes----------------
+
+	/**
+	 * Write the login token of a client. The item expires after 'validTime' (DynamoDB TTL).
+	 * @return error code of DynamoDB.writeAny (0 is fine)
+	 */
+	public static int writeToken(String guuid, String tokenPath, String token, long validTime){
+		long now = System.currentTimeMillis();
+		guuid = IdHandler.clean(guuid);
+		int code = DynamoDB.writeAny(tokensTable, AccountMapper.TOKEN_ID, getTokenId(guuid, tokenPath),
+				new String[]{ AccountMapper.GUUID, AccountMapper.TOKEN, AccountMapper.TOKEN_TS, AccountMapper.TOKEN_EXPIRES },
+				new Object[]{ guuid, token, Long.valueOf(now), Long.valueOf((now + validTime) / 1000) });
+		DB.DYNAMODB_WRITES.inc();
+		return code;
+	}
+	/**
+	 * Remove the login token of a client.
+	 */
+	public static boolean deleteToken(String guuid, String tokenPath){
+		return deleteItem(tokensTable, AccountMapper.TOKEN_ID, getTokenId(guuid, tokenPath));
+	}
+	/**
+	 * Invalidate the login tokens of all clients (token items are kept until they expire).
+	 * @return error code of DynamoDB.writeAny (0 is fine)
+	 */
+	public static int invalidateTokens(String guuid){
+		int code = DynamoDB.writeAny(usersTable, AccountMapper.GUUID, IdHandler.clean(guuid),
+				new String[]{ AccountMapper.TOKENS_VALID_FROM }, new Object[]{ Long.valueOf(System.currentTimeMillis()) });
+		DB.DYNAMODB_WRITES.inc();
+		return code;
+	}
+	/**
+	 * Write attributes of the profile item.
+	 * @return error code of DynamoDB.writeAny (0 is fine)
+	 */
+	public static int writeProfile(String guuid, String[] keys, Object[] objects){
+		int code = DynamoDB.writeAny(profilesTable, AccountMapper.GUUID, IdHandler.clean(guuid), keys, objects);
+		DB.DYNAMODB_WRITES.inc();
+		return code;
+	}
+	/**
+	 * Remove the profile item of a user.
+	 */
+	public static boolean deleteProfile(String guuid){
+		return deleteItem(profilesTable, AccountMapper.GUUID, IdHandler.clean(guuid));
+	}
+
+	private static boolean deleteItem(String table, String keyName, String key){
+		JSONObject request = new JSONObject();
+		JSON.add(request, "TableName", table);
+		JSON.add(request, "Key", JSON.make(keyName, DynamoDB.typeConversionDynamoDB(key)));
+		JSON.add(request, "ReturnValues", "NONE");
+		JSONObject response = DynamoDB.request("DeleteItem", request.toJSONString());
+		DB.DYNAMODB_WRITES.inc();
+		if (!Connectors.httpSuccess(response)){
+			Debugger.println("UserStorageSplit - deleting '" + key + "' from '" + table + "' failed: " + response, 1);
+			return false;
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,68 @@
+package de.bytemind.webservice.database;
+
+import java.util.concurrent.CountDownLatch;
+
+import de.bytemind.core.tools.Timer;
+import de.bytemind.webservice.server.BasicAuthenticationServer;
+import de.bytemind.webservice.server.ByteMindServer;
+
+/**
+ * Throughput of the GUID generators. The Elasticsearch versions require the database configured in the settings,
+ * call with argument "es" (plus the usual server arguments) to include them.
+ */
+public class GlobalIdGeneratorBenchmark {
+
+	public static void main(String[] args) throws Exception {
+
+		boolean withES = false;
+		for (String arg : args){
+			if (arg.equals("es")){
+				withES = true;
+			}
+		}
+		int threads = 8;
+
+		run("Snowflake", new GlobalIdGeneratorSnowflake(1), threads, 500000);
+
+		if (withES){
+			//Load server settings from file (and arguments)
+			ByteMindServer server = new BasicAuthenticationServer();
+			server.loadSettings(args);
+
+			run("Elasticsearch", new GlobalIdGeneratorElasticsearch(), threads, 500);
+			run("Elasticsearch range", new GlobalIdGeneratorElasticsearchRange(), threads, 50000);
+		}
+
+		System.out.println("DONE");
+	}
+
+	private static void run(String name, GlobalIdGenerator gen, int threads, int idsPerThread) throws Exception {
+		//warm-up
+		for (int i=0; i<Math.min(1000, idsPerThread); i++){
+			gen.getTicketGUID();
+		}
+		CountDownLatch start = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(threads);
+		for (int i=0; i<threads; i++){
+			new Thread(() -> {
+				try{
+					start.await();
+					for (int j=0; j<idsPerThread; j++){
+						gen.getTicketGUID();
+					}
+				}catch (Exception e){
+					e.printStackTrace();
+				}finally{
+					done.countDown();
+				}
+			}).start();
+		}
+		long tic = Timer.tic();
+		start.countDown();
+		done.await();
+		long took = Math.max(1, Timer.toc(tic));
+		long total = (long) threads * idsPerThread;
+		System.out.println(name + ": " + total + " IDs in " + took + "ms - " + (total * 1000l / took) + " IDs/s");
+	}
+
+}
@@ -0,0 +1,75 @@
+package de.bytemind.webservice.database;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+import de.bytemind.core.tools.Timer;
+
+public class GlobalIdGeneratorSnowflakeTest {
+
+	public static void main(String[] args) throws Exception {
+
+		int threads = 16;
+		int idsPerThread = 250000;
+
+		//Two nodes writing into the same set - all IDs must be unique
+		GlobalIdGeneratorSnowflake node1 = new GlobalIdGeneratorSnowflake(1);
+		GlobalIdGeneratorSnowflake node2 = new GlobalIdGeneratorSnowflake(2);
+		Set<String> ids = ConcurrentHashMap.newKeySet(threads * idsPerThread * 2);
+
+		CountDownLatch start = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(threads);
+		for (int i=0; i<threads; i++){
+			GlobalIdGenerator gen = (i % 2 == 0)? node1 : node2;
+			new Thread(() -> {
+				try{
+					start.await();
+					for (int j=0; j<idsPerThread; j++){
+						if (!ids.add(gen.getTicketGUID())){
+							throw new RuntimeException("Duplicate ID!");
+						}
+					}
+				}catch (Exception e){
+					e.printStackTrace();
+				}finally{
+					done.countDown();
+				}
+			}).start();
+		}
+		long tic = Timer.tic();
+		start.countDown();
+		done.await();
+		long took = Timer.toc(tic);
+
+		int expected = threads * idsPerThread;
+		if (ids.size() != expected){
+			throw new RuntimeException("Uniqueness test FAILED! Expected " + expected + " IDs, got " + ids.size());
+		}
+		System.out.println("Generated " + expected + " unique IDs with " + threads + " threads on 2 nodes in " + took + "ms");
+
+		//ID content
+		long last = node1.getLastIssuedGUID();
+		if (GlobalIdGeneratorSnowflake.getNodeId(last) != 1){
+			throw new RuntimeException("Node ID test FAILED! Got: " + GlobalIdGeneratorSnowflake.getNodeId(last));
+		}
+		long age = System.currentTimeMillis() - GlobalIdGeneratorSnowflake.getTimestamp(last);
+		if (age < 0 || age > 60000){
+			System.out.println("NOTE: last ID time is " + age + "ms off (more than 4096 IDs/ms or clock changes)");
+		}
+
+		//Order within one thread
+		long prev = -1;
+		for (int i=0; i<100000; i++){
+			long id = node1.nextGUID();
+			if (id <= prev){
+				throw new RuntimeException("Order test FAILED! " + id + " <= " + prev);
+			}
+			prev = id;
+		}
+		System.out.println("IDs of one thread are increasing.");
+
+		System.out.println("DONE");
+	}
+
+}
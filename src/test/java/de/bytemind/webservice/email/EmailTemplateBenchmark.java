@@ -0,0 +1,48 @@
+package de.bytemind.webservice.email;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import de.bytemind.webservice.server.Config;
+
+/**
+ * Rendering of email templates: precompiled segments of EmailTemplateEngine vs. the old regex replace.
+ */
+public class EmailTemplateBenchmark {
+
+	public static void main(String[] args) throws Exception {
+
+		int n = 200000;
+		String link = "https://example.com/create-user?userid=test%40example.com&ticketid=t1234&time=1500000000000&token=abcdef0123456789&lang=en&type=email";
+
+		File folder = new File(Config.emailTemplatesFolder);
+		String raw = new String(Files.readAllBytes(new File(folder, "registration_en.html").toPath()), StandardCharsets.UTF_8);
+		EmailTemplateEngine engine = new EmailTemplateEngine(folder);
+		EmailTemplateEngine.Template template = engine.get("registration", "en");
+
+		//same result?
+		String a = raw.replaceFirst("<REG:LINK>", link);
+		String b = template.render("REG:LINK", link);
+		if (!a.equals(b)){
+			throw new RuntimeException("Rendering results differ!");
+		}
+
+		long sink = 0;
+		for (int round = 0; round < 3; round++){
+			long t0 = System.nanoTime();
+			for (int i = 0; i < n; i++){
+				sink += raw.replaceFirst("<REG:LINK>", link).length();
+			}
+			long t1 = System.nanoTime();
+			for (int i = 0; i < n; i++){
+				sink += engine.get("registration", "en").render("REG:LINK", link).length();
+			}
+			long t2 = System.nanoTime();
+			System.out.println("Round " + (round + 1) + " - regex replaceFirst: " + ((t1 - t0) / n) + "ns/op, template engine: " + ((t2 - t1) / n) + "ns/op");
+		}
+		System.out.println("(" + sink + ")");
+		System.out.println("DONE");
+	}
+
+}
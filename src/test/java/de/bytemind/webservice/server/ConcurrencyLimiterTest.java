@@ -0,0 +1,61 @@
+package de.bytemind.webservice.server;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Simulated backend brownout: 64 clients call a backend that takes 5ms, then 200ms for 3s, then 5ms again.
+ * The limit should drop during the brownout and recover afterwards.
+ */
+public class ConcurrencyLimiterTest {
+
+	private static volatile long backendDelay = 5;
+
+	public static void main(String[] args) throws Exception {
+
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 50, 4, 200, 50);
+		AtomicBoolean running = new AtomicBoolean(true);
+		AtomicLong maxRunning = new AtomicLong(0);
+
+		for (int i=0; i<64; i++){
+			new Thread(() -> {
+				while (running.get()){
+					long start = limiter.tryAcquire();
+					if (start < 0){
+						sleep(2);		//client backs off after 503
+						continue;
+					}
+					maxRunning.accumulateAndGet(limiter.getInFlight(), Math::max);
+					sleep(backendDelay);
+					limiter.release(start, false);
+				}
+			}).start();
+		}
+
+		for (int s=0; s<9; s++){
+			if (s == 3){
+				backendDelay = 200;
+				System.out.println("-- brownout --");
+			}else if (s == 6){
+				backendDelay = 5;
+				System.out.println("-- recovered --");
+			}
+			Thread.sleep(1000);
+			System.out.println(limiter);
+		}
+		running.set(false);
+
+		System.out.println("Max. in-flight: " + maxRunning.get());
+		if (limiter.getRejected() == 0){
+			throw new RuntimeException("Limiter never rejected a request!");
+		}
+	}
+
+	private static void sleep(long ms){
+		try{
+			Thread.sleep(ms);
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package de.bytemind.webservice.server;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.bytemind.core.tools.Timer;
+
+public class RateLimiterTest {
+
+	public static void main(String[] args) throws Exception {
+
+		//Budget: 10 per 60s - 16 threads hammer the same key, exactly 10 requests may pass
+		RateLimiter limiter = new RateLimiter("test", 10, 60000, 1000);
+		AtomicInteger passed = new AtomicInteger(0);
+		CountDownLatch done = new CountDownLatch(16);
+		for (int i=0; i<16; i++){
+			new Thread(() -> {
+				for (int j=0; j<1000; j++){
+					if (limiter.tryAcquire("ip:1.2.3.4") == 0){
+						passed.incrementAndGet();
+					}
+				}
+				done.countDown();
+			}).start();
+		}
+		done.await();
+		System.out.println("Passed: " + passed.get() + " (expected 10), retry after: " + limiter.tryAcquire("ip:1.2.3.4") + "ms");
+		if (passed.get() != 10){
+			throw new RuntimeException("Wrong number of requests passed!");
+		}
+
+		//Refill: 5 per 100ms
+		RateLimiter fast = new RateLimiter("fast", 5, 100, 1000);
+		for (int i=0; i<5; i++){
+			fast.tryAcquire("user:a");
+		}
+		long wait = fast.tryAcquire("user:a");
+		if (wait <= 0){
+			throw new RuntimeException("Empty bucket allowed a request!");
+		}
+		Thread.sleep(wait);
+		boolean allowed = (fast.tryAcquire("user:a") == 0);
+		System.out.println("Waited " + wait + "ms, next request allowed: " + allowed);
+		if (!allowed){
+			throw new RuntimeException("Request after refill was not allowed!");
+		}
+
+		//Memory bound: 1M different keys
+		RateLimiter bounded = new RateLimiter("bounded", 10, 60000, 10000);
+		long tic = Timer.tic();
+		for (int i=0; i<1000000; i++){
+			bounded.tryAcquire("ip:" + i);
+		}
+		System.out.println("1M keys in " + Timer.toc(tic) + "ms, kept: " + bounded.size());
+		System.out.println(bounded);
+		if (bounded.size() > 10000){
+			throw new RuntimeException("Too many keys kept!");
+		}
+
+		//Eviction: a limited client keeps its (empty) bucket while a flood of new keys fills the map
+		RateLimiter flooded = new RateLimiter("flooded", 10, 60000, 1000);
+		while (flooded.tryAcquire("user:limited") == 0){}
+		for (int i=0; i<100000; i++){
+			flooded.tryAcquire("user:new" + i);
+		}
+		boolean stillLimited = flooded.tryAcquire("user:limited") > 0;
+		System.out.println("Limited client still limited after flood: " + stillLimited);
+		if (!stillLimited){
+			throw new RuntimeException("Flood of new keys reset the limit!");
+		}
+	}
+}
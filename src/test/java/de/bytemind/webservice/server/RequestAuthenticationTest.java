@@ -0,0 +1,33 @@
+package de.bytemind.webservice.server;
+
+import de.bytemind.core.users.Account;
+import de.bytemind.webservice.metrics.Metrics;
+import de.bytemind.webservice.users.AuthenticationToken;
+
+public class RequestAuthenticationTest {
+
+	public static void main(String[] args) throws Exception {
+
+		//no credentials - denied token, no backend call
+		FakeRequest request = new FakeRequest("lang=de");
+		AuthenticationToken token = RequestAuthentication.of(request).getToken();
+		System.out.println("Token without credentials - authenticated: " + token.authenticated() + ", code: " + token.getErrorCode());
+		if (token.authenticated() || token.getErrorCode() != 2){
+			throw new RuntimeException("Token should be denied with code 2!");
+		}
+
+		//same context and token for every helper of one request
+		if (RequestAuthentication.of(request) != RequestAuthentication.of(request) || RequestAuthentication.of(request).getToken() != token){
+			throw new RuntimeException("Context was not reused!");
+		}
+
+		//account buffered in the request (e.g. by a 'before' filter) is used as it is
+		Account account = RequestAuthentication.of(request).getAccount();
+		System.out.println("Buffered account: " + account.getClass().getSimpleName());
+		if (account != request.attribute(ByteMindServer.ACCOUNT_ATTR)){
+			throw new RuntimeException("Buffered account was not used!");
+		}
+		System.out.println("Resolved: " + Metrics.counter("RequestAuthentication:resolved").get()
+				+ ", reused: " + Metrics.counter("RequestAuthentication:reused").get());
+	}
+}
@@ -0,0 +1,53 @@
+package de.bytemind.webservice.users;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * ID chunks and readable keys of the multi-user account lookup (AccountDataDynamoDB.getInfosBatch). Runs without database.
+ */
+public class AccountInfosBatchTest {
+
+	public static void main(String[] args) throws Exception {
+
+		//250 IDs with duplicates, empty and null entries
+		List<String> requested = new ArrayList<>();
+		for (int i=0; i<250; i++){
+			requested.add("uid" + (1000 + i));
+			if (i % 10 == 0){
+				requested.add("uid" + (1000 + i));
+				requested.add(" ");
+				requested.add(null);
+			}
+		}
+		List<List<String>> chunks = AccountDataDynamoDB.getIdChunks(requested, 100);
+		System.out.println("Chunks: " + chunks.size() + ", sizes: " + chunks.get(0).size() + ", " + chunks.get(1).size() + ", " + chunks.get(2).size());
+		if (chunks.size() != 3 || chunks.get(0).size() != 100 || chunks.get(2).size() != 50){
+			throw new RuntimeException("Wrong chunks!");
+		}
+		//order of request is kept
+		List<String> flat = new ArrayList<>();
+		for (List<String> c : chunks){
+			flat.addAll(c);
+		}
+		for (int i=0; i<250; i++){
+			if (!flat.get(i).equals("uid" + (1000 + i))){
+				throw new RuntimeException("Wrong order at " + i + ": " + flat.get(i));
+			}
+		}
+		//smaller chunks when two tables are read
+		if (AccountDataDynamoDB.getIdChunks(requested, 50).size() != 5){
+			throw new RuntimeException("Wrong chunks for split layout!");
+		}
+		System.out.println("Chunks and order - OK");
+
+		//restricted keys are never read
+		List<String> keys = AccountDataDynamoDB.getReadableKeys(AccountMapper.PASSWORD, AccountMapper.TOKENS + ".web_app", "name.first", AccountMapper.PWD_SALT, "roles");
+		System.out.println("Readable keys: " + keys);
+		if (!keys.equals(Arrays.asList("name.first", "roles"))){
+			throw new RuntimeException("Restricted keys were not removed!");
+		}
+		System.out.println("Restricted keys removed - OK");
+	}
+}
@@ -0,0 +1,86 @@
+package de.bytemind.webservice.users;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.json.simple.JSONObject;
+
+import de.bytemind.core.tools.JSON;
+import de.bytemind.core.users.Account;
+
+/**
+ * Updates of one user within the window are merged key by key (last writer wins) into one write, overlapping paths start a
+ * new write that follows the first one. Runs without database.
+ */
+public class AccountWriteCoalescerTest {
+
+	public static void main(String[] args) throws Exception {
+
+		List<JSONObject> writes = new ArrayList<>();
+		AccountData target = new AccountData(){
+			public boolean testModule(){ return true; }
+			public int getInfos(Account user, String... keys){ return 0; }
+			public Map<String, JSONObject> getInfosBatch(Collection<String> userIds, String... keys){ return null; }
+			public synchronized int setInfos(Account user, JSONObject data){
+				writes.add(data);
+				return 0;
+			}
+			public Object getInfoObject(Account user, String key){ return null; }
+			public int setInfoObject(Account user, String key, Object object){ return setInfos(user, JSON.make(key, object)); }
+			public boolean writeBasicStatistics(String userID){ return true; }
+		};
+		AccountWriteCoalescer coalescer = new AccountWriteCoalescer(target, 50, 2);
+		Account user = testUser("uid1003", 0);
+
+		//three updates in a row
+		CompletableFuture<Integer> f1 = coalescer.setInfos(user, JSON.make("uname", "A", "lang", "de"));
+		CompletableFuture<Integer> f2 = coalescer.setInfos(user, JSON.make("lang", "en"));
+		CompletableFuture<Integer> f3 = coalescer.setInfos(user, JSON.make("infos", "x"));
+		check("codes", f1.get() + f2.get() + f3.get(), 0);
+		check("writes", writes.size(), 1);
+		check("keys", writes.get(0).size(), 3);
+		if (!"en".equals(writes.get(0).get("lang"))){
+			throw new RuntimeException("Last writer should win: " + writes.get(0));
+		}
+		System.out.println("Merged: " + writes.get(0));
+
+		//overlapping paths need two writes in order
+		writes.clear();
+		CompletableFuture<Integer> f4 = coalescer.setInfos(user, JSON.make("infos", "y"));
+		CompletableFuture<Integer> f5 = coalescer.setInfos(user, JSON.make("infos.birth", "2000"));
+		CompletableFuture.allOf(f4, f5).get();
+		check("writes (overlap)", writes.size(), 2);
+		if (!writes.get(0).containsKey("infos") || !writes.get(1).containsKey("infos.birth")){
+			throw new RuntimeException("Wrong order: " + writes);
+		}
+		System.out.println("Ordered: " + writes);
+
+		//access denied and empty updates are not queued
+		check("denied", coalescer.setInfos(testUser("uid1004", -1), JSON.make("lang", "de")).get(), 2);
+		check("empty", coalescer.setInfos(user, new JSONObject()).get(), 4);
+		check("pending", coalescer.getPendingUsers(), 0);
+
+		System.out.println(AccountWriteCoalescer.getStatsAsString());
+		System.out.println("DONE");
+	}
+
+	private static Account testUser(String id, int lvl){
+		return new Account(id, lvl, "test"){
+			@Override
+			public String getUserID(){ return id; }
+			@Override
+			public int getAccessLevel(){ return lvl; }
+		};
+	}
+
+	private static void check(String name, long is, long expected){
+		if (is != expected){
+			throw new RuntimeException(name + " is " + is + " but should be " + expected);
+		}
+		System.out.println(name + ": " + is + " - OK");
+	}
+
+}
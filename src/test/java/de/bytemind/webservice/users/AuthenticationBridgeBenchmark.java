@@ -0,0 +1,72 @@
+package de.bytemind.webservice.users;
+
+import de.bytemind.core.tools.Timer;
+import de.bytemind.core.users.Account;
+import de.bytemind.webservice.server.BasicAuthenticationServer;
+import de.bytemind.webservice.server.ByteMindServer;
+import de.bytemind.webservice.server.Config;
+import de.bytemind.webservice.server.Credentials;
+import de.bytemind.webservice.server.FakeRequest;
+
+/**
+ * Full account authentication via HTTP end-point vs. in-process bridge. Requires the server (database and running
+ * '/authentication' end-point at "authenticationEndpoint_url") configured in the settings and a valid key of a test user,
+ * e.g. arguments: "key=uid1003;[64 char password hash]" plus the usual server arguments.
+ */
+public class AuthenticationBridgeBenchmark {
+
+	public static void main(String[] args) throws Exception {
+
+		String key = null;
+		for (String arg : args){
+			if (arg.startsWith("key=")){
+				key = arg.substring(4);
+			}
+		}
+		if (key == null){
+			throw new RuntimeException("Missing argument 'key=[user ID];[password hash]'!");
+		}
+		int n = 1000;
+
+		//Load server settings from file (and arguments)
+		ByteMindServer server = new BasicAuthenticationServer();
+		server.loadSettings(args);
+		System.out.println("End-point is this server: " + AuthenticationBridge.isLocalEndpoint());
+
+		FakeRequest request = new FakeRequest("KEY=" + key);
+		Credentials credentials = new Credentials(request);
+
+		//warm-up (fills the key token cache for both)
+		for (int i=0; i<20; i++){
+			new Account(key, credentials.getIdType(), credentials.getClient()).authenticate();
+			AuthenticationBridge.getAccount(new AuthenticationToken(credentials, request)).authenticate();
+		}
+
+		long tic = Timer.tic();
+		int ok = 0;
+		for (int i=0; i<n; i++){
+			if (new Account(key, credentials.getIdType(), credentials.getClient()).authenticate()){
+				ok++;
+			}
+		}
+		long took = Math.max(1, Timer.toc(tic));
+		System.out.println("HTTP end-point: " + ok + "/" + n + " in " + took + "ms - " + (n * 1000l / took) + " auth/s");
+
+		tic = Timer.tic();
+		ok = 0;
+		for (int i=0; i<n; i++){
+			if (AuthenticationBridge.getAccount(new AuthenticationToken(credentials, request)).authenticate()){
+				ok++;
+			}
+		}
+		took = Math.max(1, Timer.toc(tic));
+		System.out.println("In-process: " + ok + "/" + n + " in " + took + "ms - " + (n * 1000l / took) + " auth/s");
+
+		//URL checks
+		System.out.println("localhost:" + Config.serverPort + " local: " + AuthenticationBridge.isLocalUrl("http://localhost:" + Config.serverPort + "/authentication", Config.serverPort));
+		System.out.println("api.example.com local: " + AuthenticationBridge.isLocalUrl("https://api.example.com/authentication", Config.serverPort));
+
+		System.out.println("DONE");
+	}
+
+}
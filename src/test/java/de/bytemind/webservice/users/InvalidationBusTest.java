@@ -0,0 +1,111 @@
+package de.bytemind.webservice.users;
+
+import java.net.DatagramSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.bytemind.webservice.server.Config;
+
+public class InvalidationBusTest {
+
+	public static void main(String[] args) throws Exception {
+
+		//local bus - subscribers get the message right away
+		InvalidationBus local = new InvalidationBusLocal();
+		AtomicInteger localHits = new AtomicInteger(0);
+		local.subscribe(inv -> localHits.incrementAndGet());
+		local.publish("uid1001", "web_app");
+		if (localHits.get() != 1){
+			throw new RuntimeException("Local bus did not deliver!");
+		}
+
+		//two 'nodes' on loopback
+		int portA = freePort();
+		int portB = freePort();
+		String secret = "test-secret";
+		InvalidationBusUdp nodeA = new InvalidationBusUdp(portA, "localhost:" + portB, 20, secret);
+		InvalidationBusUdp nodeB = new InvalidationBusUdp(portB, "localhost:" + portA + ",localhost:" + portB, 20, secret);
+		Map<String, Long> cacheB = new ConcurrentHashMap<>();
+		AtomicInteger hitsA = new AtomicInteger(0);
+		nodeA.subscribe(inv -> hitsA.incrementAndGet());
+		nodeB.subscribe(inv -> cacheB.put(inv.getKey(), inv.getTime()));
+		nodeA.start();
+		nodeB.start();
+
+		//1000 logouts of 100 users - duplicates in one batch are sent once
+		for (int i=0; i<1000; i++){
+			nodeA.publish("uid" + (1000 + (i % 100)), ((i / 100) % 2 == 0)? "web_app" : null);
+		}
+		long wait = System.currentTimeMillis() + 2000;
+		while (cacheB.size() < 200 && System.currentTimeMillis() < wait){
+			Thread.sleep(5);
+		}
+		System.out.println("Node A local deliveries: " + hitsA.get() + ", node B distinct invalidations: " + cacheB.size());
+		if (cacheB.size() != 200){
+			throw new RuntimeException("Invalidations did not reach node B!");
+		}
+
+		//single logout after warm-up
+		long tic = System.currentTimeMillis();
+		nodeA.publish("uid2000", null);
+		while (!cacheB.containsKey("uid2000\n*") && System.currentTimeMillis() < tic + 2000){
+			Thread.sleep(1);
+		}
+		System.out.println("Single logout reached node B after: " + (System.currentTimeMillis() - tic) + "ms");
+
+		//node with another secret is ignored
+		int portC = freePort();
+		InvalidationBusUdp foreign = new InvalidationBusUdp(portC, "localhost:" + portB, 20, "wrong-secret");
+		foreign.start();
+		foreign.publish("uid9999", null);
+		Thread.sleep(200);
+		if (cacheB.containsKey("uid9999\n*")){
+			throw new RuntimeException("Foreign invalidation was accepted!");
+		}
+
+		//copies and replays of a datagram are delivered once, old datagrams are dropped
+		long now = System.currentTimeMillis();
+		List<Invalidation> one = Arrays.asList(new Invalidation("uid3000", null, now));
+		String datagram = new String(nodeA.encode(one, 1000000, now), StandardCharsets.UTF_8);
+		if (nodeB.decode(datagram, now).size() != 1 || !nodeB.decode(datagram, now + 10).isEmpty()){
+			throw new RuntimeException("Copy of a datagram was delivered twice!");
+		}
+		String old = new String(nodeA.encode(one, 1000001, now - 60000), StandardCharsets.UTF_8);
+		if (nodeB.decode(old, now) != null){
+			throw new RuntimeException("Old datagram was accepted!");
+		}
+		System.out.println("Copies and replays rejected - OK");
+
+		//node without authentication end-points rejects a signed token after logout on the authentication node
+		Config.serverSecret = "test-secret-with-enough-characters";
+		SignedAccessToken.subscribeRevocations(nodeB);
+		String token = SignedAccessToken.create("uid4000", 0, "web_app", null);
+		if (SignedAccessToken.verify("uid4000", token) == null){
+			throw new RuntimeException("Signed token was rejected before logout!");
+		}
+		nodeA.publish("uid4000", null);
+		tic = System.currentTimeMillis();
+		while (SignedAccessToken.verify("uid4000", token) != null && System.currentTimeMillis() < tic + 2000){
+			Thread.sleep(1);
+		}
+		if (SignedAccessToken.verify("uid4000", token) != null){
+			throw new RuntimeException("Signed token still valid on node B after logout on node A!");
+		}
+		System.out.println("Signed token revoked on node B after: " + (System.currentTimeMillis() - tic) + "ms");
+
+		System.out.print(nodeB.getStatsAsString());
+		nodeA.close();
+		nodeB.close();
+		foreign.close();
+	}
+
+	private static int freePort() throws Exception {
+		try (DatagramSocket s = new DatagramSocket(0)){
+			return s.getLocalPort();
+		}
+	}
+}
@@ -0,0 +1,45 @@
+package de.bytemind.webservice.users;
+
+public class LoginBackoffTest {
+
+	public static void main(String[] args) throws Exception {
+
+		//3 free failures, then 50ms doubling up to 400ms, one failure forgotten every 300ms
+		LoginBackoff backoff = new LoginBackoff(3, 50, 400, 300, 1000);
+		String user = "uid1001";
+
+		for (int i=1; i<=6; i++){
+			backoff.recordFailure(user);
+			System.out.println("Failures: " + i + " - blocked for: " + backoff.getRemainingMs(user) + "ms");
+		}
+		if (!backoff.isBlocked(user)){
+			throw new RuntimeException("Account should be blocked!");
+		}
+
+		//decay
+		Thread.sleep(1000);
+		System.out.println("After 1s - blocked for: " + backoff.getRemainingMs(user) + "ms");
+		if (backoff.isBlocked(user)){
+			throw new RuntimeException("Account should not be blocked anymore!");
+		}
+
+		//success resets
+		backoff.recordFailure(user);
+		backoff.reset(user);
+		System.out.println("After reset - blocked: " + backoff.isBlocked(user));
+
+		//memory bound - blocked accounts survive a flood of other IDs
+		LoginBackoff bounded = new LoginBackoff(3, 60000, 600000, 600000, 1000);
+		for (int i=0; i<5; i++){
+			bounded.recordFailure(user);
+		}
+		for (int i=0; i<100000; i++){
+			bounded.recordFailure("flood" + i);
+		}
+		System.out.print(bounded.getStatsAsString());
+		System.out.println("Target still blocked: " + bounded.isBlocked(user));
+		if (!bounded.isBlocked(user)){
+			throw new RuntimeException("Blocked account was evicted!");
+		}
+	}
+}
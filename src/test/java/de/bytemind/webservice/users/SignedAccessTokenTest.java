@@ -0,0 +1,59 @@
+package de.bytemind.webservice.users;
+
+import java.util.Arrays;
+
+import de.bytemind.webservice.server.Config;
+
+public class SignedAccessTokenTest {
+
+	public static void main(String[] args) throws Exception {
+
+		//weak secret - no tokens
+		Config.serverSecret = "123456";
+		if (!SignedAccessToken.create("uid1001", 0, "web_app", null).isEmpty()){
+			throw new RuntimeException("Token issued with weak secret!");
+		}
+
+		Config.serverSecret = "test-secret-with-enough-characters";
+		String token = SignedAccessToken.create("uid1001", 0, "web_app", Arrays.asList("user", "developer"));
+		System.out.println("Token (" + token.length() + " chars): " + token);
+		SignedAccessToken verified = SignedAccessToken.verify("uid1001", token);
+		if (verified == null || !verified.getRoles().contains("developer")){
+			throw new RuntimeException("Valid token was rejected!");
+		}
+		System.out.println("Verified - user: " + verified.getUserID() + ", roles: " + verified.getRoles() + ", client: " + verified.getClient());
+
+		//tampered payload, wrong user, other secret
+		String tampered = token.replaceFirst("\\.([A-Za-z0-9_-])", ".A$1");
+		check("tampered", SignedAccessToken.verify("uid1001", tampered) == null);
+		check("wrong user", SignedAccessToken.verify("uid1002", token) == null);
+		Config.serverSecret = "another-secret-with-enough-characters";
+		check("other secret", SignedAccessToken.verify("uid1001", token) == null);
+		Config.serverSecret = "test-secret-with-enough-characters";
+
+		//speed
+		long t = System.nanoTime();
+		int n = 100000;
+		for (int i=0; i<n; i++){
+			SignedAccessToken.verify("uid1001", token);
+		}
+		System.out.println(n + " verifications - " + ((System.nanoTime() - t) / n / 1000.0) + " microseconds each");
+
+		//revocation (logout of client)
+		Thread.sleep(2);
+		SignedAccessToken.revoke("uid1001", "web_app");
+		check("revoked", SignedAccessToken.verify("uid1001", token) == null);
+		Thread.sleep(2);
+		String newToken = SignedAccessToken.create("uid1001", 0, "web_app", null);
+		check("new token after logout", SignedAccessToken.verify("uid1001", newToken) != null);
+
+		System.out.print(SignedAccessToken.getStatsAsString());
+	}
+
+	private static void check(String name, boolean ok){
+		System.out.println(name + ": " + (ok? "ok" : "FAILED"));
+		if (!ok){
+			throw new RuntimeException("Check failed: " + name);
+		}
+	}
+}
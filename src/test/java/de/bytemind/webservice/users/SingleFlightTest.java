@@ -0,0 +1,58 @@
+package de.bytemind.webservice.users;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.bytemind.webservice.metrics.Metrics;
+
+public class SingleFlightTest {
+
+	public static void main(String[] args) throws Exception {
+
+		//32 parallel calls with the same key while a 'database read' of 50ms is running - only one read expected
+		SingleFlight<String> flights = new SingleFlight<>("Test");
+		AtomicInteger reads = new AtomicInteger(0);
+		AtomicInteger wrongResults = new AtomicInteger(0);
+		CountDownLatch start = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(32);
+		for (int i=0; i<32; i++){
+			new Thread(() -> {
+				try{
+					start.await();
+					String res = flights.execute("digest-1", () -> {
+						reads.incrementAndGet();
+						try{
+							Thread.sleep(50);
+						}catch (InterruptedException e){
+							Thread.currentThread().interrupt();
+						}
+						return "uid1001";
+					});
+					if (!res.equals("uid1001")){
+						wrongResults.incrementAndGet();
+					}
+				}catch (Exception e){
+					e.printStackTrace();
+				}finally{
+					done.countDown();
+				}
+			}).start();
+		}
+		start.countDown();
+		done.await();
+		System.out.println("Reads: " + reads.get() + ", merged: " + Metrics.counter("Test:merged").get() + ", in-flight after: " + flights.getInFlight());
+		if (reads.get() > 2 || wrongResults.get() > 0){
+			throw new RuntimeException("Calls were not coalesced!");
+		}
+
+		//exceptions reach all waiters, next call runs again
+		try{
+			flights.execute("digest-2", () -> {
+				throw new IllegalStateException("database down");
+			});
+		}catch (IllegalStateException e){
+			System.out.println("Exception passed: " + e.getMessage());
+		}
+		System.out.println("Next call: " + flights.execute("digest-2", () -> "ok"));
+	}
+}
@@ -0,0 +1,69 @@
+package de.bytemind.webservice.users;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Many calls of few users from many threads end up as one merged write per user and flush. Failed writes are retried with the
+ * next flush and shutdown writes what is left. Runs without database.
+ */
+public class StatisticsWriteBehindTest {
+
+	public static void main(String[] args) throws Exception {
+
+		int threads = 8;
+		int callsPerThread = 5000;
+		int users = 20;
+
+		Map<String, AtomicLong> totals = new ConcurrentHashMap<>();
+		AtomicInteger writes = new AtomicInteger(0);
+		AtomicInteger failures = new AtomicInteger(3);		//first 3 writes fail
+		StatisticsWriteBehind.Writer writer = (userID, calls, lastLogin) -> {
+			writes.incrementAndGet();
+			if (failures.getAndDecrement() > 0){
+				return false;
+			}
+			totals.computeIfAbsent(userID, k -> new AtomicLong()).addAndGet(calls);
+			return true;
+		};
+		StatisticsWriteBehind aggregator = new StatisticsWriteBehind(writer, 200, 1000, 4);
+
+		Thread[] workers = new Thread[threads];
+		for (int t=0; t<threads; t++){
+			workers[t] = new Thread(() -> {
+				for (int i=0; i<callsPerThread; i++){
+					aggregator.record("uid" + (1000 + (i % users)));
+				}
+			});
+			workers[t].start();
+		}
+		for (Thread t : workers){
+			t.join();
+		}
+		Thread.sleep(500);
+		aggregator.shutdown(5000);
+
+		long sum = 0;
+		for (AtomicLong v : totals.values()){
+			sum += v.get();
+		}
+		System.out.println(aggregator.getStatsAsString());
+		System.out.println("Calls: " + (threads * callsPerThread) + ", written calls: " + sum + ", writes: " + writes.get() + ", users: " + totals.size());
+		if (sum != threads * callsPerThread){
+			throw new RuntimeException("Lost calls: " + (threads * callsPerThread - sum));
+		}
+		if (totals.size() != users){
+			throw new RuntimeException("Expected " + users + " users but got " + totals.size());
+		}
+		if (writes.get() > users * 10){
+			throw new RuntimeException("Too many writes: " + writes.get());
+		}
+		if (aggregator.record("uid1000")){
+			throw new RuntimeException("Accepted call after shutdown");
+		}
+		System.out.println("DONE");
+	}
+
+}
@@ -0,0 +1,44 @@
+package de.bytemind.webservice.users;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import de.bytemind.core.tools.JSON;
+
+/**
+ * Item size estimate of the storage report (DynamoDB size rules) - runs without database.
+ */
+public class UserStorageMigrationTest {
+
+	public static void main(String[] args) throws Exception {
+
+		//"Guuid": "uid1003" -> 5 + 7
+		JSONObject item = JSON.make(AccountMapper.GUUID, JSON.make("S", "uid1003"));
+		check("string", UserStorageMigration.itemSize(item), 12);
+
+		//"pwd_iteration": 20000 -> 13 + (5 + 1) / 2 + 1
+		item = JSON.make(AccountMapper.PWD_ITERATIONS, JSON.make("N", "20000"));
+		check("number", UserStorageMigration.itemSize(item), 17);
+
+		//"name": {"first": "Ann"} -> 4 + 3 + (1 + 5 + 3)
+		item = JSON.make("name", JSON.make("M", JSON.make("first", JSON.make("S", "Ann"))));
+		check("map", UserStorageMigration.itemSize(item), 16);
+
+		//"uroles": ["user", "tester"] -> 6 + 3 + (1 + 4) + (1 + 6)
+		JSONArray roles = new JSONArray();
+		roles.add(JSON.make("S", "user"));
+		roles.add(JSON.make("S", "tester"));
+		item = JSON.make("uroles", JSON.make("L", roles));
+		check("list", UserStorageMigration.itemSize(item), 21);
+
+		System.out.println("DONE");
+	}
+
+	private static void check(String name, long is, long expected){
+		if (is != expected){
+			throw new RuntimeException("Size of " + name + " is " + is + " but should be " + expected);
+		}
+		System.out.println("Size of " + name + ": " + is + " - OK");
+	}
+
+}